@@ -58,6 +58,22 @@ public abstract class BarcodeScanActivity extends Activity implements
   
   abstract protected void displayFrameworkBugMessageAndExit();
 
+  /**
+   * Return false if the bitmap passed to {@link #handleDecode(Result, Bitmap)} isn't used, to
+   * save rendering it.
+   */
+  public boolean isBarcodeBitmapNeeded() {
+    return true;
+  }
+
+  /**
+   * Return true to only scan for ISBNs, which is faster than scanning for any of the decode
+   * formats.
+   */
+  protected boolean isBookScanning() {
+    return false;
+  }
+
   @Override
   public void onCreate(Bundle icicle) {
     super.onCreate(icicle);
@@ -132,7 +148,10 @@ public abstract class BarcodeScanActivity extends Activity implements
    * A valid barcode has been found.
    *
    * @param rawResult The contents of the barcode.
-   * @param barcode   A greyscale bitmap of the camera data which was decoded.
+   * @param barcode   A greyscale bitmap of the camera data which was decoded, or null if
+   *                  {@link #isBarcodeBitmapNeeded()} returns false.
+   *                  The luminance is stored as alpha, see
+   *                  {@link PlanarYUVLuminanceSource#renderCroppedGreyscaleBitmap()}.
    */
   public void handleDecode(Result rawResult, Bitmap barcode) {
     inactivityTimer.onActivity();
@@ -153,7 +172,8 @@ public abstract class BarcodeScanActivity extends Activity implements
       return;
     }
     if (handler == null) {
-      handler = new CaptureActivityHandler(this, this, getDecodeFormats(), getCharacterSet());
+      handler = new CaptureActivityHandler(this, this, getDecodeFormats(), getCharacterSet(),
+          isBookScanning());
     }
   }
   
@@ -22,6 +22,9 @@
  *  - Added viewfinderView 
  *  - Changed from R.id.* to MessageId.*
  *  - Temporarily removed support for R.id.restart_preview
+ *  - Request the next frame as soon as the decode thread has queued the previous one
+ *  - Added book scanning mode
+ *  - The barcode bitmap is only rendered if the callback needs it
  */
 
 package com.google.zxing.client.android;
@@ -57,6 +60,11 @@ public final class CaptureActivityHandler extends Handler {
 	void handleDecode(Result obj, Bitmap barcode);
 
 	void drawViewfinder();
+
+	/**
+	 * @return false if handleDecode() doesn't use the bitmap, which then is null.
+	 */
+	boolean isBarcodeBitmapNeeded();
   }
   private final Callback callback;
   // JB </added>
@@ -72,7 +80,8 @@ public final class CaptureActivityHandler extends Handler {
 
   // JB: removed:  CaptureActivityHandler(CaptureActivity activity, Vector<BarcodeFormat> decodeFormats,
   CaptureActivityHandler(Callback callback, ResultPointCallback resultPointCallback, Vector<BarcodeFormat> decodeFormats, // JB: added
-      String characterSet) {
+      // JB: removed:  String characterSet) {
+      String characterSet, boolean bookScanning) { // JB: added
     /* JB: removed
     this.activity = activity;
     decodeThread = new DecodeThread(activity, decodeFormats, characterSet,
@@ -80,7 +89,8 @@ public final class CaptureActivityHandler extends Handler {
     */
     // JB <added>
 	this.callback = callback;
-    decodeThread = new DecodeThread(this, decodeFormats, characterSet, resultPointCallback);
+    decodeThread = new DecodeThread(this, decodeFormats, characterSet, resultPointCallback,
+        bookScanning, callback.isBarcodeBitmapNeeded());
     // JB </added>
     decodeThread.start();
     state = State.SUCCESS;
@@ -125,6 +135,15 @@ public final class CaptureActivityHandler extends Handler {
         // JB: removed:  CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
         CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), MessageId.DECODE); // JB: added
         break;
+      // JB <added>
+      case MessageId.DECODE_QUEUED:
+        // the frame is being decoded on another thread, keep the frames coming until one of them
+        // succeeds
+        if (state == State.PREVIEW) {
+          CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), MessageId.DECODE);
+        }
+        break;
+      // JB </added>
       /* JB: remove functionality
       case R.id.return_scan_result:
         Log.d(TAG, "Got return scan result message");
@@ -162,6 +181,7 @@ public final class CaptureActivityHandler extends Handler {
     // JB <added>
     removeMessages(MessageId.DECODE_SUCCEEDED);
     removeMessages(MessageId.DECODE_FAILED);
+    removeMessages(MessageId.DECODE_QUEUED);
     // JB </added>
   }
 
@@ -174,6 +194,8 @@ public final class CaptureActivityHandler extends Handler {
       activity.drawViewfinder();
       */
       // JB <added>
+      // reaches the decode thread before the frame does
+      Message.obtain(decodeThread.getHandler(), MessageId.DECODE_START).sendToTarget();
       CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), MessageId.DECODE);
       CameraManager.get().requestAutoFocus(this, MessageId.AUTO_FOCUS);
       callback.drawViewfinder();
@@ -19,17 +19,22 @@
  * Changes:
  *  - Changed activity argument to handler
  *  - Changed from R.id.* to MessageId.*
+ *  - Decode with a FrameDecoder that reuses its objects between frames, and return the preview
+ *    buffer to the camera when done
+ *  - Decode on several threads with a DecodePipeline on multi-core devices
+ *  - Added book scanning mode
+ *  - Only render the barcode bitmap when asked to
  */
 
 package com.google.zxing.client.android;
 
-import com.google.zxing.BinaryBitmap;
+// JB: removed:  import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.ReaderException;
+// JB: removed:  import com.google.zxing.MultiFormatReader;
+// JB: removed:  import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.camera.CameraManager;
-import com.google.zxing.common.HybridBinarizer;
+// JB: removed:  import com.google.zxing.common.HybridBinarizer;
 
 import android.os.Bundle;
 import android.os.Handler;
@@ -45,14 +50,45 @@ final class DecodeHandler extends Handler {
 
   // JB: removed: private final CaptureActivity activity;
   private final Handler handler; // JB: added
-  private final MultiFormatReader multiFormatReader;
+  // JB: removed:  private final MultiFormatReader multiFormatReader;
+  private final FrameDecoder frameDecoder; // JB: added
+  private final DecodePipeline pipeline; // JB: added
+  private final boolean renderBarcodeBitmap; // JB: added
 
   // JB: removed: DecodeHandler(CaptureActivity activity, Hashtable<DecodeHintType, Object> hints) {
-  DecodeHandler(Handler handler, Hashtable<DecodeHintType, Object> hints) { // JB: added
+  DecodeHandler(Handler handler, Hashtable<DecodeHintType, Object> hints, // JB: added
+      boolean bookScanning, boolean renderBarcodeBitmap) { // JB: added
+    /* JB: removed
     multiFormatReader = new MultiFormatReader();
     multiFormatReader.setHints(hints);
+    */
+    frameDecoder = new FrameDecoder(hints, bookScanning); // JB: added
     // JB: removed: this.activity = activity;
     this.handler = handler; // JB: added
+    this.renderBarcodeBitmap = renderBarcodeBitmap; // JB: added
+    // JB <added>
+    int workerCount = DecodePipeline.getDefaultWorkerCount();
+    if (workerCount > 1) {
+      pipeline = new DecodePipeline(hints, bookScanning, workerCount,
+          new DecodePipeline.Callback() {
+            public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width,
+                int height) {
+              return CameraManager.get().buildLuminanceSource(data, width, height);
+            }
+
+            public void onDecodeSucceeded(Result result, PlanarYUVLuminanceSource source) {
+              sendDecodeSucceeded(result, source);
+            }
+
+            public void releaseFrame(byte[] data) {
+              CameraManager.get().releasePreviewFrame(data);
+            }
+          });
+    } else {
+      // a single core is kept busy enough by decoding on this thread
+      pipeline = null;
+    }
+    // JB </added>
   }
 
   @Override
@@ -61,10 +97,32 @@ final class DecodeHandler extends Handler {
       // JB: removed: case R.id.decode:
       case MessageId.DECODE: // JB: added
         //Log.d(TAG, "Got decode message");
-        decode((byte[]) message.obj, message.arg1, message.arg2);
+        // JB: removed:  decode((byte[]) message.obj, message.arg1, message.arg2);
+        // JB <added>
+        if (pipeline != null) {
+          if (pipeline.offer((byte[]) message.obj, message.arg1, message.arg2)) {
+            // the next frame can be requested straight away
+            Message.obtain(handler, MessageId.DECODE_QUEUED).sendToTarget();
+          }
+        } else {
+          decode((byte[]) message.obj, message.arg1, message.arg2);
+        }
+        // JB </added>
         break;
+      // JB <added>
+      case MessageId.DECODE_START:
+        if (pipeline != null) {
+          pipeline.start();
+        }
+        break;
+      // JB </added>
       // JB: removed: case R.id.quit:
       case MessageId.QUIT: // JB: added
+        // JB <added>
+        if (pipeline != null) {
+          pipeline.quit();
+        }
+        // JB </added>
         Looper.myLooper().quit();
         break;
     }
@@ -80,6 +138,7 @@ final class DecodeHandler extends Handler {
    */
   private void decode(byte[] data, int width, int height) {
     long start = System.currentTimeMillis();
+    /* JB: removed
     Result rawResult = null;
     PlanarYUVLuminanceSource source = CameraManager.get().buildLuminanceSource(data, width, height);
     BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
@@ -90,22 +149,50 @@ final class DecodeHandler extends Handler {
     } finally {
       multiFormatReader.reset();
     }
+    */
+    // JB <added>
+    PlanarYUVLuminanceSource source = frameDecoder.getLuminanceSource();
+    if (source == null || source.getDataWidth() != width || source.getDataHeight() != height) {
+      source = CameraManager.get().buildLuminanceSource(data, width, height);
+    }
+    Result rawResult = frameDecoder.decode(source, data);
+    // JB </added>
 
     if (rawResult != null) {
       long end = System.currentTimeMillis();
       Log.d(TAG, "Found barcode (" + (end - start) + " ms):\n" + rawResult.toString());
-      // JB: removed: Message message = Message.obtain(activity.getHandler(), R.id.decode_succeeded, rawResult);
-      Message message = Message.obtain(handler, MessageId.DECODE_SUCCEEDED, rawResult); // JB: added
+      /* JB: removed
+      Message message = Message.obtain(activity.getHandler(), R.id.decode_succeeded, rawResult);
       Bundle bundle = new Bundle();
       bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
       message.setData(bundle);
       //Log.d(TAG, "Sending decode succeeded message...");
       message.sendToTarget();
+      */
+      sendDecodeSucceeded(rawResult, source); // JB: added
     } else {
       // JB: removed: Message message = Message.obtain(activity.getHandler(), R.id.decode_failed);
       Message message = Message.obtain(handler, MessageId.DECODE_FAILED); // JB: added
       message.sendToTarget();
     }
+    // the bitmap has been rendered, so the camera can fill the buffer again
+    CameraManager.get().releasePreviewFrame(data); // JB: added
+  }
+
+  // JB <added>
+  /**
+   * Sends the result, with the frame it was found in, to the handler. Called on this thread, or
+   * on one of the pipeline's workers.
+   */
+  private void sendDecodeSucceeded(Result rawResult, PlanarYUVLuminanceSource source) {
+    Message message = Message.obtain(handler, MessageId.DECODE_SUCCEEDED, rawResult);
+    if (renderBarcodeBitmap) {
+      Bundle bundle = new Bundle();
+      bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
+      message.setData(bundle);
+    }
+    message.sendToTarget();
   }
+  // JB </added>
 
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2011 Jonas Bengtsson
+ * Decodes preview frames on several threads at once. Has no Android dependencies.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decodes preview frames on a number of worker threads. Only the latest frame is kept, in a
+ * single slot mailbox that frames are swapped in and out of without locking, so a slow decode
+ * never makes the pipeline fall behind the camera. Once a worker finds a barcode the pipeline
+ * pauses until {@link #start()} is called again, and the frames the other workers are decoding
+ * become stale: they are dropped as soon as their decoder reports progress.
+ *
+ * All frames given to {@link #offer(byte[], int, int)} are eventually handed back through
+ * {@link Callback#releaseFrame(byte[])}.
+ */
+public final class DecodePipeline {
+
+  /**
+   * Called from the worker threads.
+   */
+  public interface Callback {
+    PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height);
+
+    /**
+     * Called once for each {@link #start()}, with the first barcode found. The source still
+     * contains the frame, which is released afterwards.
+     */
+    void onDecodeSucceeded(Result result, PlanarYUVLuminanceSource source);
+
+    void releaseFrame(byte[] data);
+  }
+
+  private static final class Frame {
+    final byte[] data;
+    final int width;
+    final int height;
+    final int generation;
+
+    Frame(byte[] data, int width, int height, int generation) {
+      this.data = data;
+      this.width = width;
+      this.height = height;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Thrown from the result point callback to abandon a stale decode.
+   */
+  private static final class CancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private final class Worker extends Thread implements ResultPointCallback {
+    private final FrameDecoder frameDecoder;
+    private final ResultPointCallback resultPointCallback;
+    private volatile int decodingGeneration;
+
+    Worker(Hashtable<DecodeHintType, Object> hints, boolean bookScanning, int index) {
+      super("DecodePipeline-" + index);
+      setDaemon(true);
+      // route result points through the worker, so that stale decodes can be cancelled
+      Hashtable<DecodeHintType, Object> workerHints = new Hashtable<DecodeHintType, Object>(hints);
+      resultPointCallback =
+          (ResultPointCallback) workerHints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+      workerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, this);
+      frameDecoder = new FrameDecoder(workerHints, bookScanning);
+    }
+
+    public void foundPossibleResultPoint(ResultPoint point) {
+      if (decodingGeneration != generation.get()) {
+        throw new CancelledException();
+      }
+      if (resultPointCallback != null) {
+        // the callback is shared by all workers
+        synchronized (DecodePipeline.this) {
+          resultPointCallback.foundPossibleResultPoint(point);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      while (!quit) {
+        Frame frame = mailbox.getAndSet(null);
+        if (frame == null) {
+          waiting.incrementAndGet();
+          // offer() unparks us if a frame arrives after we looked
+          if (mailbox.get() == null && !quit) {
+            LockSupport.park(this);
+          }
+          waiting.decrementAndGet();
+          continue;
+        }
+        try {
+          decode(frame);
+        } finally {
+          callback.releaseFrame(frame.data);
+        }
+      }
+    }
+
+    private void decode(Frame frame) {
+      if (frame.generation != generation.get()) {
+        return;
+      }
+      PlanarYUVLuminanceSource source = frameDecoder.getLuminanceSource();
+      if (source == null || source.getDataWidth() != frame.width ||
+          source.getDataHeight() != frame.height) {
+        source = callback.buildLuminanceSource(frame.data, frame.width, frame.height);
+      }
+      decodingGeneration = frame.generation;
+      Result result;
+      try {
+        result = frameDecoder.decode(source, frame.data);
+      } catch (CancelledException e) {
+        return;
+      }
+      // only the first worker to succeed gets to report, which also pauses the pipeline
+      if (result != null && generation.compareAndSet(frame.generation, frame.generation + 1)) {
+        releaseWaitingFrame();
+        callback.onDecodeSucceeded(result, source);
+      }
+    }
+  }
+
+  private static final int MAX_WORKERS = 3;
+
+  private final Callback callback;
+  // odd while decoding, even while paused
+  private final AtomicInteger generation = new AtomicInteger();
+  private final AtomicReference<Frame> mailbox = new AtomicReference<Frame>();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final Worker[] workers;
+  private volatile boolean quit;
+
+  /**
+   * @param bookScanning See {@link FrameDecoder#FrameDecoder(Hashtable, boolean)}.
+   */
+  public DecodePipeline(Hashtable<DecodeHintType, Object> hints, boolean bookScanning,
+      int workerCount, Callback callback) {
+    this.callback = callback;
+    workers = new Worker[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      workers[i] = new Worker(hints, bookScanning, i);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * @return The number of frames that can be decoded in parallel on this device.
+   */
+  public static int getDefaultWorkerCount() {
+    return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+  }
+
+  /**
+   * Starts decoding offered frames, until a barcode is found or {@link #pause()} is called.
+   */
+  public void start() {
+    int current = generation.get();
+    if ((current & 1) == 0) {
+      generation.compareAndSet(current, current + 1);
+    }
+  }
+
+  /**
+   * Stops decoding. Frames being decoded are cancelled and frames offered are released right
+   * away.
+   */
+  public void pause() {
+    int current = generation.get();
+    if ((current & 1) != 0) {
+      generation.compareAndSet(current, current + 1);
+    }
+    releaseWaitingFrame();
+  }
+
+  /**
+   * Hands a frame to the next idle worker, replacing any frame still waiting for one.
+   *
+   * @return false if the pipeline is paused, and the frame has already been released.
+   */
+  public boolean offer(byte[] data, int width, int height) {
+    int current = generation.get();
+    if ((current & 1) == 0 || quit) {
+      callback.releaseFrame(data);
+      return false;
+    }
+    Frame stale = mailbox.getAndSet(new Frame(data, width, height, current));
+    if (stale != null) {
+      callback.releaseFrame(stale.data);
+    }
+    if (waiting.get() > 0) {
+      for (Worker worker : workers) {
+        LockSupport.unpark(worker);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops the workers and waits for them to finish. The pipeline can't be used afterwards.
+   */
+  public void quit() {
+    pause();
+    quit = true;
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        // continue
+      }
+    }
+    releaseWaitingFrame();
+  }
+
+  private void releaseWaitingFrame() {
+    Frame frame = mailbox.getAndSet(null);
+    if (frame != null) {
+      callback.releaseFrame(frame.data);
+    }
+  }
+
+}
@@ -19,6 +19,8 @@
  * Changes:
  *  - Commented out handling of unspecified formats
  *  - Changed activity argument to handler
+ *  - Added book scanning mode
+ *  - Optionally skip the barcode bitmap
  */
 
 package com.google.zxing.client.android;
@@ -48,6 +50,8 @@ final class DecodeThread extends Thread {
   // JB: removed: private final CaptureActivity activity;
   private final Handler receiverHandler; // JB: added
   private final Hashtable<DecodeHintType, Object> hints;
+  private final boolean bookScanning; // JB: added
+  private final boolean renderBarcodeBitmap; // JB: added
   private Handler handler;
   private final CountDownLatch handlerInitLatch;
 
@@ -55,10 +59,15 @@ final class DecodeThread extends Thread {
 	DecodeThread(Handler receiverHandler, // JB: added
                Vector<BarcodeFormat> decodeFormats,
                String characterSet,
-               ResultPointCallback resultPointCallback) {
+               // JB: removed:  ResultPointCallback resultPointCallback) {
+               ResultPointCallback resultPointCallback, // JB: added
+               boolean bookScanning, // JB: added
+               boolean renderBarcodeBitmap) { // JB: added
 
     // JB: removed: this.activity = activity;
     this.receiverHandler = receiverHandler; // JB: added
+    this.bookScanning = bookScanning; // JB: added
+    this.renderBarcodeBitmap = renderBarcodeBitmap; // JB: added
     handlerInitLatch = new CountDownLatch(1);
 
     hints = new Hashtable<DecodeHintType, Object>(3);
@@ -101,7 +110,8 @@ final class DecodeThread extends Thread {
   public void run() {
     Looper.prepare();
     // JB: removed: handler = new DecodeHandler(activity, hints);
-    handler = new DecodeHandler(receiverHandler, hints); // JB: added
+    handler = new DecodeHandler(receiverHandler, hints, bookScanning, // JB: added
+        renderBarcodeBitmap); // JB: added
     handlerInitLatch.countDown();
     Looper.loop();
   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 Jonas Bengtsson
+ * This file is based on the decoding in DecodeHandler, but keeps the reader objects between
+ * frames and has no Android dependencies.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.oned.EAN13Reader;
+
+import java.util.Hashtable;
+
+/**
+ * Decodes preview frames one at a time. The luminance source, binarizer and reader are reused
+ * from one frame to the next, so a frame without a barcode doesn't create any garbage (a
+ * BinaryBitmap wrapper aside). Not thread safe.
+ *
+ * When scanning books, only a few rows through the middle of the frame are searched for an
+ * EAN-13 barcode, and every few frames without one all rows are searched like the other
+ * readers do. Barcodes that aren't Bookland EAN-13, i.e. don't start with 978 or 979, are
+ * ignored.
+ */
+public final class FrameDecoder {
+
+  // rows scanned in the middle and this part of the height above and below it
+  private static final int BOOK_ROW_SPACING = 8;
+  private static final int MISSES_BEFORE_FULL_SCAN = 4;
+
+  private final MultiFormatReader multiFormatReader;
+  private PlanarYUVLuminanceSource source;
+  private ReusableHybridBinarizer binarizer;
+  private final boolean bookScanning;
+  private final Hashtable<DecodeHintType, Object> hints;
+  private final Hashtable<DecodeHintType, Object> reversedHints;
+  private final EAN13Reader ean13Reader;
+  private BitArray row;
+  private int misses;
+
+  public FrameDecoder(Hashtable<DecodeHintType, Object> hints) {
+    this(hints, false);
+  }
+
+  /**
+   * @param bookScanning Only look for Bookland EAN-13 barcodes, in a few rows at a time.
+   */
+  public FrameDecoder(Hashtable<DecodeHintType, Object> hints, boolean bookScanning) {
+    multiFormatReader = new MultiFormatReader();
+    multiFormatReader.setHints(hints);
+    this.bookScanning = bookScanning;
+    this.hints = hints;
+    // result points of reversed rows would be in the wrong place, like in OneDReader
+    reversedHints = new Hashtable<DecodeHintType, Object>(hints);
+    reversedHints.remove(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+    ean13Reader = bookScanning ? new EAN13Reader() : null;
+  }
+
+  /**
+   * @return true if the EAN-13 barcode is an ISBN.
+   */
+  public static boolean isBookland(String ean) {
+    return ean.length() == 13 && (ean.startsWith("978") || ean.startsWith("979"));
+  }
+
+  /**
+   * Decodes a frame within the crop rectangle of the source, which is reused for later frames
+   * of the same size.
+   *
+   * @param source The source describing the frame size and crop rectangle.
+   * @param data   The YUV preview frame.
+   * @return The decoded barcode, or null if none was found.
+   */
+  public Result decode(PlanarYUVLuminanceSource source, byte[] data) {
+    if (source != this.source) {
+      this.source = source;
+      binarizer = new ReusableHybridBinarizer(source);
+    }
+    source.setYuvData(data);
+    binarizer.reset();
+
+    if (!bookScanning) {
+      return decodeAll();
+    }
+    Result result = decodeMiddleRows();
+    if (result == null && ++misses > MISSES_BEFORE_FULL_SCAN) {
+      result = decodeAll();
+    }
+    if (result == null) {
+      return null;
+    }
+    misses = 0;
+    return isBookland(result.getText()) ? result : null;
+  }
+
+  private Result decodeAll() {
+    misses = 0;
+    try {
+      return multiFormatReader.decodeWithState(new BinaryBitmap(binarizer));
+    } catch (ReaderException re) {
+      return null;
+    } finally {
+      multiFormatReader.reset();
+    }
+  }
+
+  private Result decodeMiddleRows() {
+    int height = source.getHeight();
+    int middle = height / 2;
+    int spacing = height / BOOK_ROW_SPACING;
+    int[] rows = {middle, middle - spacing, middle + spacing};
+    for (int y : rows) {
+      Result result = decodeRow(y);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  private Result decodeRow(int y) {
+    try {
+      row = binarizer.getBlackRow(y, row);
+    } catch (ReaderException re) {
+      return null;
+    }
+    try {
+      return ean13Reader.decodeRow(y, row, hints);
+    } catch (ReaderException re) {
+      // the book may be upside down
+    }
+    row.reverse();
+    try {
+      Result result = ean13Reader.decodeRow(y, row, reversedHints);
+      result.putMetadata(ResultMetadataType.ORIENTATION, new Integer(180));
+      ResultPoint[] points = result.getResultPoints();
+      int width = source.getWidth();
+      for (int i = 0; i < points.length; i++) {
+        points[i] = new ResultPoint(width - points[i].getX() - 1, points[i].getY());
+      }
+      return result;
+    } catch (ReaderException re) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The source of the last decoded frame, or null if nothing has been decoded yet.
+   */
+  public PlanarYUVLuminanceSource getLuminanceSource() {
+    return source;
+  }
+
+}
@@ -6,6 +6,8 @@ final class MessageId {
 	public static final int QUIT = 1;
 	public static final int DECODE_SUCCEEDED = 2;
 	public static final int DECODE_FAILED = 3;
+	public static final int DECODE_QUEUED = 6;
+	public static final int DECODE_START = 7;
 	// CaptureActivityHandler <-> CameraManager
 	public static final int AUTO_FOCUS = 4;
 	// BarcodeScanActivity <-> CaptureActivityHandler
@@ -14,12 +14,22 @@
  * limitations under the License.
  */
 
+/*
+ * Copyright (C) 2011 Jonas Bengtsson
+ * Changes:
+ *  - Made the frame data replaceable and the cropped matrix reused, so that a single instance
+ *    can be used for all preview frames
+ *  - Render the greyscale bitmap as ALPHA_8 through a reused buffer
+ */
+
 package com.google.zxing.client.android;
 
 import com.google.zxing.LuminanceSource;
 
 import android.graphics.Bitmap;
 
+import java.nio.ByteBuffer; // JB: added
+
 /**
  * This object extends LuminanceSource around an array of YUV data returned from the camera driver,
  * with the option to crop to a rectangle within the full data. This can be used to exclude
@@ -31,7 +41,10 @@ import android.graphics.Bitmap;
  * @author dswitkin@google.com (Daniel Switkin)
  */
 public final class PlanarYUVLuminanceSource extends LuminanceSource {
-  private final byte[] yuvData;
+  // JB: removed:  private final byte[] yuvData;
+  private byte[] yuvData; // JB: added
+  private byte[] matrix; // JB: added
+  private byte[] greyscale; // JB: added
   private final int dataWidth;
   private final int dataHeight;
   private final int left;
@@ -78,7 +91,12 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     }
 
     int area = width * height;
-    byte[] matrix = new byte[area];
+    // JB: removed:  byte[] matrix = new byte[area];
+    // JB <added>
+    if (matrix == null) {
+      matrix = new byte[area];
+    }
+    // JB </added>
     int inputOffset = top * dataWidth + left;
 
     // If the width matches the full width of the underlying data, perform a single copy.
@@ -102,6 +120,16 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     return true;
   }
 
+  // JB <added>
+  /**
+   * Replaces the frame data, which must have the same size as before. Binarizers of this source
+   * must be reset afterwards.
+   */
+  public void setYuvData(byte[] yuvData) {
+    this.yuvData = yuvData;
+  }
+  // JB </added>
+
   public int getDataWidth() {
     return dataWidth;
   }
@@ -110,9 +138,30 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     return dataHeight;
   }
 
+  /**
+   * JB: Renders the cropped frame with the luminance as alpha, which is a quarter of the size
+   * of an ARGB_8888 bitmap. Draw it with a white paint on a dark background to see it as
+   * greyscale.
+   */
   public Bitmap renderCroppedGreyscaleBitmap() {
     int width = getWidth();
     int height = getHeight();
+    // JB <added>
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+    // rows may be padded
+    int rowBytes = bitmap.getRowBytes();
+    if (greyscale == null || greyscale.length < rowBytes * height) {
+      greyscale = new byte[rowBytes * height];
+    }
+    int inputOffset = top * dataWidth + left;
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(yuvData, inputOffset, greyscale, y * rowBytes, width);
+      inputOffset += dataWidth;
+    }
+    bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(greyscale, 0, rowBytes * height));
+    return bitmap;
+    // JB </added>
+    /* JB: removed
     int[] pixels = new int[width * height];
     byte[] yuv = yuvData;
     int inputOffset = top * dataWidth + left;
@@ -129,5 +178,6 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
     bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
     return bitmap;
+    */
   }
 }
@@ -18,18 +18,25 @@
  * Copyright (C) 2010 Jonas Bengtsson
  * Changes:
  *  - Removed dependency on PreferencesActivity
+ *  - Preview frames are delivered in a few reused buffers on Froyo and later
+ *  - One preview buffer for each decode worker
  */
 
 package com.google.zxing.client.android.camera;
 
+import com.google.zxing.client.android.DecodePipeline; // JB: added
+
 import android.content.Context;
 //JB: removed: import android.content.SharedPreferences;
+import android.graphics.ImageFormat; // JB: added
 import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper; // JB: added
+import android.os.Message; // JB: added
 //JB: removed: import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -53,6 +60,33 @@ public final class CameraManager {
   private static final int MIN_FRAME_HEIGHT = 240;
   private static final int MAX_FRAME_WIDTH = 480;
   private static final int MAX_FRAME_HEIGHT = 360;
+  // JB <added>
+  private static final int RELEASE_PREVIEW_FRAME = 0;
+  private static final int FROYO = 8;
+
+  /**
+   * Methods that are only available on Froyo and later, in a class of their own so that it's
+   * only loaded when they can be called.
+   */
+  static final class LazyLoadFroyoAndBeyond {
+    static void addCallbackBuffer(Camera camera, byte[] buffer) {
+      camera.addCallbackBuffer(buffer);
+    }
+
+    static int getBufferSize(int width, int height, int previewFormat) {
+      int bitsPerPixel = ImageFormat.getBitsPerPixel(previewFormat);
+      if (bitsPerPixel <= 0) {
+        // unknown format, large enough for anything with 16 bits per pixel or less
+        bitsPerPixel = 16;
+      }
+      return width * height * bitsPerPixel / 8;
+    }
+
+    static void setPreviewCallbackWithBuffer(Camera camera, Camera.PreviewCallback callback) {
+      camera.setPreviewCallbackWithBuffer(callback);
+    }
+  }
+  // JB </added>
 
   private static CameraManager cameraManager;
 
@@ -76,6 +110,13 @@ public final class CameraManager {
   private boolean initialized;
   private boolean previewing;
   private final boolean useOneShotPreviewCallback;
+  // JB <added>
+  private final boolean useBufferedPreviewCallback;
+  private final int previewBufferCount;
+  private byte[][] previewBuffers;
+  /** Frames are returned to the camera on the thread it was opened on. */
+  private final Handler releaseHandler;
+  // JB </added>
   /**
    * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
    * clear the handler so it will only receive one message.
@@ -115,8 +156,26 @@ public final class CameraManager {
     // to run out of memory. We can't use SDK_INT because it was introduced in the Donut SDK.
     //useOneShotPreviewCallback = Integer.parseInt(Build.VERSION.SDK) > Build.VERSION_CODES.CUPCAKE;
     useOneShotPreviewCallback = Integer.parseInt(Build.VERSION.SDK) > 3; // 3 = Cupcake
+    // JB <added>
+    // Froyo and later can deliver frames in buffers that we give the camera, rather than
+    // allocating a new one for every frame
+    useBufferedPreviewCallback = SDK_INT >= FROYO;
+    // one per decode worker, one waiting for a worker, the latest frame kept by the preview
+    // callback and one being filled by the camera
+    previewBufferCount = DecodePipeline.getDefaultWorkerCount() + 3;
+    releaseHandler = new Handler(Looper.getMainLooper()) {
+      @Override
+      public void handleMessage(Message message) {
+        if (message.what == RELEASE_PREVIEW_FRAME) {
+          addPreviewBuffer((byte[]) message.obj);
+        }
+      }
+    };
+    // JB </added>
 
-    previewCallback = new PreviewCallback(configManager, useOneShotPreviewCallback);
+    // JB: removed:  previewCallback = new PreviewCallback(configManager, useOneShotPreviewCallback);
+    previewCallback = new PreviewCallback(configManager, useOneShotPreviewCallback, // JB: added
+        useBufferedPreviewCallback);
     autoFocusCallback = new AutoFocusCallback();
   }
 
@@ -167,6 +226,20 @@ public final class CameraManager {
    */
   public void startPreview() {
     if (camera != null && !previewing) {
+      // JB <added>
+      if (useBufferedPreviewCallback) {
+        Point cameraResolution = configManager.getCameraResolution();
+        int size = LazyLoadFroyoAndBeyond.getBufferSize(cameraResolution.x, cameraResolution.y,
+            configManager.getPreviewFormat());
+        if (previewBuffers == null || previewBuffers[0].length != size) {
+          previewBuffers = new byte[previewBufferCount][size];
+        }
+        LazyLoadFroyoAndBeyond.setPreviewCallbackWithBuffer(camera, previewCallback);
+        for (byte[] buffer : previewBuffers) {
+          LazyLoadFroyoAndBeyond.addCallbackBuffer(camera, buffer);
+        }
+      }
+      // JB </added>
       camera.startPreview();
       previewing = true;
     }
@@ -180,6 +253,12 @@ public final class CameraManager {
       if (!useOneShotPreviewCallback) {
         camera.setPreviewCallback(null);
       }
+      // JB <added>
+      if (useBufferedPreviewCallback) {
+        // also forgets the buffers given to the camera
+        LazyLoadFroyoAndBeyond.setPreviewCallbackWithBuffer(camera, null);
+      }
+      // JB </added>
       camera.stopPreview();
       previewCallback.setHandler(null, 0);
       autoFocusCallback.setHandler(null, 0);
@@ -198,7 +277,10 @@ public final class CameraManager {
   public void requestPreviewFrame(Handler handler, int message) {
     if (camera != null && previewing) {
       previewCallback.setHandler(handler, message);
-      if (useOneShotPreviewCallback) {
+      // JB: removed:  if (useOneShotPreviewCallback) {
+      if (useBufferedPreviewCallback) { // JB <added>
+        // the callback is installed for as long as the preview runs
+      } else if (useOneShotPreviewCallback) { // JB </added>
         camera.setOneShotPreviewCallback(previewCallback);
       } else {
         camera.setPreviewCallback(previewCallback);
@@ -206,6 +288,33 @@ public final class CameraManager {
     }
   }
 
+  // JB <added>
+  /**
+   * Gives a frame from {@link #requestPreviewFrame} back to the camera to be filled again. The
+   * frame must not be used afterwards. Can be called on any thread.
+   *
+   * @param data The preview frame.
+   */
+  public void releasePreviewFrame(byte[] data) {
+    if (useBufferedPreviewCallback) {
+      releaseHandler.obtainMessage(RELEASE_PREVIEW_FRAME, data).sendToTarget();
+    }
+  }
+
+  void addPreviewBuffer(byte[] data) {
+    if (camera == null || !previewing) {
+      return;
+    }
+    // frames released while the preview is stopped are given to the camera by startPreview()
+    for (byte[] buffer : previewBuffers) {
+      if (buffer == data) {
+        LazyLoadFroyoAndBeyond.addCallbackBuffer(camera, data);
+        return;
+      }
+    }
+  }
+  // JB </added>
+
   /**
    * Asks the camera hardware to perform an autofocus.
    *
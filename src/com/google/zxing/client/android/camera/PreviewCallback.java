@@ -14,6 +14,13 @@
  * limitations under the License.
  */
 
+/*
+ * Copyright (C) 2011 Jonas Bengtsson
+ * Changes:
+ *  - Support for frames delivered in buffers given to the camera, where the latest frame is kept
+ *    until it's requested
+ */
+
 package com.google.zxing.client.android.camera;
 
 import android.graphics.Point;
@@ -28,17 +35,37 @@ final class PreviewCallback implements Camera.PreviewCallback {
 
   private final CameraConfigurationManager configManager;
   private final boolean useOneShotPreviewCallback;
+  private final boolean useBufferedPreviewCallback; // JB: added
   private Handler previewHandler;
   private int previewMessage;
+  private byte[] latestFrame; // JB: added
+  private Camera latestFrameCamera; // JB: added
 
-  PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback) {
+  // JB: removed:  PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback) {
+  PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback, // JB: added
+      boolean useBufferedPreviewCallback) { // JB: added
     this.configManager = configManager;
     this.useOneShotPreviewCallback = useOneShotPreviewCallback;
+    this.useBufferedPreviewCallback = useBufferedPreviewCallback; // JB: added
   }
 
   void setHandler(Handler previewHandler, int previewMessage) {
     this.previewHandler = previewHandler;
     this.previewMessage = previewMessage;
+    // JB <added>
+    if (previewHandler == null) {
+      // the preview is stopped, the camera no longer has the buffer
+      latestFrame = null;
+      latestFrameCamera = null;
+    } else if (latestFrame != null) {
+      // no need to wait for the next frame
+      byte[] frame = latestFrame;
+      Camera camera = latestFrameCamera;
+      latestFrame = null;
+      latestFrameCamera = null;
+      onPreviewFrame(frame, camera);
+    }
+    // JB </added>
   }
 
   public void onPreviewFrame(byte[] data, Camera camera) {
@@ -51,6 +78,15 @@ final class PreviewCallback implements Camera.PreviewCallback {
           cameraResolution.y, data);
       message.sendToTarget();
       previewHandler = null;
+    // JB <added>
+    } else if (useBufferedPreviewCallback) {
+      // keep the latest frame for the next request, and let the camera fill the older one again
+      if (latestFrame != null) {
+        CameraManager.LazyLoadFroyoAndBeyond.addCallbackBuffer(camera, latestFrame);
+      }
+      latestFrame = data;
+      latestFrameCamera = camera;
+    // JB </added>
     } else {
       Log.d(TAG, "Got preview callback, but no handler for it");
     }
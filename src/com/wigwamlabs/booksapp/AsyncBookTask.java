@@ -63,8 +63,7 @@ public abstract class AsyncBookTask<Param> extends AsyncTask<Param, Long, Intege
 			// TODO share transaction for all?
 			try {
 				final long id = doInBackground(mContext, mDb, param);
-				mNextParam = nextParam;
-				publishProgress(Long.valueOf(id));
+				publishProgress(id, nextParam);
 				result++;
 			} catch (final Exception e) {
 				Log.e(TAG, "Exception", e);
@@ -136,4 +135,9 @@ public abstract class AsyncBookTask<Param> extends AsyncTask<Param, Long, Intege
 				mListener.onNextParam(next);
 		}
 	}
+
+	protected void publishProgress(long id, Param nextParam) {
+		mNextParam = nextParam;
+		publishProgress(Long.valueOf(id));
+	}
 }
\ No newline at end of file
@@ -41,6 +41,7 @@ public class BackgroundFileOperations {
 		}
 	}
 
+	private final ConcurrentLinkedQueue<String> mAddedFiles = new ConcurrentLinkedQueue<String>();
 	private final DeleteFileAction mDeleteFileAction;
 	private final ConcurrentLinkedQueue<Pair<String, Serializable>> mObjectsToSerialize = new ConcurrentLinkedQueue<Pair<String, Serializable>>();
 	/* package */Thread mThread;
@@ -49,6 +50,16 @@ public class BackgroundFileOperations {
 		mDeleteFileAction = deleteFileAction;
 	}
 
+	/**
+	 * Tells about a file that has been written elsewhere, so that it's counted
+	 * when deciding whether to delete files.
+	 */
+	public void addFile(String path) {
+		mAddedFiles.add(path);
+
+		startThreadIfNecessary();
+	}
+
 	public void addObjectSerialization(String path, Serializable object) {
 		mObjectsToSerialize.add(Pair.create(path, object));
 
@@ -57,6 +68,12 @@ public class BackgroundFileOperations {
 
 	/* package */void execute() {
 		while (true) {
+			final String path = mAddedFiles.poll();
+			if (path != null) {
+				mDeleteFileAction.onFileAdded(path);
+				continue;
+			}
+
 			final Pair<String, Serializable> p = mObjectsToSerialize.poll();
 			if (p != null) {
 				serializeObject(p.first, p.second);
@@ -16,6 +16,7 @@
 
 package com.wigwamlabs.booksapp;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -24,11 +25,20 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 public class BitmapCacheHashMap<Key> extends LinkedHashMap<Key, Bitmap> {
+	public interface OnRemovedListener {
+		/**
+		 * Called when a bitmap is evicted or replaced, not when the whole map
+		 * is cleared.
+		 */
+		void onBitmapRemoved(Bitmap bitmap);
+	}
+
 	private static final long serialVersionUID = -7495095304391759144L;
 	private static final String TAG = "BitmapCacheHashMap";
 	private static final int TINY_BITMAP_SIZE = 128;
 	private final int mLimitBytes;
 	private final int mLimitSize;
+	private transient OnRemovedListener mOnRemovedListener;
 	int mSizeBytes;
 
 	public BitmapCacheHashMap(int limitSize, int limitBytes) {
@@ -48,6 +58,8 @@ public class BitmapCacheHashMap<Key> extends LinkedHashMap<Key, Bitmap> {
 		final Bitmap oldValue = super.put(key, value);
 		if (oldValue != null) {
 			mSizeBytes -= oldValue.getRowBytes() * oldValue.getHeight();
+			if (oldValue != value)
+				notifyRemoved(oldValue);
 		}
 		if (value != null) {
 			mSizeBytes += value.getRowBytes() * value.getHeight();
@@ -65,36 +77,60 @@ public class BitmapCacheHashMap<Key> extends LinkedHashMap<Key, Bitmap> {
 				Log.d(TAG, "remove old value: " + mSizeBytes + " - " + bitmapSize + " = "
 						+ (mSizeBytes - bitmapSize));
 			mSizeBytes -= bitmapSize;
+			notifyRemoved(oldValue);
 		}
 		return oldValue;
 	}
 
+	private void notifyRemoved(Bitmap bitmap) {
+		if (mOnRemovedListener != null && bitmap != null)
+			mOnRemovedListener.onBitmapRemoved(bitmap);
+	}
+
 	private void removeOldEntries() {
+		// collect keys first and remove them through remove(Object), so that
+		// the size is updated and the listener is notified
+		final ArrayList<Key> keysToRemove = new ArrayList<Key>();
+
 		// remove non-tiny bitmaps
-		if (mSizeBytes > mLimitBytes) {
+		int sizeBytes = mSizeBytes;
+		if (sizeBytes > mLimitBytes) {
 			final Iterator<Map.Entry<Key, Bitmap>> it = entrySet().iterator();
-			while (mSizeBytes > mLimitBytes) {
+			while (sizeBytes > mLimitBytes) {
 				if (!it.hasNext())
 					break;
-				final Bitmap bitmap = it.next().getValue();
+				final Map.Entry<Key, Bitmap> entry = it.next();
+				final Bitmap bitmap = entry.getValue();
 				final int bitmapSize = (bitmap != null ? bitmap.getRowBytes() * bitmap.getHeight()
 						: 0);
-				if (bitmapSize > TINY_BITMAP_SIZE)
-					it.remove();
+				if (bitmapSize > TINY_BITMAP_SIZE) {
+					keysToRemove.add(entry.getKey());
+					sizeBytes -= bitmapSize;
+				}
 			}
 		}
 
 		// remove entries no matter which size
-		int entriesToRemove = size() - mLimitSize;
+		int entriesToRemove = size() - keysToRemove.size() - mLimitSize;
 		if (entriesToRemove > 0) {
-			final Iterator<Map.Entry<Key, Bitmap>> it = entrySet().iterator();
+			final Iterator<Key> it = keySet().iterator();
 			while (entriesToRemove > 0) {
 				if (!it.hasNext())
 					break;
-				it.next();
-				it.remove();
-				entriesToRemove--;
+				final Key key = it.next();
+				if (!keysToRemove.contains(key)) {
+					keysToRemove.add(key);
+					entriesToRemove--;
+				}
 			}
 		}
+
+		for (final Key key : keysToRemove) {
+			remove(key);
+		}
+	}
+
+	public void setOnRemovedListener(OnRemovedListener listener) {
+		mOnRemovedListener = listener;
 	}
 }
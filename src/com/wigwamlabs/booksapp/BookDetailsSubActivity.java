@@ -16,7 +16,6 @@
 
 package com.wigwamlabs.booksapp;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.Calendar;
 import java.util.Date;
@@ -268,8 +267,8 @@ public class BookDetailsSubActivity extends SubActivity implements ImageViewPopu
 	}
 
 	@Override
-	public void onThumbnailChanged(long bookId, boolean small, File file) {
-		if (bookId == mId && small) {
+	public void onThumbnailsChanged(ThumbnailChangeBus.Changes changes) {
+		if (changes.contains(mId, true)) {
 			mViewHolder.updateThumbnail(getContext(), Long.valueOf(mId), mSmallThumbnails, null);
 		}
 	}
@@ -16,7 +16,6 @@
 
 package com.wigwamlabs.booksapp;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
@@ -133,8 +132,8 @@ public class BookListAdapter extends SortedCursorAdapter implements CheckableAda
 	}
 
 	@Override
-	public void onThumbnailChanged(long bookId, boolean small, File file) {
-		if (small)
+	public void onThumbnailsChanged(ThumbnailChangeBus.Changes changes) {
+		if (changes.hasChanges(true))
 			notifyDataSetChanged();
 	}
 
@@ -29,6 +29,8 @@ import android.widget.FilterQueryProvider;
 
 import com.wigwamlabs.booksapp.db.BookListCursor;
 import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.booksapp.db.GoogleIdSearchCursor;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
 
 public class BookListSubActivity extends SubActivity implements FilterQueryProvider,
 		PreviousNextProvider {
@@ -37,15 +39,17 @@ public class BookListSubActivity extends SubActivity implements FilterQueryProvi
 	private Integer mBookGroup;
 	private Long mBookGroupId;
 	private final BookListView mBookList;
+	private final GoogleBookSearch mBookSearch;
 	private final ListViewCheckButton mCheckButton;
 	private final DatabaseAdapter mDb;
 	private boolean mExpiredLoans;
 	private final ImageDownloadCollection mThumbnails;
 
 	public BookListSubActivity(Context context, SubActivityManager manager, DatabaseAdapter db,
-			ImageDownloadCollection thumbnails) {
+			GoogleBookSearch bookSearch, ImageDownloadCollection thumbnails) {
 		super(context, manager);
 		mDb = db;
+		mBookSearch = bookSearch;
 		mThumbnails = thumbnails;
 		setContentView(R.layout.book_list_main);
 
@@ -79,6 +83,12 @@ public class BookListSubActivity extends SubActivity implements FilterQueryProvi
 		mAddButton.setVisibility(bookGroup == null || collectionId != null ? View.VISIBLE
 				: View.GONE);
 		mAddButton.setCollectionId(collectionId);
+
+		// warm the cache so that exploring related books works offline too
+		if (collectionId != null) {
+			mBookSearch.prefetchRelatedByGoogleIdsInBackground(GoogleIdSearchCursor
+					.fetchGoogleIdsByCollection(mDb, collectionId.longValue()));
+		}
 	}
 
 	@Override
@@ -17,8 +17,7 @@
 package com.wigwamlabs.booksapp;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Vector;
 
 import android.content.ComponentName;
@@ -60,7 +59,8 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 	private final Vector<BarcodeFormat> mDecodeFormats = new Vector<BarcodeFormat>();
 	private View mDoneButton;
 	private String mLastScannedIsbn;
-	private final List<String> mScannedIsbns = new ArrayList<String>();
+	// in the order they were scanned
+	private final LinkedHashSet<String> mScannedIsbns = new LinkedHashSet<String>();
 	private IsbnSearchAdapter mScannedListAdapter;
 	private MediaPlayer mSuccessSound;
 	private Vibrator mVibrator;
@@ -85,6 +85,9 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 	}
 
 	public void done() {
+		if (mBinder != null)
+			mBinder.setShelfScanning(false);
+
 		final Intent data = new Intent();
 		// TODO no need to return ISBNs anymore?
 		data.putExtra(ISBNS_KEY, mScannedIsbns.toArray(new String[mScannedIsbns.size()]));
@@ -118,10 +121,10 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 
 		final String isbn = obj.toString();
 
+		// the search service looks the books up in the background, so
+		// scanning continues right away
 		if (!isbn.equals(mLastScannedIsbn)) {
-			if (!mScannedIsbns.contains(isbn)) {
-				mScannedIsbns.add(isbn);
-
+			if (mScannedIsbns.add(isbn)) {
 				if (mBinder != null)
 					mBinder.addIsbn(isbn);
 			} else {
@@ -137,6 +140,16 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 		restart();
 	}
 
+	@Override
+	public boolean isBarcodeBitmapNeeded() {
+		return false;
+	}
+
+	@Override
+	protected boolean isBookScanning() {
+		return true;
+	}
+
 	private void notifyScanned() {
 		mVibrator.vibrate(VIBRATE_DURATION_MS);
 		if (mSuccessSound != null)
@@ -192,6 +205,8 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 	protected void onDestroy() {
 		super.onDestroy();
 
+		if (mBinder != null)
+			mBinder.setShelfScanning(false);
 		unbindService(this);
 	}
 
@@ -216,6 +231,7 @@ public class BookScanActivity extends BarcodeScanActivity implements ServiceConn
 		final Intent intent = getIntent();
 		final long collectionId = intent.getLongExtra(COLLECTION_KEY, -1);
 		mBinder.setCollectionId(collectionId == -1 ? null : Long.valueOf(collectionId));
+		mBinder.setShelfScanning(true);
 
 		// deal with books scanned before this point
 		for (final String isbn : mScannedIsbns) {
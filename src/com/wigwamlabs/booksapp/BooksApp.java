@@ -40,6 +40,8 @@ public class BooksApp extends Application {
 
 		mDb = new DatabaseAdapter();
 		mDb.open(this);
+
+		ThumbnailManager.init(this);
 	}
 
 	@Override
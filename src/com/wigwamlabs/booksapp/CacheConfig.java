@@ -16,16 +16,26 @@
 
 package com.wigwamlabs.booksapp;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 
 import android.content.Context;
 import android.graphics.Point;
 
+import com.wigwamlabs.util.BitmapPool;
+
 public final class CacheConfig {
-	private static ImageDownloadCollection create(Context context, Point targetSize, int maxImages,
-			int maxBytes) {
-		final ImageDownloadCollection thumbnails = new ImageDownloadCollection(targetSize,
-				maxImages, maxBytes);
+	private static GoogleBookCache GOOGLE_BOOK_CACHE;
+	private static ThumbnailCache LOCAL_THUMBNAIL_CACHE_LARGE;
+	private static ThumbnailCache LOCAL_THUMBNAIL_CACHE_SMALL;
+	private static BitmapPool SMALL_THUMBNAIL_POOL;
+	private static final int SMALL_THUMBNAIL_POOL_BYTES = 512 * 1024;
+	private static ThumbnailCache WEB_THUMBNAIL_CACHE_LARGE;
+	private static ThumbnailCache WEB_THUMBNAIL_CACHE_SMALL;
+
+	private static ImageDownloadCollection create(Context context, Point targetSize,
+			ThumbnailCache cache) {
+		final ImageDownloadCollection thumbnails = new ImageDownloadCollection(targetSize, cache);
 		ThumbnailManager.addThumbnailObserver(context,
 				new WeakReference<ThumbnailManager.Observer>(thumbnails));
 		return thumbnails;
@@ -33,20 +43,59 @@ public final class CacheConfig {
 	}
 
 	public static ImageDownloadCollection createLocalThumbnailCacheLarge(Context context) {
-		return create(context, null, 10, 1024 * 1024);
+		synchronized (CacheConfig.class) {
+			if (LOCAL_THUMBNAIL_CACHE_LARGE == null)
+				LOCAL_THUMBNAIL_CACHE_LARGE = new ThumbnailCache(10, 1024 * 1024, null, null);
+		}
+		return create(context, null, LOCAL_THUMBNAIL_CACHE_LARGE);
 	}
 
 	public static ImageDownloadCollection createLocalThumbnailCacheSmall(Context context) {
-		return create(context, null, 5000, 2 * 1024 * 1024);
+		synchronized (CacheConfig.class) {
+			if (LOCAL_THUMBNAIL_CACHE_SMALL == null)
+				LOCAL_THUMBNAIL_CACHE_SMALL = new ThumbnailCache(5000, 2 * 1024 * 1024,
+						getSmallThumbnailPool(context), null);
+		}
+		return create(context, null, LOCAL_THUMBNAIL_CACHE_SMALL);
 	}
 
 	public static ImageDownloadCollection createWebThumbnailCacheLarge(Context context) {
-		return create(context, ThumbnailManager.getThumbnailSize(context, false), 10, 1024 * 1024);
+		synchronized (CacheConfig.class) {
+			if (WEB_THUMBNAIL_CACHE_LARGE == null)
+				WEB_THUMBNAIL_CACHE_LARGE = new ThumbnailCache(10, 1024 * 1024, null, new File(
+						context.getCacheDir(), "thumbnails-large"));
+		}
+		return create(context, ThumbnailManager.getThumbnailSize(context, false),
+				WEB_THUMBNAIL_CACHE_LARGE);
 	}
 
 	public static ImageDownloadCollection createWebThumbnailCacheSmall(Context context) {
-		return create(context, ThumbnailManager.getThumbnailSize(context, true), 5000,
-				2 * 1024 * 1024);
+		synchronized (CacheConfig.class) {
+			if (WEB_THUMBNAIL_CACHE_SMALL == null)
+				WEB_THUMBNAIL_CACHE_SMALL = new ThumbnailCache(5000, 2 * 1024 * 1024,
+						getSmallThumbnailPool(context), new File(context.getCacheDir(),
+								"thumbnails-small"));
+		}
+		return create(context, ThumbnailManager.getThumbnailSize(context, true),
+				WEB_THUMBNAIL_CACHE_SMALL);
+	}
+
+	public static synchronized GoogleBookCache getGoogleBookCache(Context context) {
+		if (GOOGLE_BOOK_CACHE == null)
+			GOOGLE_BOOK_CACHE = new GoogleBookCache(50, new File(context.getCacheDir(), "books"));
+		return GOOGLE_BOOK_CACHE;
+	}
+
+	/**
+	 * Small thumbnails are shown in lists where they are constantly evicted
+	 * and loaded while scrolling, so their bitmaps are reused.
+	 */
+	private static synchronized BitmapPool getSmallThumbnailPool(Context context) {
+		if (SMALL_THUMBNAIL_POOL == null) {
+			final Point size = ThumbnailManager.getThumbnailSize(context, true);
+			SMALL_THUMBNAIL_POOL = new BitmapPool(size.x, size.y, SMALL_THUMBNAIL_POOL_BYTES);
+		}
+		return SMALL_THUMBNAIL_POOL;
 	}
 
 	private CacheConfig() {
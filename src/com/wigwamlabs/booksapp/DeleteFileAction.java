@@ -44,6 +44,7 @@ public class DeleteFileAction {
 		if (mFileCount <= mLimit)
 			return false;
 
+		// newest first, so that the oldest files are deleted
 		Arrays.sort(files, new Comparator<File>() {
 			@Override
 			public int compare(File a, File b) {
@@ -51,7 +52,7 @@ public class DeleteFileAction {
 				final long bDate = b.lastModified();
 				if (aDate == bDate)
 					return 0;
-				return aDate < bDate ? -1 : 1;
+				return aDate > bDate ? -1 : 1;
 			}
 		});
 
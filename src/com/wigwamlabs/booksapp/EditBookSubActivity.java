@@ -361,8 +361,7 @@ public class EditBookSubActivity extends SubActivity implements ImageViewPopup.C
 		b.setPublisher(getText(mPublisher));
 		final Date releaseDate = getDate(mReleaseDate);
 		b.setReleaseDate(releaseDate);
-		b.setIsbn10(getText(mIsbn10));
-		b.setIsbn13(getText(mIsbn13));
+		b.setIsbns(getText(mIsbn10), getText(mIsbn13));
 		final Integer pageCount = getIntOrNull(mPageCount);
 		b.setPageCount(pageCount);
 		b.setDimensions(getText(mDimensions));
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwamlabs.util.CacheList;
+import com.wigwamlabs.util.CommaStringList;
+
+/**
+ * Two level cache of parsed full books, keyed by Google id. The first level
+ * is an in memory LRU, the second level is a directory of books in a compact
+ * binary encoding, holding only the scrubbed fields. Books are copied both
+ * when put and when returned, so callers are free to modify them. Thread
+ * safe.
+ */
+public class GoogleBookCache {
+	private static final String CACHEFILE_PREFIX = "book";
+	private static final String CACHEFILE_SUFFIX = ".bin";
+	private static final int FILE_CACHE_LOWER_LIMIT = 300;
+	private static final int FILE_CACHE_UPPER_LIMIT = 400;
+	// files with another version are ignored
+	private static final int FILE_VERSION = 1;
+
+	private static GoogleBook copyOf(GoogleBook book) {
+		final GoogleBook copy = new GoogleBook();
+		copy.mergeWithFullBook(book);
+		copy.averageRating = book.averageRating;
+		copy.creators = (book.creators != null ? new ArrayList<String>(book.creators) : null);
+		copy.subjects = (book.subjects != null ? new ArrayList<String>(book.subjects) : null);
+		return copy;
+	}
+
+	private static GoogleBook read(DataInputStream in) throws IOException {
+		if (in.readInt() != FILE_VERSION)
+			return null;
+
+		final GoogleBook book = new GoogleBook();
+		book.isFullBook = true;
+		book.averageRating = (in.readBoolean() ? Float.valueOf(in.readFloat()) : null);
+		book.creators = readStrings(in);
+		book.creatorsText = CommaStringList.listToString(book.creators);
+		book.description = readString(in);
+		book.dimensions = readString(in);
+		book.googleId = readString(in);
+		book.isbn10 = readString(in);
+		book.isbn13 = readString(in);
+		book.pageCount = (in.readBoolean() ? Integer.valueOf(in.readInt()) : null);
+		book.publisher = readString(in);
+		book.releaseDate = (in.readBoolean() ? new Date(in.readLong()) : null);
+		book.subjects = readStrings(in);
+		book.subtitle = readString(in);
+		book.thumbnailLargeUrl = readString(in);
+		book.thumbnailSmallUrl = readString(in);
+		book.title = readString(in);
+		return book;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return (in.readBoolean() ? in.readUTF() : null);
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		if (count < 0)
+			return null;
+		final List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			strings.add(in.readUTF());
+		}
+		return strings;
+	}
+
+	private static void write(DataOutputStream out, GoogleBook book) throws IOException {
+		out.writeInt(FILE_VERSION);
+		out.writeBoolean(book.averageRating != null);
+		if (book.averageRating != null)
+			out.writeFloat(book.averageRating.floatValue());
+		writeStrings(out, book.creators);
+		writeString(out, book.description);
+		writeString(out, book.dimensions);
+		writeString(out, book.googleId);
+		writeString(out, book.isbn10);
+		writeString(out, book.isbn13);
+		out.writeBoolean(book.pageCount != null);
+		if (book.pageCount != null)
+			out.writeInt(book.pageCount.intValue());
+		writeString(out, book.publisher);
+		out.writeBoolean(book.releaseDate != null);
+		if (book.releaseDate != null)
+			out.writeLong(book.releaseDate.getTime());
+		writeStrings(out, book.subjects);
+		writeString(out, book.subtitle);
+		writeString(out, book.thumbnailLargeUrl);
+		writeString(out, book.thumbnailSmallUrl);
+		writeString(out, book.title);
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		out.writeBoolean(string != null);
+		if (string != null)
+			out.writeUTF(string);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings)
+			throws IOException {
+		if (strings == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(strings.size());
+		for (final String string : strings) {
+			out.writeUTF(string);
+		}
+	}
+
+	private final BackgroundFileOperations mBackgroundFileOperations;
+	private final CacheList<String, GoogleBook> mBooks;
+	private final File mDiskDir;
+
+	/**
+	 * The books are also stored in diskDir, if not null.
+	 */
+	public GoogleBookCache(int maxBooks, File diskDir) {
+		mBooks = new CacheList<String, GoogleBook>(maxBooks);
+
+		if (diskDir != null && (diskDir.isDirectory() || diskDir.mkdirs())) {
+			mDiskDir = diskDir;
+			final FilenameFilter filter = new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(CACHEFILE_PREFIX) && name.endsWith(CACHEFILE_SUFFIX);
+				}
+			};
+			mBackgroundFileOperations = new BackgroundFileOperations(new DeleteFileAction(
+					diskDir, FILE_CACHE_UPPER_LIMIT, FILE_CACHE_LOWER_LIMIT, filter));
+		} else {
+			mDiskDir = null;
+			mBackgroundFileOperations = null;
+		}
+	}
+
+	/**
+	 * Removes all books from both levels.
+	 */
+	public void clear() {
+		synchronized (this) {
+			mBooks.clear();
+		}
+		if (mDiskDir == null)
+			return;
+		final File[] files = mDiskDir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	private File diskFile(String googleId) {
+		if (mDiskDir == null)
+			return null;
+		// Google ids are URL safe, but make sure they are file name safe too
+		for (int i = 0; i < googleId.length(); i++) {
+			final char c = googleId.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '-' && c != '_')
+				return null;
+		}
+		return new File(mDiskDir, CACHEFILE_PREFIX + googleId + CACHEFILE_SUFFIX);
+	}
+
+	/**
+	 * Returns the book, or null if it's not in memory.
+	 */
+	public synchronized GoogleBook get(String googleId) {
+		final GoogleBook book = mBooks.get(googleId);
+		return (book != null ? copyOf(book) : null);
+	}
+
+	/**
+	 * Same as {@link #get(String)} but also looks in the second level. Blocks,
+	 * so must not be called on the main thread.
+	 */
+	public GoogleBook load(String googleId) {
+		final GoogleBook cached = get(googleId);
+		if (cached != null)
+			return cached;
+
+		final File file = diskFile(googleId);
+		if (file == null || !file.exists())
+			return null;
+
+		GoogleBook book = null;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				book = read(in);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		if (book == null) {
+			file.delete();
+			return null;
+		}
+
+		// the oldest files are deleted first
+		file.setLastModified(System.currentTimeMillis());
+		synchronized (this) {
+			mBooks.put(googleId, copyOf(book));
+		}
+		return book;
+	}
+
+	/**
+	 * Stores the full book in both levels. Blocks, so must not be called on
+	 * the main thread.
+	 */
+	public void put(GoogleBook book) {
+		assert (book.isFullBook);
+		if (book.googleId == null)
+			return;
+
+		synchronized (this) {
+			mBooks.put(book.googleId, copyOf(book));
+		}
+
+		final File file = diskFile(book.googleId);
+		if (file == null)
+			return;
+
+		// write to a temporary file so that readers never see partial books
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			try {
+				write(out, book);
+			} finally {
+				out.close();
+			}
+			if (tmpFile.renameTo(file))
+				mBackgroundFileOperations.addFile(file.getPath());
+			else
+				tmpFile.delete();
+		} catch (final IOException e) {
+			e.printStackTrace();
+			tmpFile.delete();
+		}
+	}
+}
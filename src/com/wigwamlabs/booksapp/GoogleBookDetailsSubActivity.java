@@ -142,10 +142,20 @@ public class GoogleBookDetailsSubActivity extends SubActivity implements BookAdd
 		mLargeThumbnails = largeThumbnails;
 		assert (book != null);
 
-		updateBook(book);
+		BookSearch search = null;
 		if (!book.isFullBook) {
+			search = mBookSearch.searchByGoogleId(book.googleId);
+			final GoogleBook fullBook = search.executeFromMemory();
+			if (fullBook != null) {
+				book.mergeWithFullBook(fullBook);
+				search = null;
+			}
+		}
+
+		updateBook(book);
+		if (search != null) {
 			mViewHolder.progressBar.setVisibility(View.VISIBLE);
-			mBookSearch.searchByGoogleId(book.googleId).executeInBackground(this);
+			search.executeInBackground(this);
 		}
 
 		return this;
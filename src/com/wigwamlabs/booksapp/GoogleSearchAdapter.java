@@ -39,13 +39,78 @@ import com.wigwamlabs.util.ListViewUtils.StateListener;
 
 public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements FeedSearch.Callback,
 		BookAddRemoveObserver, CheckableAdapter, PausableThumbnailAdapter {
+	/**
+	 * Loads the next page before it's asked for. The books are held back,
+	 * with their thumbnails being downloaded, until {@link #loadMore()} takes
+	 * over the page.
+	 */
+	private class NextPagePrefetch implements FeedSearch.Callback {
+		private final List<GoogleBook> mBooks = new ArrayList<GoogleBook>();
+		private GoogleBookFeed mFeed;
+		private boolean mFinished = false;
+		private boolean mForwarding = false;
+		private final FeedSearch mSearch;
+
+		public NextPagePrefetch(FeedSearch search) {
+			mSearch = search;
+		}
+
+		/**
+		 * Hands over the books parsed so far, and the rest of them as they're
+		 * parsed.
+		 */
+		public void forward() {
+			mForwarding = true;
+			if (!mBooks.isEmpty())
+				GoogleSearchAdapter.this.onBooksParsed(mBooks);
+			if (mFinished)
+				GoogleSearchAdapter.this.onDownloadFinished(mFeed);
+		}
+
+		public boolean hasFailed() {
+			return mFinished && mFeed == null;
+		}
+
+		@Override
+		public void onBooksParsed(List<GoogleBook> books) {
+			if (mForwarding) {
+				GoogleSearchAdapter.this.onBooksParsed(books);
+				return;
+			}
+
+			mBooks.addAll(books);
+			for (final GoogleBook b : books) {
+				if (b.databaseId == null)
+					mWebThumbnails.prefetchUrl(b.thumbnailSmallUrl);
+			}
+		}
+
+		@Override
+		public void onDownloadFinished(GoogleBookFeed feed) {
+			mFinished = true;
+			mFeed = feed;
+			if (mForwarding)
+				GoogleSearchAdapter.this.onDownloadFinished(feed);
+		}
+	}
+
+	private static final float DEFAULT_PREFETCH_FRACTION = 0.6f;
+	// pages prefetched per search when the network is likely to be metered
+	private static final int MAX_METERED_PREFETCHES = 2;
 	private final GoogleBookSearch mBookSearch;
 	private boolean mCheckable = false;
 	private FeedSearch mCurrentSearch;
+	// position of the first book from the current search
+	private int mCurrentSearchStart = 0;
 	private final DatabaseAdapter mDb;
+	// the search only holds its callback weakly
+	private NextPagePrefetch mForwardedPrefetch;
 	private final LoanStatusProvider mLoanStatusProvider;
 	private final ImageDownloadCollection mLocalThumbnails;
+	private int mMeteredPrefetchCount = 0;
 	private FeedSearch mNextSearch;
+	private NextPagePrefetch mPrefetch;
+	private float mPrefetchFraction = DEFAULT_PREFETCH_FRACTION;
 	private int mRemoteBookCount = 0;
 	private final SparseBooleanArray mRemoteCheckedPositions = new SparseBooleanArray();
 	private State mState;
@@ -132,6 +197,9 @@ public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements Fee
 				book.thumbnailSmallUrl, mThumbnailsPaused, book.title, book.creatorsText,
 				book.pageCount, book.releaseDate, bookStatus, mCheckable, checked);
 
+		if (position >= getCount() * mPrefetchFraction)
+			prefetchNextPage();
+
 		return view;
 	}
 
@@ -145,6 +213,14 @@ public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements Fee
 		return mCheckable;
 	}
 
+	/**
+	 * Returns true if pages can be prefetched without limit, see
+	 * {@link HttpTransportCache#isUnmeteredNetworkAvailable()}.
+	 */
+	protected boolean isUnmeteredNetworkAvailable() {
+		return HttpTransportCache.isUnmeteredNetworkAvailable();
+	}
+
 	public boolean loadMore() {
 		if (mState == State.Loading)
 			return false;
@@ -152,10 +228,18 @@ public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements Fee
 		if (search == null)
 			return false;
 
+		final NextPagePrefetch prefetch = mPrefetch;
+		mPrefetch = null;
 		mCurrentSearch = search;
-		mCurrentSearch.setDatabase(mDb);
-		mCurrentSearch.executeInBackground(this);
+		mCurrentSearchStart = getCount();
 		setState(State.Loading);
+		if (prefetch != null && prefetch.mSearch == search && !prefetch.hasFailed()) {
+			mForwardedPrefetch = prefetch;
+			prefetch.forward();
+		} else {
+			mCurrentSearch.setDatabase(mDb);
+			mCurrentSearch.executeInBackground(this);
+		}
 		return true;
 	}
 
@@ -200,29 +284,59 @@ public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements Fee
 	}
 
 	@Override
-	public void onDownloadFinished(GoogleBookFeed feed) {
-		if (feed != null) {
-			mTotalResults = feed.totalResults;
-			if (feed.books != null) {
-				for (final GoogleBook b : feed.books) {
-					add(b);
+	public void onBooksParsed(List<GoogleBook> books) {
+		for (final GoogleBook b : books) {
+			add(b);
 
-					if (b.databaseId == null) {
-						mRemoteBookCount++;
+			if (b.databaseId == null) {
+				mRemoteBookCount++;
 
-						// eagerly cache thumbnails
-						mWebThumbnails.prefetchUrl(b.thumbnailSmallUrl);
-					}
-				}
+				// eagerly cache thumbnails
+				mWebThumbnails.prefetchUrl(b.thumbnailSmallUrl);
 			}
+		}
+	}
+
+	@Override
+	public void onDownloadFinished(GoogleBookFeed feed) {
+		mForwardedPrefetch = null;
+		if (feed != null) {
+			// the books have already been added while they were parsed
+			mTotalResults = feed.totalResults;
 			mNextSearch = mBookSearch.searchNext(feed);
 
 			setState(mNextSearch != null ? State.CanLoadMore : State.Finished);
 		} else {
+			// the whole search is done again when retrying
+			removeBooks(mCurrentSearchStart);
 			setState(State.ErrorRetry);
 		}
 	}
 
+	private void prefetchNextPage() {
+		if (mState != State.CanLoadMore || mNextSearch == null || mPrefetch != null)
+			return;
+		if (!isUnmeteredNetworkAvailable()) {
+			if (mMeteredPrefetchCount >= MAX_METERED_PREFETCHES)
+				return;
+			mMeteredPrefetchCount++;
+		}
+
+		mPrefetch = new NextPagePrefetch(mNextSearch);
+		mNextSearch.setDatabase(mDb);
+		mNextSearch.executeInBackground(mPrefetch);
+	}
+
+	private void removeBooks(int fromPosition) {
+		for (int i = getCount() - 1; i >= fromPosition; i--) {
+			final GoogleBook book = getItem(i);
+			if (book.databaseId == null)
+				mRemoteBookCount--;
+			mRemoteCheckedPositions.delete(i);
+			remove(book);
+		}
+	}
+
 	private void reportState() {
 		final StateListener listener = getStateListener();
 		if (listener != null)
@@ -253,6 +367,14 @@ public class GoogleSearchAdapter extends ArrayAdapter<GoogleBook> implements Fee
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Sets how far into the loaded books the list has to be scrolled before
+	 * the next page is loaded in the background, e.g. 0.5 for halfway.
+	 */
+	public void setPrefetchFraction(float fraction) {
+		mPrefetchFraction = fraction;
+	}
+
 	private void setState(State state) {
 		if (mState == state)
 			return;
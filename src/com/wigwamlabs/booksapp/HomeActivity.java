@@ -119,6 +119,8 @@ public class HomeActivity extends Activity implements SubActivityManager.Callbac
 		mDb = ((BooksApp) getApplicationContext()).getDb();
 		mSmallThumbnails = CacheConfig.createLocalThumbnailCacheSmall(this);
 		mLargeThumbnails = CacheConfig.createLocalThumbnailCacheLarge(this);
+		ThumbnailManager.migrateThumbnails(this);
+		ThumbnailDownloadQueue.getInstance(this, mDb).start();
 
 		mSubActivityManager = new SubActivityManager(this, this);
 
@@ -148,7 +150,8 @@ public class HomeActivity extends Activity implements SubActivityManager.Callbac
 			return new AboutSubActivity(this, mSubActivityManager);
 		}
 		if (klass == BookListSubActivity.class) {
-			return new BookListSubActivity(this, mSubActivityManager, mDb, mSmallThumbnails);
+			return new BookListSubActivity(this, mSubActivityManager, mDb, mBookSearch,
+					mSmallThumbnails);
 		}
 		if (klass == BookDetailsSubActivity.class) {
 			return new BookDetailsSubActivity(this, mSubActivityManager, mDb, mSmallThumbnails,
@@ -26,8 +26,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.google.api.client.http.HttpContent;
 import com.google.api.client.http.HttpTransport;
@@ -35,14 +48,36 @@ import com.google.api.client.http.LowLevelHttpRequest;
 import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.http.LowLevelHttpTransport;
 import com.wigwamlabs.util.CacheList;
+import com.wigwamlabs.util.WeakListIterator;
 
 public class HttpTransportCache extends LowLevelHttpTransport {
+	public interface ConnectivityObserver {
+		void onConnectivityRestored();
+	}
+
 	private enum Method {
 		GET
 	}
 
+	private static class PendingRequest {
+		public final List<String> headerNames;
+		public final List<String> headerValues;
+		public final Method method;
+		public final String url;
+
+		public PendingRequest(String url, Method method, List<String> headerNames,
+				List<String> headerValues) {
+			this.url = url;
+			this.method = method;
+			this.headerNames = headerNames;
+			this.headerValues = headerValues;
+		}
+	}
+
 	private static class RecordRequest extends LowLevelHttpRequest {
 		private final HttpTransportCache mCache;
+		private final List<String> mHeaderNames = new ArrayList<String>();
+		private final List<String> mHeaderValues = new ArrayList<String>();
 		private final Method mMethod;
 		private LowLevelHttpRequest mProperRequest;
 		private final String mUrl;
@@ -57,16 +92,33 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 				mProperRequest = transport.buildGetRequest(url);
 				break;
 			}
+			mProperRequest.addHeader(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
 		}
 
 		@Override
 		public void addHeader(String name, String value) {
+			// we decide which encodings to accept since we do the decoding
+			if (HEADER_ACCEPT_ENCODING.equalsIgnoreCase(name))
+				return;
 			mProperRequest.addHeader(name, value);
+			mHeaderNames.add(name);
+			mHeaderValues.add(value);
 		}
 
 		@Override
 		public LowLevelHttpResponse execute() throws IOException {
-			final Response response = new Response(mProperRequest.execute(), mUrl, mMethod);
+			if (!mCache.isOnline())
+				throw mCache.queueForRetry(this, null);
+
+			final Response response;
+			try {
+				response = new Response(mProperRequest.execute(), mUrl, mMethod);
+			} catch (final IOException e) {
+				// the connection might have been lost during the request
+				if (!mCache.isOnline())
+					throw mCache.queueForRetry(this, e);
+				throw e;
+			}
 			mCache.cacheResponse(response);
 			return response;
 		}
@@ -75,6 +127,10 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 		public void setContent(HttpContent content) throws IOException {
 			mProperRequest.setContent(content);
 		}
+
+		public PendingRequest toPendingRequest() {
+			return new PendingRequest(mUrl, mMethod, mHeaderNames, mHeaderValues);
+		}
 	}
 
 	private static class ReplayRequest extends LowLevelHttpRequest {
@@ -144,18 +200,36 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 			}
 		}
 
+		/**
+		 * The content is kept (and serialized) as it was transferred, i.e.
+		 * compressed if the server used gzip or deflate, and is decompressed
+		 * every time it's read.
+		 */
 		@Override
 		public InputStream getContent() throws IOException {
-			return new ByteArrayInputStream(mContent);
+			final InputStream content = new ByteArrayInputStream(mContent);
+			if (isGzipEncoded())
+				return new GZIPInputStream(content);
+			if (isDeflateEncoded())
+				return new InflaterInputStream(content);
+			return content;
 		}
 
+		/**
+		 * Returns null if the content is compressed, since
+		 * {@link #getContent()} returns it decompressed.
+		 */
 		@Override
 		public String getContentEncoding() {
+			if (isGzipEncoded() || isDeflateEncoded())
+				return null;
 			return mContentEncoding;
 		}
 
 		@Override
 		public long getContentLength() {
+			if (isGzipEncoded() || isDeflateEncoded())
+				return -1; // unknown until decompressed
 			return mContentLength;
 		}
 
@@ -205,14 +279,32 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 		public String getStatusLine() {
 			return mStatusLine;
 		}
+
+		private boolean isDeflateEncoded() {
+			return mContentEncoding != null && mContentEncoding.contains(ENCODING_DEFLATE);
+		}
+
+		private boolean isGzipEncoded() {
+			return mContentEncoding != null && mContentEncoding.contains(ENCODING_GZIP);
+		}
 	}
 
+	private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
 	/* package */static final String CACHEFILE_PREFIX = "response";
 	/* package */static final String CACHEFILE_SUFFIX = ".bin";
+	private static final String ENCODING_DEFLATE = "deflate";
+	private static final String ENCODING_GZIP = "gzip";
 	private static final int FILE_CACE_LOWER_LIMIT = 150;
 	private static final int FILE_CACHE_UPPER_LIMIT = 200;
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 	private static final int INMEMORY_CACHE_LIMIT = 28;
 	private static HttpTransportCache INSTANCE;
+	private static final int PENDING_REQUESTS_LIMIT = 50;
+
+	public static void addConnectivityObserver(WeakReference<ConnectivityObserver> observer) {
+		if (INSTANCE != null)
+			INSTANCE.addObserver(observer);
+	}
 
 	public static void install(LowLevelHttpTransport properTransport, Context context) {
 		if (INSTANCE != null) {
@@ -223,18 +315,48 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 		HttpTransport.setLowLevelHttpTransport(INSTANCE);
 	}
 
+	/**
+	 * Returns true if there is a network connection, or if it can't be
+	 * determined.
+	 */
+	public static boolean isNetworkAvailable() {
+		return INSTANCE == null || INSTANCE.isOnline();
+	}
+
+	/**
+	 * Returns true if connected to a network that isn't likely to be metered,
+	 * i.e. suitable for background downloads.
+	 */
+	public static boolean isUnmeteredNetworkAvailable() {
+		if (INSTANCE == null || INSTANCE.mConnectivityManager == null)
+			return false;
+		try {
+			final NetworkInfo network = INSTANCE.mConnectivityManager.getActiveNetworkInfo();
+			return network != null && network.isConnected()
+					&& network.getType() == ConnectivityManager.TYPE_WIFI;
+		} catch (final SecurityException e) {
+			return false;
+		}
+	}
+
 	static Integer responseKey(String url, Method method) {
 		return Integer.valueOf((method + url).hashCode());
 	}
 
 	private final BackgroundFileOperations mBackgroundFileOperations;
 	private final File mCacheDir;
+	private final ConnectivityManager mConnectivityManager;
+	private final List<WeakReference<ConnectivityObserver>> mConnectivityObservers = new ArrayList<WeakReference<ConnectivityObserver>>();
 	private final Context mContext;
+	// observers are notified on the main thread, whichever thread installed us
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final LinkedHashMap<Integer, PendingRequest> mPendingRequests = new LinkedHashMap<Integer, PendingRequest>();
 	private final LowLevelHttpTransport mProperTransport;
 	private final CacheList<Integer, Response> mResponses = new CacheList<Integer, Response>(
 			INMEMORY_CACHE_LIMIT);
+	/* package */Thread mRetryThread;
 
-	private HttpTransportCache(LowLevelHttpTransport properTransport, Context context) {
+	protected HttpTransportCache(LowLevelHttpTransport properTransport, Context context) {
 		mProperTransport = properTransport;
 		mContext = context;
 		mCacheDir = context.getCacheDir();
@@ -248,6 +370,24 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 		final DeleteFileAction action = new DeleteFileAction(mCacheDir, FILE_CACHE_UPPER_LIMIT,
 				FILE_CACE_LOWER_LIMIT, filter);
 		mBackgroundFileOperations = new BackgroundFileOperations(action);
+
+		mConnectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context c, Intent intent) {
+				if (isOnline())
+					onConnectivityRestored();
+			}
+		};
+		context.getApplicationContext().registerReceiver(connectivityReceiver,
+				new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+
+	public void addObserver(WeakReference<ConnectivityObserver> observer) {
+		synchronized (mConnectivityObservers) {
+			mConnectivityObservers.add(observer);
+		}
 	}
 
 	@Override
@@ -326,4 +466,98 @@ public class HttpTransportCache extends LowLevelHttpTransport {
 
 		return null;
 	}
+
+	protected boolean isOnline() {
+		if (mConnectivityManager == null)
+			return true;
+		try {
+			final NetworkInfo network = mConnectivityManager.getActiveNetworkInfo();
+			return network != null && network.isConnected();
+		} catch (final SecurityException e) {
+			// missing permission, assume that we're connected
+			return true;
+		}
+	}
+
+	private void notifyConnectivityRestored() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mConnectivityObservers) {
+					for (final ConnectivityObserver o : WeakListIterator
+							.from(mConnectivityObservers)) {
+						o.onConnectivityRestored();
+					}
+				}
+			}
+		});
+	}
+
+	protected void onConnectivityRestored() {
+		synchronized (mPendingRequests) {
+			if (!mPendingRequests.isEmpty() && mRetryThread == null) {
+				mRetryThread = new Thread() {
+					@Override
+					public void run() {
+						retryPendingRequests();
+						synchronized (mPendingRequests) {
+							mRetryThread = null;
+						}
+						notifyConnectivityRestored();
+					}
+				};
+				mRetryThread.start();
+				return;
+			}
+		}
+		notifyConnectivityRestored();
+	}
+
+	/* package */OfflineException queueForRetry(RecordRequest request, IOException cause) {
+		final PendingRequest pending = request.toPendingRequest();
+		synchronized (mPendingRequests) {
+			final Integer key = responseKey(pending.url, pending.method);
+			mPendingRequests.remove(key);
+			mPendingRequests.put(key, pending);
+			// drop the oldest requests if too many have piled up
+			while (mPendingRequests.size() > PENDING_REQUESTS_LIMIT) {
+				mPendingRequests.remove(mPendingRequests.keySet().iterator().next());
+			}
+		}
+		return new OfflineException(request.mUrl, cause);
+	}
+
+	/* package */void retryPendingRequests() {
+		while (isOnline()) {
+			final PendingRequest pending;
+			synchronized (mPendingRequests) {
+				if (mPendingRequests.isEmpty())
+					return;
+				final Integer key = mPendingRequests.keySet().iterator().next();
+				pending = mPendingRequests.remove(key);
+			}
+			if (getCachedResponse(pending.url, pending.method) != null)
+				continue;
+
+			try {
+				final LowLevelHttpRequest request;
+				switch (pending.method) {
+				case GET:
+				default:
+					request = mProperTransport.buildGetRequest(pending.url);
+					break;
+				}
+				request.addHeader(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+				for (int i = 0; i < pending.headerNames.size(); i++) {
+					request.addHeader(pending.headerNames.get(i), pending.headerValues.get(i));
+				}
+				final Response response = new Response(request.execute(), pending.url,
+						pending.method);
+				if (response.getStatusCode() / 100 == 2)
+					cacheResponse(response);
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 }
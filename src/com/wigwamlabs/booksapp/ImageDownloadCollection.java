@@ -20,29 +20,50 @@ import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.HashSet;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 
+import com.wigwamlabs.util.BitmapPool;
 import com.wigwamlabs.util.ImageViewUtils;
 import com.wigwamlabs.util.ImageViewUtils.WhenNoImage;
 import com.wigwamlabs.util.Triple;
 
 public class ImageDownloadCollection implements ImageDownloadTask.Callback,
 		ThumbnailManager.Observer {
-	private static final Bitmap ERROR_IMAGE = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
-	private ImageDownloadTask mDownloadTask;
-	private final HashMap<CharSequence, Bitmap> mImages;
+	private final ThumbnailCache mCache;
+	// not shared in the cache since it may work later, e.g. when back online
+	private final HashSet<CharSequence> mFailedUrls = new HashSet<CharSequence>();
 	private final ArrayList<Triple<CharSequence, ImageView, WhenNoImage>> mImageViews = new ArrayList<Triple<CharSequence, ImageView, WhenNoImage>>();
+	private final HashMap<CharSequence, ThumbnailScheduler.Request> mRequests = new HashMap<CharSequence, ThumbnailScheduler.Request>();
+	private final ThumbnailScheduler mScheduler;
 	private final Point mTargetSize;
+	private final WeakReference<ImageDownloadTask.Callback> mWeakThis;
 
 	public ImageDownloadCollection(Point targetSize, int maxImages, int maxBytes) {
+		this(targetSize, maxImages, maxBytes, null);
+	}
+
+	/**
+	 * Evicted images are put in the pool, and new images are loaded into
+	 * bitmaps from it. The pool may be shared between collections.
+	 */
+	public ImageDownloadCollection(Point targetSize, int maxImages, int maxBytes, BitmapPool pool) {
+		this(targetSize, new ThumbnailCache(maxImages, maxBytes, pool, null));
+	}
+
+	/**
+	 * Images are kept in the cache, which may be shared with other
+	 * collections with the same target size.
+	 */
+	public ImageDownloadCollection(Point targetSize, ThumbnailCache cache) {
 		mTargetSize = targetSize;
-		mImages = new BitmapCacheHashMap<CharSequence>(maxImages, maxBytes);
+		mCache = cache;
+		mScheduler = ThumbnailScheduler.getInstance();
+		mWeakThis = new WeakReference<ImageDownloadTask.Callback>(this);
 	}
 
 	public void attachFile(File file, ImageView imageView, WhenNoImage whenNoImage,
@@ -56,24 +77,22 @@ public class ImageDownloadCollection implements ImageDownloadTask.Callback,
 		if (imageView == null)
 			return;
 
-		removeImageView(imageView);
+		removeImageView(imageView, url);
 
 		if (url == null) {
 			ImageViewUtils.updateImageView(imageView, (Drawable) null, whenNoImage);
 			return;
 		}
 
-		final Bitmap image;
-		synchronized (mImages) {
-			image = mImages.get(url);
-		}
-		if (image == null && !skipIfNotInCache) { // download not completed
+		final boolean failed = mFailedUrls.contains(url);
+		final Bitmap image = (failed ? null : mCache.get(url));
+		mCache.setDisplayed(imageView, image);
+		if (image == null && !failed && !skipIfNotInCache) { // download not completed
 			mImageViews.add(Triple.create(url, imageView, whenNoImage));
-			prefetchUrl(url);
+			requestUrl(url, ThumbnailScheduler.PRIORITY_VISIBLE);
 		}
 
-		ImageViewUtils.updateImageView(imageView, (image == ERROR_IMAGE ? null : image),
-				whenNoImage);
+		ImageViewUtils.updateImageView(imageView, image, whenNoImage);
 	}
 
 	public void attachUrl(CharSequence url, ImageView imageView, WhenNoImage whenNoImage,
@@ -82,28 +101,25 @@ public class ImageDownloadCollection implements ImageDownloadTask.Callback,
 	}
 
 	public Bitmap getImage(String url) {
-		final Bitmap image;
-		synchronized (mImages) {
-			image = mImages.get(url);
-		}
-		if (image == ERROR_IMAGE)
-			return null;
-		return image;
+		return mCache.handOut(url);
 	}
 
 	@Override
 	public void onImageDownloaded(CharSequence url, Bitmap image) {
-		// ensure we don't try to download again, use place holder if image is
-		// null
-		synchronized (mImages) {
-			mImages.put(url, image == null ? ERROR_IMAGE : image);
-		}
+		mRequests.remove(url);
+
+		// ensure we don't try to download again
+		if (image == null)
+			mFailedUrls.add(url);
+		else
+			mCache.put(url, image);
 
 		// attach image to interested image views
 		for (int i = mImageViews.size() - 1; i >= 0; i--) {
 			final Triple<CharSequence, ImageView, WhenNoImage> iv = mImageViews.get(i);
 			final ImageView imageView = iv.second;
 			if (url.equals(iv.first)) {
+				mCache.setDisplayed(imageView, image);
 				ImageViewUtils.updateImageView(imageView, image, iv.third);
 				mImageViews.remove(i);
 			}
@@ -112,56 +128,72 @@ public class ImageDownloadCollection implements ImageDownloadTask.Callback,
 
 	@Override
 	public void onImageDownloadFinished() {
-		mDownloadTask = null;
-		startDownload();
 	}
 
-	@Override
-	public void onThumbnailChanged(long bookId, boolean small, File file) {
-		final CharSequence url = file.toURI().toString();
-		synchronized (mImages) {
-			mImages.remove(url);
-		}
-	}
+	private void onImageViewRecycled(CharSequence url) {
+		final ThumbnailScheduler.Request request = mRequests.get(url);
+		if (request == null)
+			return;
 
-	public void prefetchUrl(CharSequence url) {
-		synchronized (mImages) {
-			if (url == null || mImages.containsKey(url))
+		// is any other view still waiting for it?
+		for (final Triple<CharSequence, ImageView, WhenNoImage> iv : mImageViews) {
+			if (url.equals(iv.first))
 				return;
+		}
 
-			mImages.put(url, null);
+		if (request.prefetch) {
+			mScheduler.setPriority(request, ThumbnailScheduler.PRIORITY_PREFETCH);
+		} else {
+			mScheduler.cancel(request);
+			mRequests.remove(url);
 		}
+	}
 
-		if (mDownloadTask == null) {
-			startDownload();
+	@Override
+	public void onThumbnailsChanged(ThumbnailChangeBus.Changes changes) {
+		for (final String url : changes.getUrls()) {
+			mFailedUrls.remove(url);
+			mCache.remove(url);
 		}
 	}
 
-	private void removeImageView(ImageView imageView) {
+	public void prefetchUrl(CharSequence url) {
+		final ThumbnailScheduler.Request request = requestUrl(url,
+				ThumbnailScheduler.PRIORITY_PREFETCH);
+		if (request != null)
+			request.prefetch = true;
+	}
+
+	private void removeImageView(ImageView imageView, CharSequence newUrl) {
 		final int count = mImageViews.size();
 		for (int i = 0; i < count; i++) {
 			if (mImageViews.get(i).second == imageView) {
-				mImageViews.remove(i);
+				final CharSequence url = mImageViews.remove(i).first;
+				if (!url.equals(newUrl))
+					onImageViewRecycled(url);
 				return; // there are never duplicates
 			}
 		}
 	}
 
-	private void startDownload() {
-		assert (mDownloadTask == null);
-		final ArrayList<CharSequence> urls = new ArrayList<CharSequence>();
-		synchronized (mImages) {
-			for (final Entry<CharSequence, Bitmap> e : mImages.entrySet()) {
-				if (e.getValue() == null) {
-					urls.add(e.getKey());
-				}
-			}
+	/**
+	 * Returns the pending request for the url, or null if it's already
+	 * downloaded.
+	 */
+	private ThumbnailScheduler.Request requestUrl(CharSequence url, int priority) {
+		if (url == null)
+			return null;
+		ThumbnailScheduler.Request request = mRequests.get(url);
+		if (request != null) {
+			if (priority < request.getPriority())
+				mScheduler.setPriority(request, priority);
+			return request;
 		}
+		if (mFailedUrls.contains(url) || mCache.containsKey(url))
+			return null;
 
-		if (!urls.isEmpty()) {
-			mDownloadTask = new ImageDownloadTask(mTargetSize,
-					new WeakReference<ImageDownloadTask.Callback>(this));
-			mDownloadTask.execute(urls.toArray(new CharSequence[urls.size()]));
-		}
+		request = mScheduler.schedule(url, mTargetSize, mCache, priority, mWeakThis);
+		mRequests.put(url, request);
+		return request;
 	}
 }
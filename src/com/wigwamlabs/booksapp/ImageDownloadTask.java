@@ -16,6 +16,7 @@
 
 package com.wigwamlabs.booksapp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -33,6 +34,7 @@ import android.util.Log;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
+import com.wigwamlabs.util.BitmapPool;
 import com.wigwamlabs.util.BitmapUtils;
 import com.wigwamlabs.util.Pair;
 
@@ -73,6 +75,89 @@ public class ImageDownloadTask extends AsyncTask<CharSequence, Pair<CharSequence
 
 	private static final String FILE_PROTOCOL = "file";
 	private static final String TAG = ImageDownloadTask.class.getSimpleName();
+
+	private static Bitmap downloadImage(HttpTransport transport, final String url,
+			Point targetSize, BitmapPool pool) {
+		Bitmap image = null;
+		try {
+			// configure request
+			final HttpRequest request = transport.buildGetRequest();
+			request.setUrl(url);
+			// TODO set appropriate headers to only download if changed
+			Log.i(TAG, "Downloading image: " + url);
+			final HttpResponse response = request.execute();
+			try {
+				final InputStream content = response.getContent();
+				// create bitmap
+				if (content != null && targetSize != null) {
+					// bounds and pixels are decoded separately, so keep the data
+					final byte[] data;
+					try {
+						data = readFully(content);
+					} finally {
+						content.close();
+					}
+					image = BitmapUtils.decodeByteArray(data, targetSize.x, targetSize.y, pool);
+				} else if (content != null) {
+					final FlushedInputStream imageStream = new FlushedInputStream(content);
+					try {
+						image = BitmapFactory.decodeStream(imageStream);
+					} finally {
+						imageStream.close();
+					}
+				}
+			} finally {
+				response.ignore();
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		return image;
+	}
+
+	/**
+	 * Opens or downloads the image and scales it down to targetSize (unless
+	 * null). Blocks, so must not be called on the main thread. Bitmaps are
+	 * taken from the pool when possible, it may be null.
+	 */
+	/* package */static Bitmap loadImage(HttpTransport transport, String url, Point targetSize,
+			BitmapPool pool) {
+		if (url.startsWith(ThumbnailManager.STORE_PROTOCOL))
+			return ThumbnailManager.loadSmallThumbnail(url, pool);
+		else if (url.startsWith(FILE_PROTOCOL))
+			return openImage(url, targetSize, pool);
+		else
+			return downloadImage(transport, url, targetSize, pool);
+	}
+
+	private static Bitmap openImage(String uri, Point targetSize, BitmapPool pool) {
+		final URI u;
+		try {
+			u = new URI(uri);
+		} catch (final URISyntaxException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		final File f = new File(u);
+		if (!f.exists())
+			return null;
+		if (targetSize != null)
+			return BitmapUtils.decodeFile(f.getPath(), targetSize.x, targetSize.y, pool);
+		return BitmapUtils.decodeFile(f.getPath(), pool);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+
+		int length;
+		while ((length = in.read(buffer)) != -1) {
+			out.write(buffer, 0, length);
+		}
+		return out.toByteArray();
+	}
+
 	private final Callback mCallback;
 	private final WeakReference<Callback> mCallbackWeak;
 	private final Point mTargetSize;
@@ -97,19 +182,11 @@ public class ImageDownloadTask extends AsyncTask<CharSequence, Pair<CharSequence
 			final String url = param.toString();
 			Bitmap image;
 			try {
-				if (url.startsWith(FILE_PROTOCOL))
-					image = openImage(url);
-				else
-					image = downloadImage(url);
-
 				// abort if weak ref has been reset
 				if (mCallbackWeak != null && mCallbackWeak.get() == null)
 					return null;
 
-				if (image != null && mTargetSize != null) {
-					image = BitmapUtils.createScaledBitmap(image, mTargetSize.x, mTargetSize.y,
-							true);
-				}
+				image = loadImage(mTransport, url, mTargetSize, null);
 			} catch (final Exception e) {
 				// Debug.reportException(e);
 				image = null;
@@ -120,35 +197,6 @@ public class ImageDownloadTask extends AsyncTask<CharSequence, Pair<CharSequence
 		return null;
 	}
 
-	private Bitmap downloadImage(final String url) {
-		Bitmap image = null;
-		try {
-			// configure request
-			final HttpRequest request = mTransport.buildGetRequest();
-			request.setUrl(url);
-			// TODO set appropriate headers to only download if changed
-			Log.i(TAG, "Downloading image: " + url);
-			final HttpResponse response = request.execute();
-			try {
-				final InputStream content = response.getContent();
-				// create bitmap
-				if (content != null) {
-					final FlushedInputStream imageStream = new FlushedInputStream(content);
-					try {
-						image = BitmapFactory.decodeStream(imageStream);
-					} finally {
-						imageStream.close();
-					}
-				}
-			} finally {
-				response.ignore();
-			}
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
-		return image;
-	}
-
 	@Override
 	protected void onPostExecute(Void result) {
 		final Callback callback = (mCallback != null ? mCallback : mCallbackWeak.get());
@@ -166,20 +214,4 @@ public class ImageDownloadTask extends AsyncTask<CharSequence, Pair<CharSequence
 			}
 		}
 	}
-
-	private Bitmap openImage(String uri) {
-		final URI u;
-		try {
-			u = new URI(uri);
-		} catch (final URISyntaxException e) {
-			e.printStackTrace();
-			return null;
-		}
-
-		final File f = new File(u);
-		if (f.exists())
-			return BitmapFactory.decodeFile(f.getPath());
-		else
-			return null;
-	}
 }
@@ -216,6 +216,8 @@ public class ImportBookTask extends AsyncBookTask<CsvReader> {
 		} finally {
 			db.endTransaction();
 		}
+		// the covers are downloaded once the books are committed
+		ThumbnailDownloadQueue.getInstance(context, db).start();
 		return Integer.valueOf(imported);
 	}
 
@@ -303,8 +305,7 @@ public class ImportBookTask extends AsyncBookTask<CsvReader> {
 		be.setPublisher(publisher);
 		be.setReleaseDate(releaseDate);
 		be.setDescription(description);
-		be.setIsbn10(isbn10);
-		be.setIsbn13(isbn13);
+		be.setIsbns(isbn10, isbn13);
 		be.setGoogleId(googleId);
 		be.setPageCount(pageCount);
 		be.setDimensions(dimensions);
@@ -315,7 +316,7 @@ public class ImportBookTask extends AsyncBookTask<CsvReader> {
 		final long bookId = be.executeInsert(db, t);
 
 		if (coverUrl != null) {
-			ThumbnailManager.save(context, bookId, null, null, null, coverUrl);
+			ThumbnailDownloadQueue.getInstance(context, db).add(t, bookId, coverUrl, false);
 		}
 
 		return Long.valueOf(bookId);
@@ -16,7 +16,6 @@
 
 package com.wigwamlabs.booksapp;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Date;
@@ -28,6 +27,7 @@ import android.content.Context;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.Toast;
 
 import com.wigwamlabs.booksapp.IsbnSearchService.BookSearchItem;
 import com.wigwamlabs.booksapp.IsbnSearchService.LocalBinder;
@@ -229,10 +229,13 @@ public class IsbnSearchAdapter extends ArrayAdapter<BookSearchItem> implements
 
 	@Override
 	public void onStateChanged(int newState) {
+		if (newState == IsbnSearchService.STATE_WAITING_FOR_NETWORK)
+			Toast.makeText(getContext(), R.string.isbn_search_waiting_for_network_toast,
+					Toast.LENGTH_LONG).show();
 	}
 
 	@Override
-	public void onThumbnailChanged(long bookId, boolean small, File file) {
+	public void onThumbnailsChanged(ThumbnailChangeBus.Changes changes) {
 		notifyDataSetChanged();
 	}
 
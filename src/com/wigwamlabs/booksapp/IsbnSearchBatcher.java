@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.util.Random;
+
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+
+/**
+ * Decides how many ISBNs to search for at once on the web. Batches grow while
+ * searches are quick, and are halved when they are slow or fail. Failed
+ * searches are retried with exponential backoff and some jitter, so that
+ * parallel searches don't retry in step.
+ */
+public class IsbnSearchBatcher {
+	private static final long BACKOFF_MAX_MS = 8 * 1000;
+	private static final long BACKOFF_MS = 500;
+	/* package */static final long FAST_SEARCH_MS = 1500;
+	/* package */static final int INITIAL_BATCH_SIZE = 10;
+	// keeps responses, and the searches that fail, reasonably small
+	public static final int MAX_BATCH_SIZE = 20;
+	public static final int MAX_RETRIES = 3;
+	public static final int MIN_BATCH_SIZE = 2;
+	/* package */static final long SLOW_SEARCH_MS = 5000;
+	private int mBatchSize = INITIAL_BATCH_SIZE;
+	private final Random mRandom;
+
+	public IsbnSearchBatcher() {
+		this(new Random());
+	}
+
+	public IsbnSearchBatcher(Random random) {
+		mRandom = random;
+	}
+
+	/**
+	 * Returns how long to wait before retrying, after the given number of
+	 * failed attempts. It's somewhere between half and all of the backoff.
+	 */
+	public long getBackoff(int attempts) {
+		if (attempts <= 0)
+			return 0;
+		final int shift = Math.min(attempts - 1, 20);
+		final long backoff = Math.min(BACKOFF_MS << shift, BACKOFF_MAX_MS);
+		final long half = backoff / 2;
+		synchronized (mRandom) {
+			return half + (long) (mRandom.nextDouble() * (backoff - half));
+		}
+	}
+
+	public synchronized int getBatchSize() {
+		return mBatchSize;
+	}
+
+	public synchronized void onSearchFailed() {
+		mBatchSize = Math.max(MIN_BATCH_SIZE, mBatchSize / 2);
+	}
+
+	/**
+	 * Adjusts the batch size after searching for a batch of the given size,
+	 * which took the given time and returned the given number of books.
+	 */
+	public synchronized void onSearchSucceeded(int batchSize, long elapsedMs, int resultCount) {
+		if (elapsedMs >= SLOW_SEARCH_MS) {
+			mBatchSize = Math.max(MIN_BATCH_SIZE, mBatchSize / 2);
+		} else if (elapsedMs < FAST_SEARCH_MS && batchSize >= mBatchSize
+				&& resultCount < Math.max(GoogleBookSearch.DEFAULT_MAX_RESULTS, batchSize)) {
+			// only grow after full batches, whose results all fit in the
+			// response, see GoogleBookSearch.searchByIsbns()
+			mBatchSize = Math.min(MAX_BATCH_SIZE, mBatchSize + 2);
+		}
+	}
+}
@@ -16,12 +16,20 @@
 
 package com.wigwamlabs.booksapp;
 
-import static com.wigwamlabs.util.CollectionUtils.listToArray;
-
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.app.Service;
 import android.content.Context;
@@ -29,6 +37,8 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import com.wigwamlabs.booksapp.db.CollectionActions;
@@ -37,17 +47,20 @@ import com.wigwamlabs.booksapp.db.IsbnSearchCursor;
 import com.wigwamlabs.googlebooks.GoogleBook;
 import com.wigwamlabs.googlebooks.GoogleBookFeed;
 import com.wigwamlabs.googlebooks.GoogleBookSearch;
+import com.wigwamlabs.util.IsbnUtils;
 import com.wigwamlabs.util.WeakListIterator;
 
-public class IsbnSearchService extends Service {
+public class IsbnSearchService extends Service implements HttpTransportCache.ConnectivityObserver {
 	public static class BookSearchItem {
 		public static final int FULL_EXISTING = 0;
 		public static final int FULL_SAVED = 1;
 		public static final int LIST = 2;
 		public static final int NOT_FOUND = 3;
 		public static final int UNKNOWN = 4;
+		/* package */long addedTime;
 		public GoogleBook book;
 		public final String isbn;
+		/* package */boolean searchedLocally;
 		public int state = UNKNOWN;
 
 		public BookSearchItem(String isbn) {
@@ -87,6 +100,10 @@ public class IsbnSearchService extends Service {
 		public void setCollectionId(Long collectionId) {
 			IsbnSearchService.this.mCollectionId = collectionId;
 		}
+
+		public void setShelfScanning(boolean shelfScanning) {
+			IsbnSearchService.this.setShelfScanning(shelfScanning);
+		}
 	}
 
 	public interface Observer {
@@ -100,6 +117,8 @@ public class IsbnSearchService extends Service {
 	}
 
 	public class SearchTask extends AsyncTask<List<BookSearchItem>, List<BookSearchItem>, Boolean> {
+		private volatile boolean mOffline;
+
 		private void addToCollection(List<BookSearchItem> localItems) {
 			if (mCollectionId == null)
 				return;
@@ -129,53 +148,67 @@ public class IsbnSearchService extends Service {
 		@SuppressWarnings("unchecked")
 		@Override
 		protected Boolean doInBackground(List<BookSearchItem>... arg) {
+			// items added later are taken from mNewItems
 			final List<BookSearchItem> allItems = arg[0];
-			final List<BookSearchItem> items = new ArrayList<BookSearchItem>(MAX_COUNT_PER_SEARCH);
-			final List<BookSearchItem> localItems = new ArrayList<BookSearchItem>(
-					MAX_COUNT_PER_SEARCH);
-			final List<String> isbns = new ArrayList<String>(MAX_COUNT_PER_SEARCH);
+			final List<BookSearchItem> items = new ArrayList<BookSearchItem>();
+			final List<BookSearchItem> localItems = new ArrayList<BookSearchItem>();
+			final List<String> isbns = new ArrayList<String>();
+			// items that couldn't be searched for are left for the next run
+			boolean webSearchFailed = false;
 
 			while (true) {
+				if (isCancelled())
+					return Boolean.FALSE;
+				takeNewItems(allItems);
 				items.clear();
 				localItems.clear();
 				isbns.clear();
 
-				// find unknown items
-				findUnknownItems(allItems, items, isbns);
-
+				// look for new items locally, all at once
+				findItemsNotSearchedLocally(allItems, items);
 				if (!items.isEmpty()) {
-					// look for them locally
-					searchLocally(items, isbns, localItems);
+					searchLocally(items, localItems);
 					if (!localItems.isEmpty()) {
 						addToCollection(localItems);
 						publishProgress(new ArrayList<BookSearchItem>(localItems));
 					}
+					continue;
+				}
 
-					if (items.isEmpty())
-						continue;
-
-					// look for remaining items on web
-					if (searchOnWeb(items, listToArray(isbns))) {
-						publishProgress(new ArrayList<BookSearchItem>(items));
-						continue;
-					} else {
-						return Boolean.FALSE;
+				// look for remaining items on web, once there are enough of them or
+				// the first one has waited long enough
+				final int batchSize = mBatcher.getBatchSize();
+				final long delay = webSearchFailed ? 0 : findUnknownItems(allItems, batchSize,
+						items, isbns);
+				if (!items.isEmpty() && delay == 0) {
+					if (!searchOnWeb(items, batchSize)) {
+						if (isCancelled())
+							return Boolean.FALSE;
+						// get full information for the books that were found
+						webSearchFailed = true;
 					}
+					continue;
 				}
 
-				// get full information
+				// get full information, while waiting for more items to search for
 				final BookSearchItem listItem = findFirstListItem(allItems);
 				if (listItem != null) {
 					if (saveBook(listItem)) {
-						items.add(listItem);
-						publishProgress(new ArrayList<BookSearchItem>(items));
+						final List<BookSearchItem> saved = new ArrayList<BookSearchItem>(1);
+						saved.add(listItem);
+						publishProgress(saved);
 						continue;
 					} else {
 						return Boolean.FALSE;
 					}
 				}
 
-				return Boolean.TRUE;
+				if (!items.isEmpty()) {
+					waitForNewItems(delay);
+					continue;
+				}
+
+				return Boolean.valueOf(!webSearchFailed);
 			}
 		}
 
@@ -187,22 +220,49 @@ public class IsbnSearchService extends Service {
 			return null;
 		}
 
-		private void findUnknownItems(final List<BookSearchItem> allItems,
+		private void findItemsNotSearchedLocally(List<BookSearchItem> allItems,
+				List<BookSearchItem> items) {
+			for (final BookSearchItem item : allItems) {
+				if (!item.searchedLocally) {
+					items.add(item);
+					if (items.size() >= MAX_COUNT_PER_LOCAL_SEARCH)
+						break;
+				}
+			}
+		}
+
+		/**
+		 * Finds enough items for a few parallel searches, and returns how long
+		 * to wait for more items before searching for them, which is 0 unless
+		 * shelf scanning.
+		 */
+		private long findUnknownItems(final List<BookSearchItem> allItems, int batchSize,
 				final List<BookSearchItem> items, final List<String> isbns) {
 			for (final BookSearchItem item : allItems) {
 				if (item.book == null && item.state != BookSearchItem.NOT_FOUND) {
 					items.add(item);
 					isbns.add(item.isbn);
-					if (items.size() >= MAX_COUNT_PER_SEARCH)
+					if (items.size() >= batchSize * MAX_PARALLEL_SEARCHES)
 						break;
 				}
 			}
+			if (items.isEmpty() || items.size() >= batchSize || !mShelfScanning)
+				return 0;
+			final long due = items.get(0).addedTime + SHELF_SCANNING_WINDOW_MS;
+			return Math.max(0, due - SystemClock.uptimeMillis());
 		}
 
 		@Override
 		protected void onPostExecute(Boolean result) {
-			setState(result.booleanValue() ? STATE_FINISHED : STATE_FAILED);
+			if (result.booleanValue())
+				setState(STATE_FINISHED);
+			else
+				setState(mOffline ? STATE_WAITING_FOR_NETWORK : STATE_FAILED);
 			mSearchTask = null;
+
+			// added after the task last looked
+			if (result.booleanValue() && hasNewItems())
+				startQueryUnlessAlreadyRunning();
 		}
 
 		@Override
@@ -232,68 +292,238 @@ public class IsbnSearchService extends Service {
 			return true;
 		}
 
-		private void searchLocally(List<BookSearchItem> items, List<String> isbns,
-				List<BookSearchItem> localItems) {
-			final IsbnSearchCursor c = IsbnSearchCursor.searchByIsbns(mDb, listToArray(isbns));
+		private void searchLocally(List<BookSearchItem> items, List<BookSearchItem> localItems) {
+			final HashMap<Long, BookSearchItem> itemsByIsbn = new HashMap<Long, BookSearchItem>(
+					items.size());
+			for (final BookSearchItem item : items) {
+				item.searchedLocally = true;
+				// invalid ISBNs can't be in the database
+				final Long isbn = IsbnUtils.toCanonical(item.isbn);
+				if (isbn != null)
+					itemsByIsbn.put(isbn, item);
+			}
+			if (itemsByIsbn.isEmpty())
+				return;
+
+			final long[] isbns = new long[itemsByIsbn.size()];
+			int i = 0;
+			for (final Long isbn : itemsByIsbn.keySet()) {
+				isbns[i++] = isbn.longValue();
+			}
+			final IsbnSearchCursor c = IsbnSearchCursor.searchByIsbns(mDb, isbns);
 			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-				for (int i = items.size() - 1; i >= 0; i--) {
-					final BookSearchItem item = items.get(i);
-					if (item.isbn.equals(c.isbn13())) {
-						items.remove(i);
-						isbns.remove(i);
+				final BookSearchItem item = itemsByIsbn.remove(Long.valueOf(c.isbn()));
+				if (item != null) {
+					item.state = BookSearchItem.FULL_EXISTING;
+					item.book = createFakeBook(c);
 
-						item.state = BookSearchItem.FULL_EXISTING;
-						item.book = createFakeBook(c);
+					localItems.add(item);
+				}
+			}
+			c.close();
+		}
 
-						localItems.add(item);
+		/**
+		 * Searches for the items in batches, a few at a time, and publishes
+		 * each batch as soon as it has been searched for. Returns false if any
+		 * of the items couldn't be searched for.
+		 */
+		private boolean searchOnWeb(List<BookSearchItem> items, int batchSize) {
+			final CompletionService<Boolean> searches = new ExecutorCompletionService<Boolean>(
+					getWebSearchExecutor());
+			final HashMap<Future<Boolean>, List<BookSearchItem>> batches = new HashMap<Future<Boolean>, List<BookSearchItem>>();
+			for (int i = 0; i < items.size(); i += batchSize) {
+				final List<BookSearchItem> batch = new ArrayList<BookSearchItem>(items.subList(i,
+						Math.min(i + batchSize, items.size())));
+				batches.put(searches.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return Boolean.valueOf(searchOnWebWithRetries(batch, 0));
+					}
+				}), batch);
+			}
+
+			boolean success = true;
+			try {
+				for (int i = batches.size(); i > 0; i--) {
+					final Future<Boolean> search = searches.take();
+					try {
+						if (!search.get().booleanValue())
+							success = false;
+					} catch (final ExecutionException e) {
+						// the other batches are still published
+						e.printStackTrace();
+						success = false;
 					}
+					publishProgress(batches.get(search));
 				}
+			} catch (final InterruptedException e) {
+				// cancelled
+				for (final Future<Boolean> search : batches.keySet()) {
+					search.cancel(true);
+				}
+				return false;
 			}
-			c.close();
+			return success;
 		}
 
-		private boolean searchOnWeb(List<BookSearchItem> items, String[] isbns) {
+		/**
+		 * Returns 1 if the items were searched for, 0 if the search failed and
+		 * -1 if offline.
+		 */
+		private int searchOnWebBatch(List<BookSearchItem> items) {
+			final HashMap<String, BookSearchItem> itemsByIsbn = new HashMap<String, BookSearchItem>(
+					items.size());
+			final String[] isbns = new String[items.size()];
+			for (int i = 0; i < isbns.length; i++) {
+				final BookSearchItem item = items.get(i);
+				itemsByIsbn.put(item.isbn, item);
+				isbns[i] = item.isbn;
+			}
+
+			final long start = SystemClock.uptimeMillis();
 			final GoogleBookFeed feed;
 			try {
 				feed = mGoogleBookSearch.searchByIsbns(isbns).execute();
+			} catch (final OfflineException e) {
+				// items are kept unknown and looked up when network is back
+				mOffline = true;
+				return -1;
 			} catch (final IOException e) {
 				e.printStackTrace();
-				return false;
+				mBatcher.onSearchFailed();
+				return 0;
 			}
+			mBatcher.onSearchSucceeded(isbns.length, SystemClock.uptimeMillis() - start,
+					feed.books != null ? feed.books.size() : 0);
+
 			if (feed.books != null) {
 				for (final GoogleBook book : feed.books) {
-					for (final BookSearchItem item : items) {
-						if (book.isbn13 != null && book.isbn13.equals(item.isbn)) {
-							item.book = book;
-						}
-					}
+					final BookSearchItem item = book.isbn13 != null ? itemsByIsbn.get(book.isbn13)
+							: null;
+					if (item != null)
+						item.book = book;
 				}
 			}
 
 			for (final BookSearchItem item : items) {
 				item.state = (item.book == null ? BookSearchItem.NOT_FOUND : BookSearchItem.LIST);
 			}
-			return true;
+			return 1;
+		}
+
+		/**
+		 * Retries a failing search after a while, in two halves so that a
+		 * problematic ISBN only keeps the ones in its own half from being
+		 * found.
+		 */
+		private boolean searchOnWebWithRetries(List<BookSearchItem> items, int attempts) {
+			if (attempts > 0) {
+				try {
+					Thread.sleep(mBatcher.getBackoff(attempts));
+				} catch (final InterruptedException e) {
+					// cancelled
+					return false;
+				}
+			}
+
+			final int result = searchOnWebBatch(items);
+			if (result != 0)
+				return result > 0;
+			if (attempts >= IsbnSearchBatcher.MAX_RETRIES || isCancelled())
+				return false;
+
+			if (items.size() == 1)
+				return searchOnWebWithRetries(items, attempts + 1);
+			final int half = items.size() / 2;
+			final boolean first = searchOnWebWithRetries(items.subList(0, half), attempts + 1);
+			final boolean second = searchOnWebWithRetries(items.subList(half, items.size()),
+					attempts + 1);
+			return first && second;
+		}
+
+		private void takeNewItems(List<BookSearchItem> allItems) {
+			synchronized (mNewItems) {
+				allItems.addAll(mNewItems);
+				mNewItems.clear();
+			}
+		}
+
+		private void waitForNewItems(long timeout) {
+			synchronized (mNewItems) {
+				if (mNewItems.isEmpty() && mShelfScanning) {
+					try {
+						mNewItems.wait(timeout);
+					} catch (final InterruptedException e) {
+						// cancelled
+					}
+				}
+			}
 		}
 	}
 
-	/* package */static final int MAX_COUNT_PER_SEARCH = 10;
+	private static final int MAX_COUNT_PER_LOCAL_SEARCH = 500;
+	// the HTTP client allows two connections per host
+	/* package */static final int MAX_PARALLEL_SEARCHES = 2;
+	private static ExecutorService mWebSearchExecutor;
+	/* package */static final long SHELF_SCANNING_WINDOW_MS = 2000;
 	public static final int STATE_FAILED = 0;
 	public static final int STATE_FINISHED = 1;
 	public static final int STATE_RUNNING = 2;
+	public static final int STATE_WAITING_FOR_NETWORK = 3;
+
+	private static synchronized ExecutorService getWebSearchExecutor() {
+		if (mWebSearchExecutor == null) {
+			mWebSearchExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_SEARCHES,
+					new ThreadFactory() {
+						private int mCount;
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+									r.run();
+								}
+							}, "IsbnSearch-" + mCount++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return mWebSearchExecutor;
+	}
+
+	/* package */final IsbnSearchBatcher mBatcher = new IsbnSearchBatcher();
 	private LocalBinder mBinder;
 	public Long mCollectionId;
 	/* package */DatabaseAdapter mDb;
 	/* package */GoogleBookSearch mGoogleBookSearch;
+	private final HashSet<String> mIsbns = new HashSet<String>();
 	private List<BookSearchItem> mItems;
+	// added since the search task started, guarded by itself
+	private final List<BookSearchItem> mNewItems = new ArrayList<BookSearchItem>();
 	/* package */List<WeakReference<Observer>> mObservers;
 	/* package */SearchTask mSearchTask;
+	private volatile boolean mShelfScanning;
 	private int mState = STATE_FINISHED;
 	/* package */ImageDownloadCollection mThumbnails;
 
+	/**
+	 * Adds a book to search for, unless it already has been added.
+	 */
 	public void addIsbn(String isbn) {
+		if (!mIsbns.add(isbn))
+			return;
+
 		final BookSearchItem item = new BookSearchItem(isbn);
+		item.addedTime = SystemClock.uptimeMillis();
 		mItems.add(item);
+		synchronized (mNewItems) {
+			mNewItems.add(item);
+			mNewItems.notifyAll();
+		}
 
 		for (final Observer o : WeakListIterator.from(mObservers)) {
 			o.onItemAdded(item);
@@ -318,6 +548,12 @@ public class IsbnSearchService extends Service {
 		return mThumbnails;
 	}
 
+	/* package */boolean hasNewItems() {
+		synchronized (mNewItems) {
+			return !mNewItems.isEmpty();
+		}
+	}
+
 	public void initDebug(Context context, DatabaseAdapter db) {
 		attachBaseContext(context);
 		mDb = db;
@@ -328,6 +564,12 @@ public class IsbnSearchService extends Service {
 		return mBinder;
 	}
 
+	@Override
+	public void onConnectivityRestored() {
+		if (mState == STATE_WAITING_FOR_NETWORK)
+			startQueryUnlessAlreadyRunning();
+	}
+
 	@Override
 	public void onCreate() {
 		super.onCreate();
@@ -338,6 +580,8 @@ public class IsbnSearchService extends Service {
 		mObservers = new ArrayList<WeakReference<Observer>>();
 		mGoogleBookSearch = new GoogleBookSearch(this);
 		mThumbnails = CacheConfig.createWebThumbnailCacheSmall(this);
+		HttpTransportCache.addConnectivityObserver(new WeakReference<HttpTransportCache.ConnectivityObserver>(
+				this));
 		if (mDb == null)
 			mDb = ((BooksApp) getApplicationContext()).getDb();
 	}
@@ -345,6 +589,10 @@ public class IsbnSearchService extends Service {
 	public void reset() {
 		setState(STATE_FINISHED);
 		mItems.clear();
+		mIsbns.clear();
+		synchronized (mNewItems) {
+			mNewItems.clear();
+		}
 		if (mSearchTask != null) {
 			mSearchTask.cancel(true);
 			mSearchTask = null;
@@ -355,6 +603,18 @@ public class IsbnSearchService extends Service {
 		mThumbnails = CacheConfig.createWebThumbnailCacheSmall(this);
 	}
 
+	/**
+	 * While shelf scanning, ISBNs are collected for a while before they are
+	 * searched for on the web, so that more of them are searched for at
+	 * once. Searches aren't delayed once shelf scanning is turned off.
+	 */
+	public void setShelfScanning(boolean shelfScanning) {
+		mShelfScanning = shelfScanning;
+		synchronized (mNewItems) {
+			mNewItems.notifyAll();
+		}
+	}
+
 	public void setState(int newState) {
 		if (newState == mState)
 			return;
@@ -370,8 +630,11 @@ public class IsbnSearchService extends Service {
 		if (mSearchTask != null)
 			return;
 
+		synchronized (mNewItems) {
+			mNewItems.clear();
+		}
 		mSearchTask = new SearchTask();
-		mSearchTask.execute(mItems);
+		mSearchTask.execute(new ArrayList<BookSearchItem>(mItems));
 
 		setState(STATE_RUNNING);
 	}
@@ -127,9 +127,10 @@ public final class LayoutUtilities {
 			thumbnails.attachUrl(thumbnailUrl, imageView,
 					WhenNoImage.usePlaceholder(R.drawable.thumbnail_placeholder), thumbnailsPaused);
 		} else {
-			thumbnails.attachFile(
-					ThumbnailManager.getThumbnail(context, bookId.longValue(), small), imageView,
-					WhenNoImage.usePlaceholder(R.drawable.thumbnail_placeholder), thumbnailsPaused);
+			thumbnails.attachUrl(
+					ThumbnailManager.getThumbnailUrl(context, bookId.longValue(), small),
+					imageView, WhenNoImage.usePlaceholder(R.drawable.thumbnail_placeholder),
+					thumbnailsPaused);
 		}
 	}
 
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link HttpTransportCache} when a request isn't cached and there's
+ * no network. The request is retried in the background once the network is
+ * back.
+ */
+@SuppressWarnings("serial")
+public class OfflineException extends IOException {
+	public OfflineException(String url, Throwable cause) {
+		super("No network available: " + url);
+		if (cause != null)
+			initCause(cause);
+	}
+}
@@ -17,30 +17,37 @@
 package com.wigwamlabs.booksapp;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
 
 import com.wigwamlabs.booksapp.db.CollectionActions;
 import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.booksapp.db.GroupNameCache;
 import com.wigwamlabs.googlebooks.GoogleBook;
 import com.wigwamlabs.googlebooks.GoogleBookSearch;
 
 public class SaveGoogleBookTask extends AsyncBookTask<GoogleBook> {
+	// the HTTP client allows two connections per host
+	private static final int MAX_PARALLEL_FETCHES = 2;
+	private static ExecutorService mFetchExecutor;
+	private static final String TAG = SaveGoogleBookTask.class.getSimpleName();
+
 	public static long execute(Context context, DatabaseAdapter db, GoogleBookSearch bookSearch,
 			ImageDownloadCollection smallThumbnails, ImageDownloadCollection largeThumbnails,
 			final GoogleBook book, Long collectionId) {
-		if (!book.isFullBook && bookSearch != null) {
-			try {
-				final GoogleBook fullBook = bookSearch.searchByGoogleId(book.googleId).execute();
-				book.mergeWithFullBook(fullBook);
-			} catch (final IOException e) {
-				// TODO should the user be notified? given the option to try
-				// again?
-				e.printStackTrace();
-			}
-		}
+		if (!book.isFullBook && bookSearch != null)
+			fetchFullBook(bookSearch, book);
 
 		long id;
 		try {
@@ -65,6 +72,73 @@ public class SaveGoogleBookTask extends AsyncBookTask<GoogleBook> {
 		return id;
 	}
 
+	private static void fetchFullBook(GoogleBookSearch bookSearch, GoogleBook book) {
+		try {
+			final GoogleBook fullBook = bookSearch.searchByGoogleId(book.googleId).execute();
+			book.mergeWithFullBook(fullBook);
+		} catch (final IOException e) {
+			// TODO should the user be notified? given the option to try
+			// again?
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Fetches the full books, a few at a time.
+	 */
+	private static void fetchFullBooks(final GoogleBookSearch bookSearch, GoogleBook[] books)
+			throws InterruptedException {
+		final List<Future<?>> fetches = new ArrayList<Future<?>>(books.length);
+		for (final GoogleBook book : books) {
+			if (book.isFullBook)
+				continue;
+			fetches.add(getFetchExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					fetchFullBook(bookSearch, book);
+				}
+			}));
+		}
+
+		try {
+			for (final Future<?> fetch : fetches) {
+				try {
+					fetch.get();
+				} catch (final ExecutionException e) {
+					Log.e(TAG, "Exception", e);
+				}
+			}
+		} catch (final InterruptedException e) {
+			for (final Future<?> fetch : fetches) {
+				fetch.cancel(true);
+			}
+			throw e;
+		}
+	}
+
+	private static synchronized ExecutorService getFetchExecutor() {
+		if (mFetchExecutor == null) {
+			mFetchExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_FETCHES,
+					new ThreadFactory() {
+						private int mCount;
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+									r.run();
+								}
+							}, "SaveGoogleBook-" + mCount++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return mFetchExecutor;
+	}
+
 	private final GoogleBookSearch mBookSearch;
 	private final ImageDownloadCollection mLargeThumbnails;
 	private final ImageDownloadCollection mSmallThumbnails;
@@ -84,8 +158,107 @@ public class SaveGoogleBookTask extends AsyncBookTask<GoogleBook> {
 				null);
 	}
 
+	/**
+	 * Saves many books at once, in one transaction.
+	 */
+	@Override
+	protected Integer doInBackground(GoogleBook... books) {
+		if (books.length <= 1)
+			return super.doInBackground(books);
+
+		final long[] ids;
+		try {
+			if (mBookSearch != null)
+				fetchFullBooks(mBookSearch, books);
+			if (isCancelled())
+				return Integer.valueOf(0);
+			ids = saveBooks(getContext(), getDb(), books);
+		} catch (final Exception e) {
+			Log.e(TAG, "Exception", e);
+			abort();
+			return Integer.valueOf(0);
+		}
+
+		int result = 0;
+		for (final long id : ids) {
+			if (id >= 0) {
+				publishProgress(id, null);
+				result++;
+			}
+		}
+		return Integer.valueOf(result);
+	}
+
 	@Override
 	protected CharSequence getToastMessage(Resources res, int bookCount) {
 		return res.getQuantityString(R.plurals.saved_books_toast, bookCount);
 	}
+
+	/**
+	 * Inserts the books that aren't skipped in one transaction. Returns the
+	 * index of the book that failed, in which case nothing is inserted, or -1.
+	 */
+	private int insertBooks(DatabaseAdapter db, ThumbnailDownloadQueue queue,
+			GoogleBook[] books, boolean[] skipped, long[] ids, Bitmap[] smallThumbnails,
+			Bitmap[] largeThumbnails) {
+		int current = -1;
+		try {
+			final int t = db.beginTransaction();
+			final GroupNameCache cache = new GroupNameCache();
+			for (int i = 0; i < books.length; i++) {
+				if (skipped[i])
+					continue;
+				current = i;
+				final GoogleBook book = books[i];
+				ids[i] = book.save(db, t, cache);
+				if (ids[i] < 0)
+					continue;
+
+				smallThumbnails[i] = mSmallThumbnails.getImage(book.thumbnailSmallUrl);
+				if (smallThumbnails[i] == null && book.thumbnailSmallUrl != null)
+					queue.add(t, ids[i], book.thumbnailSmallUrl, true);
+				largeThumbnails[i] = (mLargeThumbnails == null ? null : mLargeThumbnails
+						.getImage(book.thumbnailLargeUrl));
+				if (largeThumbnails[i] == null && book.thumbnailLargeUrl != null)
+					queue.add(t, ids[i], book.thumbnailLargeUrl, false);
+			}
+			current = -1;
+			db.setTransactionSuccessful(t);
+		} catch (final RuntimeException e) {
+			if (current < 0)
+				throw e;
+			Log.e(TAG, "Skipping " + books[current].googleId, e);
+		} finally {
+			db.endTransaction();
+		}
+		return current;
+	}
+
+	/**
+	 * Shares the names of authors etc. between the books, and queues the
+	 * thumbnails that aren't downloaded already in one download queue. A book
+	 * that fails to be saved is skipped, by saving the others again without
+	 * it.
+	 */
+	private long[] saveBooks(Context context, DatabaseAdapter db, GoogleBook[] books) {
+		final long[] ids = new long[books.length];
+		final boolean[] skipped = new boolean[books.length];
+		final Bitmap[] smallThumbnails = new Bitmap[books.length];
+		final Bitmap[] largeThumbnails = new Bitmap[books.length];
+		final ThumbnailDownloadQueue queue = ThumbnailDownloadQueue.getInstance(context, db);
+		int failed;
+		while ((failed = insertBooks(db, queue, books, skipped, ids, smallThumbnails,
+				largeThumbnails)) >= 0) {
+			skipped[failed] = true;
+			ids[failed] = -1;
+		}
+		queue.start();
+
+		for (int i = 0; i < books.length; i++) {
+			if (ids[i] >= 0)
+				ThumbnailManager.save(context, ids[i], smallThumbnails[i], null,
+						largeThumbnails[i], null);
+		}
+		return ids;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.widget.ImageView;
+
+import com.wigwamlabs.util.BitmapPool;
+import com.wigwamlabs.util.BitmapUtils;
+
+/**
+ * Two level cache of scaled thumbnails, shared by all image download
+ * collections of the same kind. The first level is an in memory LRU with a
+ * byte budget, the second level is a directory of already scaled images for
+ * thumbnails that are downloaded. Local thumbnails don't need the second
+ * level since they are already stored at the right size. Thread safe.
+ */
+public class ThumbnailCache implements BitmapCacheHashMap.OnRemovedListener {
+	private static final String CACHEFILE_PREFIX = "thumbnail";
+	private static final String CACHEFILE_SUFFIX = ".img";
+	private static final int FILE_CACHE_LOWER_LIMIT = 300;
+	private static final int FILE_CACHE_UPPER_LIMIT = 400;
+	private static final String FILE_PROTOCOL = "file";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int JPEG_QUALITY = 90;
+
+	private static String diskKey(String url) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes());
+			final char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (final NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+
+	private final BackgroundFileOperations mBackgroundFileOperations;
+	private final File mDiskDir;
+	// images currently shown, they mustn't be reused even if evicted
+	private final WeakHashMap<ImageView, Bitmap> mDisplayedImages = new WeakHashMap<ImageView, Bitmap>();
+	// images returned by handOut(), the caller might still use them
+	private final WeakHashMap<Bitmap, Boolean> mHandedOutImages = new WeakHashMap<Bitmap, Boolean>();
+	private final BitmapCacheHashMap<CharSequence> mImages;
+	private final BitmapPool mPool;
+
+	/**
+	 * Evicted images are put in the pool (if not null) unless they are still
+	 * used. Downloaded images are also stored in diskDir (if not null).
+	 */
+	public ThumbnailCache(int maxImages, int maxBytes, BitmapPool pool, File diskDir) {
+		mImages = new BitmapCacheHashMap<CharSequence>(maxImages, maxBytes);
+		mPool = pool;
+		if (pool != null)
+			mImages.setOnRemovedListener(this);
+
+		if (diskDir != null && (diskDir.isDirectory() || diskDir.mkdirs())) {
+			mDiskDir = diskDir;
+			final FilenameFilter filter = new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(CACHEFILE_PREFIX) && name.endsWith(CACHEFILE_SUFFIX);
+				}
+			};
+			mBackgroundFileOperations = new BackgroundFileOperations(new DeleteFileAction(
+					diskDir, FILE_CACHE_UPPER_LIMIT, FILE_CACHE_LOWER_LIMIT, filter));
+		} else {
+			mDiskDir = null;
+			mBackgroundFileOperations = null;
+		}
+	}
+
+	public synchronized boolean containsKey(CharSequence url) {
+		return mImages.containsKey(url);
+	}
+
+	private File diskFile(String url) {
+		if (mDiskDir == null || url.startsWith(FILE_PROTOCOL))
+			return null;
+		return new File(mDiskDir, CACHEFILE_PREFIX + diskKey(url) + CACHEFILE_SUFFIX);
+	}
+
+	/**
+	 * Returns the image, or null if it's not in memory.
+	 */
+	public synchronized Bitmap get(CharSequence url) {
+		return mImages.get(url);
+	}
+
+	/* package */BitmapPool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * Same as {@link #get(CharSequence)} but the returned image will never be
+	 * reused, for callers that keep it.
+	 */
+	public synchronized Bitmap handOut(CharSequence url) {
+		final Bitmap image = mImages.get(url);
+		if (image != null)
+			mHandedOutImages.put(image, Boolean.TRUE);
+		return image;
+	}
+
+	/**
+	 * Returns the scaled image from the second level, or null. Blocks, so must
+	 * not be called on the main thread.
+	 */
+	/* package */Bitmap loadFromDisk(String url) {
+		final File file = diskFile(url);
+		if (file == null || !file.exists())
+			return null;
+
+		final Bitmap image = BitmapUtils.decodeFile(file.getPath(), mPool);
+		if (image == null) {
+			file.delete();
+			return null;
+		}
+		// the oldest files are deleted first
+		file.setLastModified(System.currentTimeMillis());
+		return image;
+	}
+
+	@Override
+	public void onBitmapRemoved(Bitmap bitmap) {
+		// called with this locked
+		if (mHandedOutImages.containsKey(bitmap) || mDisplayedImages.containsValue(bitmap))
+			return;
+		mPool.put(bitmap);
+	}
+
+	public synchronized void put(CharSequence url, Bitmap image) {
+		mImages.put(url, image);
+	}
+
+	public synchronized void remove(CharSequence url) {
+		mImages.remove(url);
+	}
+
+	/* package */synchronized void setDisplayed(ImageView imageView, Bitmap image) {
+		// without an image the view might keep showing the previous one
+		if (image != null)
+			mDisplayedImages.put(imageView, image);
+	}
+
+	/**
+	 * Stores a downloaded and scaled image in the second level. Blocks, so
+	 * must not be called on the main thread.
+	 */
+	/* package */void storeOnDisk(String url, Bitmap image) {
+		final File file = diskFile(url);
+		if (file == null || image == null)
+			return;
+
+		// write to a temporary file so that readers never see partial images
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			final FileOutputStream out = new FileOutputStream(tmpFile);
+			try {
+				final boolean alpha = image.hasAlpha();
+				image.compress(alpha ? CompressFormat.PNG : CompressFormat.JPEG, JPEG_QUALITY,
+						out);
+			} finally {
+				out.close();
+			}
+			if (tmpFile.renameTo(file))
+				mBackgroundFileOperations.addFile(file.getPath());
+			else
+				tmpFile.delete();
+		} catch (final IOException e) {
+			e.printStackTrace();
+			tmpFile.delete();
+		}
+	}
+}
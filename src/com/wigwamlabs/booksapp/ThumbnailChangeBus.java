@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import android.os.Handler;
+
+import com.wigwamlabs.util.WeakListIterator;
+
+/**
+ * Delivers thumbnail changes to observers on the handler's thread. Changes
+ * published within a frame are merged, so each observer is notified once no
+ * matter how many thumbnails were written, e.g. during an import.
+ * Publishing is thread safe, observers must be added and removed on the
+ * handler's thread.
+ */
+public class ThumbnailChangeBus {
+	public static class Changes {
+		private final Set<Long> mLargeBookIds;
+		private final Set<Long> mSmallBookIds;
+		private final Set<String> mUrls;
+
+		/* package */Changes(Set<Long> largeBookIds, Set<Long> smallBookIds, Set<String> urls) {
+			mLargeBookIds = largeBookIds;
+			mSmallBookIds = smallBookIds;
+			mUrls = urls;
+		}
+
+		public boolean contains(long bookId, boolean small) {
+			return (small ? mSmallBookIds : mLargeBookIds).contains(Long.valueOf(bookId));
+		}
+
+		public int getCount() {
+			return mSmallBookIds.size() + mLargeBookIds.size();
+		}
+
+		/**
+		 * Returns the urls of the changed thumbnails, as used by
+		 * {@link ImageDownloadCollection#attachUrl}.
+		 */
+		public Set<String> getUrls() {
+			return mUrls;
+		}
+
+		public boolean hasChanges(boolean small) {
+			return !(small ? mSmallBookIds : mLargeBookIds).isEmpty();
+		}
+	}
+
+	private static final long FRAME_MS = 16;
+
+	private final Runnable mDispatch = new Runnable() {
+		@Override
+		public void run() {
+			dispatch();
+		}
+	};
+	private final Handler mHandler;
+	private HashSet<Long> mLargeBookIds = new HashSet<Long>();
+	private final List<WeakReference<ThumbnailManager.Observer>> mObservers = new ArrayList<WeakReference<ThumbnailManager.Observer>>();
+	private boolean mPosted;
+	private HashSet<Long> mSmallBookIds = new HashSet<Long>();
+	private HashSet<String> mUrls = new HashSet<String>();
+
+	public ThumbnailChangeBus(Handler handler) {
+		mHandler = handler;
+	}
+
+	public void addObserver(WeakReference<ThumbnailManager.Observer> observer) {
+		mObservers.add(observer);
+	}
+
+	private void dispatch() {
+		final Changes changes;
+		synchronized (this) {
+			changes = new Changes(mLargeBookIds, mSmallBookIds, mUrls);
+			mLargeBookIds = new HashSet<Long>();
+			mSmallBookIds = new HashSet<Long>();
+			mUrls = new HashSet<String>();
+			mPosted = false;
+		}
+		for (final ThumbnailManager.Observer o : WeakListIterator.from(mObservers)) {
+			o.onThumbnailsChanged(changes);
+		}
+	}
+
+	/**
+	 * Queues a change, observers are notified with all changes queued during
+	 * the current frame.
+	 */
+	public synchronized void publish(long bookId, boolean small, String url) {
+		(small ? mSmallBookIds : mLargeBookIds).add(Long.valueOf(bookId));
+		mUrls.add(url);
+		if (!mPosted) {
+			mPosted = true;
+			mHandler.postDelayed(mDispatch, FRAME_MS);
+		}
+	}
+
+	public void removeObserver(ThumbnailManager.Observer observer) {
+		final Iterator<WeakReference<ThumbnailManager.Observer>> it = mObservers.iterator();
+		while (it.hasNext()) {
+			final WeakReference<ThumbnailManager.Observer> o = it.next();
+			if (o.get() == observer)
+				it.remove();
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.api.client.http.HttpTransport;
+import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.booksapp.db.QueryBuilder;
+import com.wigwamlabs.booksapp.db.ThumbnailQueueTable;
+
+/**
+ * Downloads thumbnails for books in the background, e.g. the covers of
+ * imported books. The queue is kept in the database so that it survives the
+ * process being killed, and is drained by a few worker threads. Books with
+ * the same thumbnail url share a single download. Failed downloads are
+ * retried with exponential backoff, and given up after a number of attempts.
+ */
+public class ThumbnailDownloadQueue {
+	private static class Job {
+		public final int attempts;
+		public final List<Long> bookIds = new ArrayList<Long>();
+		public final List<Long> rowIds = new ArrayList<Long>();
+		public final boolean small;
+		public final String url;
+
+		public Job(String url, boolean small, int attempts) {
+			this.url = url;
+			this.small = small;
+			this.attempts = attempts;
+		}
+
+		public String getKey() {
+			return (small ? "s:" : "l:") + url;
+		}
+	}
+
+	private static final long BACKOFF_MAX_MS = 6 * 60 * 60 * 1000;
+	private static final long BACKOFF_MS = 30 * 1000;
+	private static ThumbnailDownloadQueue INSTANCE;
+	/* package */static final int MAX_ATTEMPTS = 8;
+	private static final String TAG = ThumbnailDownloadQueue.class.getSimpleName();
+	private static final int WORKER_COUNT = 3;
+
+	/**
+	 * Returns how long to wait before the next attempt, after the given
+	 * number of failed attempts.
+	 */
+	public static long getBackoff(int attempts) {
+		if (attempts <= 0)
+			return 0;
+		final int shift = Math.min(attempts - 1, 20);
+		return Math.min(BACKOFF_MS << shift, BACKOFF_MAX_MS);
+	}
+
+	public static synchronized ThumbnailDownloadQueue getInstance(Context context,
+			DatabaseAdapter db) {
+		if (INSTANCE == null)
+			INSTANCE = new ThumbnailDownloadQueue(context.getApplicationContext(), db);
+		return INSTANCE;
+	}
+
+	private int mActiveWorkers;
+	private final Context mContext;
+	private final DatabaseAdapter mDb;
+	private final Runnable mDrain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+	private final ScheduledExecutorService mExecutor;
+	// keys of jobs that are being downloaded, see Job.getKey()
+	private final HashSet<String> mInProgress = new HashSet<String>();
+	private volatile ThumbnailScheduler.Loader mLoader;
+	private final Runnable mStart = new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	};
+	private ScheduledFuture<?> mWakeUp;
+
+	/**
+	 * Use {@link #getInstance(Context, DatabaseAdapter)}, unless e.g. a test
+	 * needs a queue of its own.
+	 */
+	public ThumbnailDownloadQueue(Context context, DatabaseAdapter db) {
+		mContext = context;
+		mDb = db;
+		mExecutor = new ScheduledThreadPoolExecutor(WORKER_COUNT, new ThreadFactory() {
+			private int mCount;
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "ThumbnailDownloadQueue-" + mCount++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a download of the thumbnail, replacing any queued for the same
+	 * book. Call {@link #start()} when the transaction is committed.
+	 */
+	public void add(int t, long bookId, String url, boolean small) {
+		final String smallValue = (small ? "1" : "0");
+		mDb.delete(t, ThumbnailQueueTable.n, ThumbnailQueueTable.book_id + " = " + bookId
+				+ " AND " + ThumbnailQueueTable.small + " = " + smallValue, null);
+		mDb.insertOrThrow(
+				t,
+				ThumbnailQueueTable.n,
+				QueryBuilder.values().put(ThumbnailQueueTable.book_id, Long.valueOf(bookId))
+						.put(ThumbnailQueueTable.url, url)
+						.put(ThumbnailQueueTable.small, Integer.valueOf(small ? 1 : 0))
+						.put(ThumbnailQueueTable.attempts, Integer.valueOf(0))
+						.put(ThumbnailQueueTable.next_attempt, Long.valueOf(0)).end());
+	}
+
+	/**
+	 * Returns the next job that is due and not already being downloaded, with
+	 * all books that share its url.
+	 */
+	private synchronized Job claimJob() {
+		final String now = Long.toString(System.currentTimeMillis());
+		final Cursor due = mDb.queryRaw("SELECT " + ThumbnailQueueTable.url + ", "
+				+ ThumbnailQueueTable.small + ", MIN(" + ThumbnailQueueTable._id + ") AS first, MAX("
+				+ ThumbnailQueueTable.attempts + ") FROM " + ThumbnailQueueTable.n + " WHERE "
+				+ ThumbnailQueueTable.next_attempt + " <= ? GROUP BY " + ThumbnailQueueTable.url
+				+ ", " + ThumbnailQueueTable.small + " ORDER BY first LIMIT " + (WORKER_COUNT + 1),
+				new String[] { now });
+		Job job = null;
+		try {
+			for (due.moveToFirst(); !due.isAfterLast(); due.moveToNext()) {
+				final Job j = new Job(due.getString(0), due.getInt(1) != 0, due.getInt(3));
+				if (!mInProgress.contains(j.getKey())) {
+					job = j;
+					break;
+				}
+			}
+		} finally {
+			due.close();
+		}
+		if (job == null)
+			return null;
+
+		final Cursor rows = mDb.queryRaw("SELECT " + ThumbnailQueueTable._id + ", "
+				+ ThumbnailQueueTable.book_id + " FROM " + ThumbnailQueueTable.n + " WHERE "
+				+ ThumbnailQueueTable.url + " = ? AND " + ThumbnailQueueTable.small + " = "
+				+ (job.small ? 1 : 0), new String[] { job.url });
+		try {
+			for (rows.moveToFirst(); !rows.isAfterLast(); rows.moveToNext()) {
+				job.rowIds.add(Long.valueOf(rows.getLong(0)));
+				job.bookIds.add(Long.valueOf(rows.getLong(1)));
+			}
+		} finally {
+			rows.close();
+		}
+		mInProgress.add(job.getKey());
+		return job;
+	}
+
+	private void drain() {
+		final HttpTransport transport = new HttpTransport();
+		try {
+			Job job;
+			while ((job = claimJob()) != null) {
+				try {
+					process(job, transport);
+				} finally {
+					synchronized (this) {
+						mInProgress.remove(job.getKey());
+					}
+				}
+			}
+		} catch (final Exception e) {
+			Log.e(TAG, "Exception", e);
+		} finally {
+			synchronized (this) {
+				mActiveWorkers--;
+				if (mActiveWorkers == 0)
+					scheduleWakeUp();
+			}
+		}
+	}
+
+	public int getPendingCount() {
+		final Cursor c = mDb.queryRaw("SELECT COUNT(*) FROM " + ThumbnailQueueTable.n, null);
+		try {
+			return (c.moveToFirst() ? c.getInt(0) : 0);
+		} finally {
+			c.close();
+		}
+	}
+
+	private void process(Job job, HttpTransport transport) throws InterruptedException {
+		final Point targetSize = ThumbnailManager.getThumbnailSize(mContext, job.small);
+		Bitmap image;
+		try {
+			final ThumbnailScheduler.Loader loader = mLoader;
+			if (loader != null)
+				image = loader.load(job.url, targetSize);
+			else
+				image = ImageDownloadTask.loadImage(transport, job.url, targetSize, null);
+		} catch (final Exception e) {
+			image = null;
+		}
+
+		// the store methods only queue the encoding, so wait until it's written
+		// before the job is removed. That way it's queued again if the process
+		// dies in between
+		if (image != null) {
+			for (final Long bookId : job.bookIds) {
+				if (job.small)
+					ThumbnailManager.storeThumbnail(mContext, bookId.longValue(), image, true);
+				else
+					ThumbnailManager.storeLargeThumbnail(mContext, bookId.longValue(), image,
+							false);
+			}
+			ThumbnailManager.waitForPendingWrites();
+		}
+
+		final int attempts = job.attempts + 1;
+		final String where = ThumbnailQueueTable._id + " IN (" + TextUtils.join(", ", job.rowIds)
+				+ ")";
+		try {
+			final int t = mDb.beginTransaction();
+			if (image != null || attempts >= MAX_ATTEMPTS) {
+				if (image == null)
+					Log.w(TAG, "Giving up on " + job.url);
+				mDb.delete(t, ThumbnailQueueTable.n, where, null);
+			} else {
+				final long nextAttempt = System.currentTimeMillis() + getBackoff(attempts);
+				mDb.update(t, ThumbnailQueueTable.n, QueryBuilder.values()
+						.put(ThumbnailQueueTable.attempts, Integer.valueOf(attempts))
+						.put(ThumbnailQueueTable.next_attempt, Long.valueOf(nextAttempt)).end(),
+						where);
+			}
+			mDb.setTransactionSuccessful(t);
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	/**
+	 * Starts workers again when the first failed download is due for
+	 * another attempt. Called when the last worker stops.
+	 */
+	private void scheduleWakeUp() {
+		if (mWakeUp != null)
+			mWakeUp.cancel(false);
+		mWakeUp = null;
+
+		final Cursor c = mDb.queryRaw("SELECT MIN(" + ThumbnailQueueTable.next_attempt + ") FROM "
+				+ ThumbnailQueueTable.n, null);
+		try {
+			if (!c.moveToFirst() || c.isNull(0))
+				return;
+			final long delay = Math.max(0, c.getLong(0) - System.currentTimeMillis());
+			mWakeUp = mExecutor.schedule(mStart, delay, TimeUnit.MILLISECONDS);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Replaces how images are loaded, used to stub out the network in tests.
+	 * Pass null to restore the default.
+	 */
+	public void setLoader(ThumbnailScheduler.Loader loader) {
+		mLoader = loader;
+	}
+
+	/**
+	 * Starts downloading queued thumbnails that are due, e.g. queued by an
+	 * earlier process.
+	 */
+	public synchronized void start() {
+		while (mActiveWorkers < WORKER_COUNT) {
+			mActiveWorkers++;
+			mExecutor.execute(mDrain);
+		}
+	}
+}
@@ -16,26 +16,33 @@
 
 package com.wigwamlabs.booksapp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
 import android.graphics.Point;
-import android.os.FileObserver;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.view.Display;
 import android.view.WindowManager;
 
 import com.wigwamlabs.booksapp.ImageDownloadTask.Callback;
+import com.wigwamlabs.util.BitmapPool;
 import com.wigwamlabs.util.BitmapUtils;
-import com.wigwamlabs.util.WeakListIterator;
 
 public class ThumbnailManager {
 	private static class DownloadAndStoreThumbnailTask implements Callback {
@@ -70,92 +77,173 @@ public class ThumbnailManager {
 		}
 	}
 	public interface Observer {
-		public void onThumbnailChanged(long bookId, boolean small, File file);
+		/**
+		 * Called on the main thread, at most once per frame, with all
+		 * thumbnails that were stored or deleted since the last call.
+		 */
+		public void onThumbnailsChanged(ThumbnailChangeBus.Changes changes);
 	}
 
-	private static FileObserver mFileObserver;
-	private static List<WeakReference<Observer>> mObservers = new ArrayList<WeakReference<Observer>>();
+	public static final int DEFAULT_QUALITY = 85;
+	private static Context mAppContext;
+	private static final ThumbnailChangeBus mChangeBus = new ThumbnailChangeBus(new Handler(
+			Looper.getMainLooper()));
+	private static ExecutorService mEncodeExecutor;
+	private static volatile CompressFormat mFormat = CompressFormat.JPEG;
+	private static volatile int mQuality = DEFAULT_QUALITY;
+	private static ThumbnailStore mSmallThumbnailStore;
+	private static File mThumbnailDir;
+	private static final String SMALL_THUMBNAIL_STORE = "small.pack";
+	/* package */static final String STORE_PROTOCOL = "thumbnailstore:";
+	// the file names are kept even if the thumbnails are no longer PNGs,
+	// BitmapFactory doesn't care
 	/* package */static final String SUFFIX_LARGE = "_l.png";
 	/* package */static final String SUFFIX_SMALL = "_s.png";
 	private static final String THUMBNAIL_DIR = "thumbnails";
 
 	public static void addThumbnailObserver(Context context, WeakReference<Observer> observer) {
-		final List<WeakReference<Observer>> observers = mObservers;
-		if (mFileObserver == null) {
-			final Handler handler = new Handler();
-			final File pathToObserve = getThumbnailDir(context);
-			final int mask = FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_TO
-					| FileObserver.MOVED_FROM;
-			mFileObserver = new FileObserver(pathToObserve.getPath(), mask) {
-				@Override
-				public void onEvent(int event, final String path) {
-					final boolean small;
-					final String idString;
-					if (path.endsWith(SUFFIX_SMALL)) {
-						small = true;
-						idString = path.subSequence(0, path.length() - SUFFIX_SMALL.length())
-								.toString();
-					} else if (path.endsWith(SUFFIX_LARGE)) {
-						small = false;
-						idString = path.subSequence(0, path.length() - SUFFIX_LARGE.length())
-								.toString();
-					} else
-						return;
+		mChangeBus.addObserver(observer);
+	}
+
+	public static void deleteAll(Context context) {
+		final File dir = getThumbnailDir(context);
+		// after the pending writes, which would otherwise reopen the store
+		getEncodeExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ThumbnailManager.class) {
+					if (mSmallThumbnailStore != null) {
+						mSmallThumbnailStore.close();
+						mSmallThumbnailStore = null;
+					}
+					mThumbnailDir = null;
+					final File[] thumbnails = dir.listFiles();
+					if (thumbnails != null) {
+						for (final File thumbnail : thumbnails) {
+							thumbnail.delete();
+						}
+					}
+					dir.delete();
+				}
+			}
+		});
+	}
 
-					long id = -1;
+	public static void deleteThumbnails(Context context, final long bookId) {
+		final File largeThumbnail = getThumbnail(context, bookId, false);
+		// on the encode thread so that pending writes don't bring them back
+		getEncodeExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				final ThumbnailStore store = getSmallThumbnailStore();
+				if (store != null && store.contains(bookId)) {
 					try {
-						id = Long.parseLong(idString);
-					} catch (final Exception e) {
-						// do nothing
+						store.remove(bookId);
+						mChangeBus.publish(bookId, true, getSmallThumbnailUrl(bookId));
+					} catch (final IOException e) {
+						e.printStackTrace();
 					}
-					final long bookId = id;
+				}
+				if (largeThumbnail.exists()) {
+					largeThumbnail.delete();
+					mChangeBus.publish(bookId, false, largeThumbnail.toURI().toString());
+				}
+			}
+		});
+	}
 
-					// occurs in file observer thread, post to main
-					handler.post(new Runnable() {
+	/**
+	 * Returns the format of an encoded image, or null if unknown.
+	 */
+	/* package */static CompressFormat detectFormat(byte[] header) {
+		if (header.length < 12)
+			return null;
+		if (header[0] == (byte) 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G')
+			return CompressFormat.PNG;
+		if (header[0] == (byte) 0xff && header[1] == (byte) 0xd8)
+			return CompressFormat.JPEG;
+		if (header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+				&& header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P')
+			return BitmapUtils.getWebpFormat();
+		return null;
+	}
+
+	private static CompressFormat detectFormat(File file) {
+		final byte[] header = new byte[12];
+		try {
+			final FileInputStream in = new FileInputStream(file);
+			try {
+				if (in.read(header) < header.length)
+					return null;
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+		return detectFormat(header);
+	}
+
+	private static synchronized ExecutorService getEncodeExecutor() {
+		if (mEncodeExecutor == null) {
+			mEncodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
 						@Override
 						public void run() {
-							for (final Observer o : WeakListIterator.from(observers)) {
-								o.onThumbnailChanged(bookId, small, new File(pathToObserve, path));
-							}
-							if (observers.size() == 0)
-								stopWatching();
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
 						}
-					});
+					}, "ThumbnailEncoder");
+					thread.setDaemon(true);
+					return thread;
 				}
-			};
+			});
 		}
-
-		observers.add(observer);
-		mFileObserver.startWatching();
+		return mEncodeExecutor;
 	}
 
-	public static void deleteAll(Context context) {
-		final File dir = getThumbnailDir(context);
-		for (final File thumbnail : dir.listFiles()) {
-			thumbnail.delete();
+	/**
+	 * Opens the store of small thumbnails the first time, so it should only be
+	 * called in the background. Returns null if it can't be opened.
+	 */
+	private static synchronized ThumbnailStore getSmallThumbnailStore() {
+		if (mSmallThumbnailStore == null) {
+			if (mAppContext == null)
+				throw new IllegalStateException("ThumbnailManager.init() hasn't been called");
+			try {
+				mSmallThumbnailStore = new ThumbnailStore(new File(getThumbnailDir(mAppContext),
+						SMALL_THUMBNAIL_STORE));
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
 		}
-		dir.delete();
+		return mSmallThumbnailStore;
 	}
 
-	public static void deleteThumbnails(Context context, long bookId) {
-		final File smallThumbnail = getThumbnail(context, bookId, true);
-		if (smallThumbnail.exists()) {
-			smallThumbnail.delete();
-		}
-
-		final File largeThumbnail = getThumbnail(context, bookId, false);
-		if (largeThumbnail.exists()) {
-			largeThumbnail.delete();
-		}
+	/**
+	 * Returns the url for a small thumbnail, to be used with
+	 * {@link ImageDownloadCollection#attachUrl}.
+	 */
+	public static String getSmallThumbnailUrl(long bookId) {
+		return STORE_PROTOCOL + bookId;
 	}
 
+	/**
+	 * Returns the file of a large thumbnail. Small thumbnails are only stored
+	 * in a file like this by earlier versions.
+	 */
 	public static File getThumbnail(Context context, long bookId, boolean small) {
 		return new File(getThumbnailDir(context), bookId + (small ? SUFFIX_SMALL : SUFFIX_LARGE));
 	}
 
-	private static File getThumbnailDir(Context context) {
-		// getDir() creates dir if not exists
-		return context.getDir(THUMBNAIL_DIR, Context.MODE_PRIVATE);
+	private static synchronized File getThumbnailDir(Context context) {
+		if (mThumbnailDir == null) {
+			// getDir() creates dir if not exists
+			mThumbnailDir = context.getDir(THUMBNAIL_DIR, Context.MODE_PRIVATE);
+		}
+		return mThumbnailDir;
 	}
 
 	public static Point getThumbnailSize(Context context, boolean small) {
@@ -170,13 +258,145 @@ public class ThumbnailManager {
 		return new Point(display.getWidth(), display.getHeight());
 	}
 
-	public static void removeThumbnailObserver(Observer observer) {
-		final Iterator<WeakReference<Observer>> it = mObservers.iterator();
-		while (it.hasNext()) {
-			final WeakReference<Observer> o = it.next();
-			if (o.get() == observer)
-				it.remove();
+	public static String getThumbnailUrl(Context context, long bookId, boolean small) {
+		if (small)
+			return getSmallThumbnailUrl(bookId);
+		return getThumbnail(context, bookId, false).toURI().toString();
+	}
+
+	/**
+	 * Blocks the first time small thumbnails are accessed, so it should only
+	 * be called in the background.
+	 */
+	public static boolean hasThumbnail(Context context, long bookId, boolean small) {
+		if (!small)
+			return getThumbnail(context, bookId, false).exists();
+		final ThumbnailStore store = getSmallThumbnailStore();
+		return store != null && store.contains(bookId);
+	}
+
+	/**
+	 * Must be called before any thumbnails are loaded or stored, e.g. when the
+	 * application is created.
+	 */
+	public static synchronized void init(Context context) {
+		mAppContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Loads a small thumbnail by the url from
+	 * {@link #getSmallThumbnailUrl(long)}. Blocks, so must not be called on
+	 * the main thread.
+	 */
+	/* package */static Bitmap loadSmallThumbnail(String url, BitmapPool pool) {
+		final long bookId;
+		try {
+			bookId = Long.parseLong(url.substring(STORE_PROTOCOL.length()));
+		} catch (final NumberFormatException e) {
+			return null;
 		}
+		final ThumbnailStore store = getSmallThumbnailStore();
+		if (store == null)
+			return null;
+		final ByteBuffer data;
+		try {
+			data = store.get(bookId);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		if (data == null)
+			return null;
+		return BitmapUtils.decodeByteBuffer(data, pool);
+	}
+
+	/**
+	 * Re-encodes thumbnails that were stored in another format than the
+	 * current one, e.g. PNGs from older versions, and moves small thumbnails
+	 * into the store. Runs in the background.
+	 */
+	public static void migrateThumbnails(Context context) {
+		final File dir = getThumbnailDir(context);
+		getEncodeExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				final File[] files = dir.listFiles();
+				if (files == null)
+					return;
+				final CompressFormat format = mFormat;
+				final int quality = mQuality;
+				for (final File file : files) {
+					final String name = file.getName();
+					if (name.endsWith(SUFFIX_SMALL)) {
+						moveToSmallThumbnailStore(file, format, quality);
+						continue;
+					}
+					if (!name.endsWith(SUFFIX_LARGE))
+						continue;
+					final CompressFormat oldFormat = detectFormat(file);
+					if (oldFormat == null || oldFormat == format)
+						continue;
+					final Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+					if (thumbnail == null)
+						continue;
+					writeThumbnail(file, thumbnail, format, quality);
+					thumbnail.recycle();
+				}
+			}
+		});
+	}
+
+	private static void moveToSmallThumbnailStore(File file, CompressFormat format, int quality) {
+		final ThumbnailStore store = getSmallThumbnailStore();
+		if (store == null)
+			return;
+		final String name = file.getName();
+		final long bookId;
+		try {
+			bookId = Long.parseLong(name.substring(0, name.length() - SUFFIX_SMALL.length()));
+		} catch (final NumberFormatException e) {
+			return;
+		}
+
+		if (!store.contains(bookId)) {
+			try {
+				final byte[] data = readFile(file);
+				if (detectFormat(data) == format) {
+					store.put(bookId, data, data.length);
+				} else {
+					final Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+					if (thumbnail == null)
+						return;
+					writeSmallThumbnail(store, bookId, thumbnail, format, quality);
+					thumbnail.recycle();
+				}
+			} catch (final IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		file.delete();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		final byte[] data = new byte[(int) file.length()];
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			while (offset < data.length) {
+				final int count = in.read(data, offset, data.length - offset);
+				if (count < 0)
+					throw new IOException("Unexpected end of " + file);
+				offset += count;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	public static void removeThumbnailObserver(Observer observer) {
+		mChangeBus.removeObserver(observer);
 	}
 
 	public static void save(Context context, long bookId, Bitmap smallThumbnail,
@@ -194,35 +414,112 @@ public class ThumbnailManager {
 		}
 	}
 
-	public static void storeLargeThumbnail(Context context, long bookId, Bitmap thumbnail,
-			boolean forceCreateSmall) {
-		storeThumbnail(context, bookId, thumbnail, false);
+	/**
+	 * Sets how thumbnails are encoded when stored. Covers are photos, so JPEG
+	 * (the default) or WebP (see {@link BitmapUtils#getWebpFormat()}) are
+	 * much smaller and faster than PNG. Existing thumbnails are converted by
+	 * {@link #migrateThumbnails(Context)}.
+	 */
+	public static void setThumbnailFormat(CompressFormat format, int quality) {
+		mFormat = format;
+		mQuality = quality;
+	}
+
+	/**
+	 * Stores the thumbnail in the background, and creates a small one from it
+	 * if there is none or forceCreateSmall is set.
+	 */
+	public static void storeLargeThumbnail(Context context, final long bookId,
+			final Bitmap thumbnail, final boolean forceCreateSmall) {
+		final File largeFile = getThumbnail(context, bookId, false);
+		final Point size = getThumbnailSize(context, true);
+		final CompressFormat format = mFormat;
+		final int quality = mQuality;
+		getEncodeExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (writeThumbnail(largeFile, thumbnail, format, quality))
+					mChangeBus.publish(bookId, false, largeFile.toURI().toString());
 
-		final boolean createSmall;
-		if (forceCreateSmall)
-			createSmall = true;
-		else {
-			final File f = getThumbnail(context, bookId, true);
-			createSmall = (!f.exists());
+				final ThumbnailStore store = getSmallThumbnailStore();
+				if (store != null && (forceCreateSmall || !store.contains(bookId))) {
+					final Bitmap smallThumbnail = BitmapUtils.createScaledBitmap(thumbnail,
+							size.x, size.y, false);
+					writeSmallThumbnail(store, bookId, smallThumbnail, format, quality);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stores the thumbnail in the background. The bitmap must not be recycled
+	 * or modified afterwards.
+	 */
+	/* package */static void storeThumbnail(Context context, final long bookId,
+			final Bitmap thumbnail, final boolean small) {
+		final File file = getThumbnail(context, bookId, small);
+		final CompressFormat format = mFormat;
+		final int quality = mQuality;
+		getEncodeExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (small) {
+					final ThumbnailStore store = getSmallThumbnailStore();
+					if (store != null)
+						writeSmallThumbnail(store, bookId, thumbnail, format, quality);
+				} else if (writeThumbnail(file, thumbnail, format, quality)) {
+					mChangeBus.publish(bookId, false, file.toURI().toString());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Blocks until all thumbnails passed to the store methods so far are
+	 * written.
+	 */
+	public static void waitForPendingWrites() throws InterruptedException {
+		try {
+			getEncodeExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get();
+		} catch (final ExecutionException e) {
+			// can't happen, the task does nothing
 		}
+	}
 
-		if (createSmall) {
-			final Point size = getThumbnailSize(context, true);
-			final Bitmap smallThumbnail = BitmapUtils.createScaledBitmap(thumbnail, size.x, size.y,
-					false);
-			storeThumbnail(context, bookId, smallThumbnail, true);
+	private static void writeSmallThumbnail(ThumbnailStore store, long bookId, Bitmap thumbnail,
+			CompressFormat format, int quality) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		thumbnail.compress(format, quality, out);
+		try {
+			store.put(bookId, out.toByteArray(), out.size());
+			mChangeBus.publish(bookId, true, getSmallThumbnailUrl(bookId));
+		} catch (final IOException e) {
+			e.printStackTrace();
 		}
 	}
 
-	/* package */static void storeThumbnail(Context context, long bookId, Bitmap thumbnail,
-			boolean small) {
+	/* package */static boolean writeThumbnail(File file, Bitmap thumbnail,
+			CompressFormat format, int quality) {
+		// write to a temporary file and rename it so that the thumbnail is
+		// never seen half written
+		final File tmpFile = new File(file.getPath() + ".tmp");
 		try {
-			final File f = getThumbnail(context, bookId, small);
-			final FileOutputStream out = new FileOutputStream(f);
-			thumbnail.compress(CompressFormat.PNG, 100, out);
-			out.close();
+			final FileOutputStream out = new FileOutputStream(tmpFile);
+			try {
+				thumbnail.compress(format, quality, out);
+			} finally {
+				out.close();
+			}
+			if (tmpFile.renameTo(file))
+				return true;
 		} catch (final Exception e) {
 			e.printStackTrace();
 		}
+		tmpFile.delete();
+		return false;
 	}
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.google.api.client.http.HttpTransport;
+
+/**
+ * Loads thumbnails on a small pool of worker threads. Requests for visible
+ * image views are served before prefetch requests, and the most recently
+ * requested visible thumbnail is loaded first since that's most likely still
+ * on screen after a fast scroll. Results are delivered on the main thread.
+ */
+public class ThumbnailScheduler {
+	public interface Loader {
+		Bitmap load(String url, Point targetSize);
+	}
+
+	public static final class Request implements Comparable<Request> {
+		private final ThumbnailCache mCache;
+		private final WeakReference<ImageDownloadTask.Callback> mCallback;
+		/* package */volatile boolean mCancelled;
+		/* package */int mPriority;
+		/* package */long mSequence;
+		private final Point mTargetSize;
+		/**
+		 * Whether the thumbnail should be loaded even if no image view is
+		 * waiting for it.
+		 */
+		public boolean prefetch;
+		public final CharSequence url;
+
+		/* package */Request(CharSequence url, Point targetSize, ThumbnailCache cache,
+				int priority, long sequence, WeakReference<ImageDownloadTask.Callback> callback) {
+			this.url = url;
+			mTargetSize = targetSize;
+			mCache = cache;
+			mPriority = priority;
+			mSequence = sequence;
+			mCallback = callback;
+		}
+
+		@Override
+		public int compareTo(Request other) {
+			if (mPriority != other.mPriority)
+				return (mPriority < other.mPriority ? -1 : 1);
+			if (mSequence == other.mSequence)
+				return 0;
+			// newest first for visible thumbnails, list order for prefetching
+			final boolean newestFirst = (mPriority == PRIORITY_VISIBLE);
+			return ((mSequence > other.mSequence) == newestFirst ? -1 : 1);
+		}
+
+		public int getPriority() {
+			return mPriority;
+		}
+
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+	}
+
+	private static class WorkerThread extends Thread {
+		private final ThumbnailScheduler mScheduler;
+
+		public WorkerThread(ThumbnailScheduler scheduler, int index) {
+			super("ThumbnailScheduler-" + index);
+			mScheduler = scheduler;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			final HttpTransport transport = new HttpTransport();
+			while (true) {
+				final Request request;
+				try {
+					request = mScheduler.mQueue.take();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				mScheduler.execute(request, transport);
+			}
+		}
+	}
+
+	private static ThumbnailScheduler INSTANCE;
+	public static final int PRIORITY_PREFETCH = 1;
+	public static final int PRIORITY_VISIBLE = 0;
+	private static final int WORKER_COUNT = 3;
+
+	public static synchronized ThumbnailScheduler getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new ThumbnailScheduler(WORKER_COUNT);
+		return INSTANCE;
+	}
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/* package */volatile Loader mLoader;
+	/* package */final PriorityBlockingQueue<Request> mQueue = new PriorityBlockingQueue<Request>();
+	private final AtomicLong mSequence = new AtomicLong();
+
+	private ThumbnailScheduler(int workerCount) {
+		for (int i = 0; i < workerCount; i++) {
+			new WorkerThread(this, i).start();
+		}
+	}
+
+	public void cancel(Request request) {
+		request.mCancelled = true;
+		mQueue.remove(request);
+	}
+
+	private void deliver(final Request request, final Bitmap image) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (request.mCancelled)
+					return;
+				final ImageDownloadTask.Callback callback = request.mCallback.get();
+				if (callback != null)
+					callback.onImageDownloaded(request.url, image);
+			}
+		});
+	}
+
+	/* package */void execute(Request request, HttpTransport transport) {
+		if (request.mCancelled || request.mCallback.get() == null)
+			return;
+
+		final ThumbnailCache cache = request.mCache;
+		final String url = request.url.toString();
+		Bitmap image;
+		try {
+			image = cache.loadFromDisk(url);
+			if (image == null) {
+				final Loader loader = mLoader;
+				if (loader != null)
+					image = loader.load(url, request.mTargetSize);
+				else
+					image = ImageDownloadTask.loadImage(transport, url, request.mTargetSize,
+							cache.getPool());
+				cache.storeOnDisk(url, image);
+			}
+		} catch (final Exception e) {
+			image = null;
+		}
+		deliver(request, image);
+	}
+
+	/**
+	 * The image is looked for in the second level of the cache before it's
+	 * loaded, and then stored there.
+	 */
+	public Request schedule(CharSequence url, Point targetSize, ThumbnailCache cache,
+			int priority, WeakReference<ImageDownloadTask.Callback> callback) {
+		final Request request = new Request(url, targetSize, cache, priority,
+				mSequence.incrementAndGet(), callback);
+		mQueue.add(request);
+		return request;
+	}
+
+	/**
+	 * Replaces how images are loaded, used to stub out the network in tests.
+	 * Pass null to restore the default.
+	 */
+	public void setLoader(Loader loader) {
+		mLoader = loader;
+	}
+
+	public void setPriority(Request request, int priority) {
+		// the queue doesn't reorder items in place
+		if (mQueue.remove(request)) {
+			request.mPriority = priority;
+			request.mSequence = mSequence.incrementAndGet();
+			mQueue.add(request);
+		} else {
+			request.mPriority = priority;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Packs many small encoded images into a single file, instead of having one
+ * file per book. The file is a header followed by records of (book id,
+ * length, data), where a negative length marks a removed image. Records are
+ * only appended; the index from book id to record is built by scanning the
+ * file when it's opened, and the file is compacted when most of it is
+ * garbage. Reads return slices of a memory mapping of the file, so nothing
+ * is copied to the heap. The file is only mapped again when something
+ * beyond the current mapping is read, not after every write. Thread safe.
+ */
+public class ThumbnailStore {
+	private static final int COMPACT_MIN_BYTES = 1024 * 1024;
+	private static final int HEADER_SIZE = 8;
+	private static final int MAGIC = 0x424b5453; // "BKTS"
+	private static final int RECORD_HEADER_SIZE = 12;
+	private static final int REMOVED = -1;
+	private static final String TAG = ThumbnailStore.class.getSimpleName();
+	private static final int VERSION = 1;
+
+	private static int length(long record) {
+		return (int) record;
+	}
+
+	private static int offset(long record) {
+		return (int) (record >>> 32);
+	}
+
+	private static RandomAccessFile openFile(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		if (raf.length() < HEADER_SIZE) {
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+		} else if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+			Log.w(TAG, "Unknown format, starting over: " + file);
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+		}
+		return raf;
+	}
+
+	private MappedByteBuffer mBuffer;
+	private FileChannel mChannel;
+	private long mDeadBytes;
+	private final File mFile;
+	private RandomAccessFile mRandomAccessFile;
+	// book id -> offset of data << 32 | length of data
+	private final HashMap<Long, Long> mRecords = new HashMap<Long, Long>();
+
+	public ThumbnailStore(File file) throws IOException {
+		mFile = file;
+		open();
+	}
+
+	private void append(long bookId, byte[] data, int length) throws IOException {
+		final int offset = (int) mChannel.size();
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		header.putLong(bookId);
+		header.putInt(length);
+		header.flip();
+		mChannel.write(header, offset);
+		if (length > 0)
+			mChannel.write(ByteBuffer.wrap(data, 0, length), offset + RECORD_HEADER_SIZE);
+
+		index(bookId, offset + RECORD_HEADER_SIZE, length);
+	}
+
+	public synchronized void close() {
+		try {
+			mRandomAccessFile.close();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		mRecords.clear();
+		mBuffer = null;
+	}
+
+	private void compactIfNeeded() throws IOException {
+		final long size = mChannel.size();
+		if (size < COMPACT_MIN_BYTES || mDeadBytes < size / 2)
+			return;
+
+		ensureMapped(size);
+		final File tmpFile = new File(mFile.getPath() + ".tmp");
+		final RandomAccessFile out = openFile(tmpFile);
+		try {
+			out.setLength(HEADER_SIZE);
+			final FileChannel outChannel = out.getChannel();
+			long outOffset = HEADER_SIZE;
+			for (final Map.Entry<Long, Long> entry : mRecords.entrySet()) {
+				final long record = entry.getValue().longValue();
+				final int offset = offset(record) - RECORD_HEADER_SIZE;
+				final int length = RECORD_HEADER_SIZE + length(record);
+				final ByteBuffer src = mBuffer.duplicate();
+				src.position(offset);
+				src.limit(offset + length);
+				outChannel.write(src, outOffset);
+				outOffset += length;
+			}
+		} finally {
+			out.close();
+		}
+
+		mRandomAccessFile.close();
+		if (!tmpFile.renameTo(mFile))
+			tmpFile.delete();
+		open();
+	}
+
+	public synchronized boolean contains(long bookId) {
+		return mRecords.containsKey(Long.valueOf(bookId));
+	}
+
+	private void ensureMapped(long end) throws IOException {
+		if (mBuffer.limit() < end)
+			remap();
+	}
+
+	/**
+	 * Returns a read only view of the image, or null if there is none. The
+	 * view stays valid even if the image is replaced or the store compacted.
+	 */
+	public synchronized ByteBuffer get(long bookId) throws IOException {
+		final Long record = mRecords.get(Long.valueOf(bookId));
+		if (record == null)
+			return null;
+
+		final int start = offset(record.longValue());
+		final int end = start + length(record.longValue());
+		ensureMapped(end);
+		final ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(start);
+		buffer.limit(end);
+		return buffer.slice();
+	}
+
+	public synchronized int getCount() {
+		return mRecords.size();
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	private void index(long bookId, int dataOffset, int length) {
+		final Long key = Long.valueOf(bookId);
+		final Long old = (length >= 0 ? mRecords.put(key, Long.valueOf((long) dataOffset << 32
+				| length)) : mRecords.remove(key));
+		if (old != null)
+			mDeadBytes += RECORD_HEADER_SIZE + length(old.longValue());
+		if (length < 0)
+			mDeadBytes += RECORD_HEADER_SIZE;
+	}
+
+	private void open() throws IOException {
+		mRandomAccessFile = openFile(mFile);
+		mChannel = mRandomAccessFile.getChannel();
+		mRecords.clear();
+		mDeadBytes = 0;
+		remap();
+
+		// build index, stop at a partially written record
+		final int size = mBuffer.limit();
+		int offset = HEADER_SIZE;
+		while (offset + RECORD_HEADER_SIZE <= size) {
+			final long bookId = mBuffer.getLong(offset);
+			final int length = mBuffer.getInt(offset + 8); // after the book id
+			final int next = offset + RECORD_HEADER_SIZE + Math.max(length, 0);
+			if (next > size)
+				break;
+
+			index(bookId, offset + RECORD_HEADER_SIZE, length);
+			offset = next;
+		}
+		if (offset != size) {
+			Log.w(TAG, "Truncating " + (size - offset) + " bytes of partial record");
+			mChannel.truncate(offset);
+			remap();
+		}
+	}
+
+	public synchronized void put(long bookId, byte[] data, int length) throws IOException {
+		append(bookId, data, length);
+		compactIfNeeded();
+	}
+
+	public synchronized void remove(long bookId) throws IOException {
+		if (!mRecords.containsKey(Long.valueOf(bookId)))
+			return;
+		append(bookId, null, REMOVED);
+		compactIfNeeded();
+	}
+
+	private void remap() throws IOException {
+		// the old mapping stays valid for slices that are still read
+		mBuffer = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mChannel.size());
+	}
+}
@@ -27,8 +27,8 @@ public class AuthorActions {
 			BookAuthorsTable.author_id);
 
 	public static void updateAuthors(DatabaseAdapter db, int t, long bookId, List<String> creators,
-			boolean checkExistingAuthors) {
+			boolean checkExistingAuthors, GroupNameCache cache) {
 		ACTIONS.updateItems(db, t, bookId, creators, checkExistingAuthors, true,
-				CursorType.AUTHOR_LIST);
+				CursorType.AUTHOR_LIST, cache);
 	}
 }
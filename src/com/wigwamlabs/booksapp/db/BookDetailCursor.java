@@ -34,6 +34,7 @@ import android.text.TextUtils;
 
 import com.wigwamlabs.booksapp.db.DatabaseAdapter.CursorType;
 import com.wigwamlabs.util.CollectionUtils;
+import com.wigwamlabs.util.IsbnUtils;
 import com.wigwamlabs.util.StringUtils;
 
 public final class BookDetailCursor extends ExtendedSQLiteCursor {
@@ -105,12 +106,26 @@ public final class BookDetailCursor extends ExtendedSQLiteCursor {
 		final List<String> ids = new ArrayList<String>(3);
 		final StringBuilder where = new StringBuilder();
 
-		if (isbn10 != null) {
+		// valid ISBNs are compared in their canonical form, the others as they
+		// are
+		final Long canonical10 = IsbnUtils.toCanonical(isbn10);
+		final Long canonical13 = IsbnUtils.toCanonical(isbn13);
+		if (canonical10 != null || canonical13 != null) {
+			where.append(BooksTable.isbn).append(" IN (");
+			where.append(canonical10 != null ? canonical10 : canonical13);
+			where.append(", ");
+			where.append(canonical13 != null ? canonical13 : canonical10);
+			where.append(")");
+		}
+
+		if (isbn10 != null && canonical10 == null) {
 			ids.add(isbn10);
+			if (where.length() > 0)
+				where.append(" OR ");
 			where.append(BooksTable.isbn10).append(" = ?");
 		}
 
-		if (isbn13 != null) {
+		if (isbn13 != null && canonical13 == null) {
 			ids.add(isbn13);
 			if (where.length() > 0)
 				where.append(" OR ");
@@ -124,7 +139,7 @@ public final class BookDetailCursor extends ExtendedSQLiteCursor {
 			where.append(BooksTable.google_id).append(" = ?");
 		}
 
-		if (ids.size() == 0)
+		if (where.length() == 0)
 			return null;
 
 		final Cursor c = db.query(BooksTable.n, new String[] { BooksTable._id }, where.toString(),
@@ -21,10 +21,12 @@ import java.util.Date;
 import java.util.List;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 
 import com.wigwamlabs.booksapp.db.DatabaseAdapter.CursorType;
 import com.wigwamlabs.util.CommaStringList;
 import com.wigwamlabs.util.DatabaseUtils;
+import com.wigwamlabs.util.IsbnUtils;
 import com.wigwamlabs.util.StringUtils;
 
 public final class BookEntry {
@@ -34,14 +36,15 @@ public final class BookEntry {
 		try {
 			final int t = db.beginTransaction();
 
-			AuthorActions.updateAuthors(db, t, id, null, true);
-			PublisherActions.updatePublisher(db, t, id, null, true);
-			SubjectActions.updateSubjects(db, t, id, null, true);
+			AuthorActions.updateAuthors(db, t, id, null, true, null);
+			PublisherActions.updatePublisher(db, t, id, null, true, null);
+			SubjectActions.updateSubjects(db, t, id, null, true, null);
 			CollectionActions.removeAllCollections(db, t, id);
 			LoanActions.removeLoansForBook(db, t, id);
 
 			db.delete(t, BooksTable.n, BooksTable._id + " = " + id, null);
 			db.delete(t, BookFieldsTable.n, BookFieldsTable.rowid + " = " + id, null);
+			db.delete(t, ThumbnailQueueTable.n, ThumbnailQueueTable.book_id + " = " + id, null);
 
 			db.setTransactionSuccessful(t);
 		} finally {
@@ -59,6 +62,14 @@ public final class BookEntry {
 	private List<String> mSubjects;
 
 	public long executeInsert(DatabaseAdapter db, int t) {
+		return executeInsert(db, t, null);
+	}
+
+	/**
+	 * Pass the same cache when inserting many books in one transaction.
+	 */
+	public long executeInsert(DatabaseAdapter db, int t, GroupNameCache cache) {
+		putCanonicalIsbn(db, -1);
 		// TODO handle exception
 		final long id = db.insertOrThrow(t, BooksTable.n, mBooksValues);
 		if (id >= 0) {
@@ -66,7 +77,7 @@ public final class BookEntry {
 			final long fieldId = db.insertOrThrow(t, BookFieldsTable.n, mBookFieldsValues);
 			assert (fieldId == id);
 
-			updateGroups(db, t, id, false);
+			updateGroups(db, t, id, false, cache);
 		}
 
 		db.requeryCursors(CursorType.BOOK_LIST);
@@ -87,12 +98,13 @@ public final class BookEntry {
 
 	public void executeUpdate(DatabaseAdapter db, int t, long id) {
 		boolean detailHasChanged = false;
+		putCanonicalIsbn(db, id);
 		if (mBooksValues.size() > 0) {
 			final int n = db.update(t, BooksTable.n, mBooksValues, BooksTable._id + "=" + id);
 			assert (n == 1);
 			detailHasChanged = true;
 
-			updateGroups(db, t, id, true);
+			updateGroups(db, t, id, true, null);
 		}
 		if (mBookFieldsValues.size() > 0) {
 			final int n = db.update(t, BookFieldsTable.n, mBookFieldsValues, BookFieldsTable.rowid
@@ -127,6 +139,35 @@ public final class BookEntry {
 		}
 	}
 
+	/**
+	 * Keeps the isbn column in sync with isbn10 and isbn13. When updating a
+	 * book, the one of them that isn't set is read from the book.
+	 */
+	private void putCanonicalIsbn(DatabaseAdapter db, long id) {
+		final boolean hasIsbn10 = mBooksValues.containsKey(BooksTable.isbn10);
+		final boolean hasIsbn13 = mBooksValues.containsKey(BooksTable.isbn13);
+		if (!hasIsbn10 && !hasIsbn13)
+			return;
+
+		String isbn10 = mBooksValues.getAsString(BooksTable.isbn10);
+		String isbn13 = mBooksValues.getAsString(BooksTable.isbn13);
+		if (id >= 0 && !(hasIsbn10 && hasIsbn13)) {
+			final Cursor c = db.query(BooksTable.n, new String[] { BooksTable.isbn10,
+					BooksTable.isbn13 }, BooksTable._id + "=" + id, null, null, null, null, null);
+			try {
+				if (c.moveToFirst()) {
+					if (!hasIsbn10)
+						isbn10 = c.getString(0);
+					if (!hasIsbn13)
+						isbn13 = c.getString(1);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		mBooksValues.put(BooksTable.isbn, IsbnUtils.toCanonical(isbn13, isbn10));
+	}
+
 	public void setCollections(List<String> value) {
 		mCollections = value;
 	}
@@ -162,6 +203,15 @@ public final class BookEntry {
 		mBooksValues.put(BooksTable.isbn13, value);
 	}
 
+	/**
+	 * Sets both ISBNs, a null clears it. Use {@link #setIsbn10(String)} or
+	 * {@link #setIsbn13(String)} to leave the other one as it is.
+	 */
+	public void setIsbns(String isbn10, String isbn13) {
+		setIsbn10(isbn10);
+		setIsbn13(isbn13);
+	}
+
 	public void setLoanId(Long value) {
 		mBooksValues.put(BooksTable.loan_id, value);
 	}
@@ -213,23 +263,24 @@ public final class BookEntry {
 		mBookFieldsValues.put(BookFieldsTable.fulltitle, fulltitle);
 	}
 
-	private void updateGroups(DatabaseAdapter db, int t, final long id, boolean isUpdate) {
+	private void updateGroups(DatabaseAdapter db, int t, final long id, boolean isUpdate,
+			GroupNameCache cache) {
 		if (mBooksValues.containsKey(BooksTable.creators)) {
-			AuthorActions.updateAuthors(db, t, id, mCreators, isUpdate);
+			AuthorActions.updateAuthors(db, t, id, mCreators, isUpdate, cache);
 		}
 		if (mBooksValues.containsKey(BooksTable.series)) {
 			SeriesActions.updateSeries(db, t, id, mBooksValues.getAsString(BooksTable.series),
-					mBooksValues.getAsInteger(BooksTable.volume), isUpdate);
+					mBooksValues.getAsInteger(BooksTable.volume), isUpdate, cache);
 		}
 		if (mBooksValues.containsKey(BooksTable.publisher)) {
 			PublisherActions.updatePublisher(db, t, id,
-					mBooksValues.getAsString(BooksTable.publisher), isUpdate);
+					mBooksValues.getAsString(BooksTable.publisher), isUpdate, cache);
 		}
 		if (mBooksValues.containsKey(BooksTable.subjects)) {
-			SubjectActions.updateSubjects(db, t, id, mSubjects, isUpdate);
+			SubjectActions.updateSubjects(db, t, id, mSubjects, isUpdate, cache);
 		}
 		if (mCollections != COLLECTIONS_NOT_SET) {
-			CollectionActions.updateCollections(db, t, id, mCollections, isUpdate);
+			CollectionActions.updateCollections(db, t, id, mCollections, isUpdate, cache);
 		}
 	}
 }
\ No newline at end of file
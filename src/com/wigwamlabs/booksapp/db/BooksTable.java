@@ -16,9 +16,12 @@
 
 package com.wigwamlabs.booksapp.db;
 
+import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.wigwamlabs.booksapp.db.QueryBuilder.CreateQueryBuilder;
+import com.wigwamlabs.util.IsbnUtils;
 
 public final class BooksTable {
 	public static final String _id = "_id";
@@ -26,6 +29,8 @@ public final class BooksTable {
 	public static final String creators = "creators";
 	public static final String dimensions = "dimensions";
 	public static final String google_id = "google_id";
+	// ISBN-13 as an integer, see IsbnUtils
+	public static final String isbn = "isbn";
 	public static final String isbn10 = "isbn10";
 	public static final String isbn13 = "isbn13";
 	public static final String loan_id = "loan_id";
@@ -65,13 +70,30 @@ public final class BooksTable {
 		// version 2
 		t.text(series, null);
 		t.integer(volume, null);
+		// version 4
+		t.integer(isbn, null);
 		t.execute(db);
+		db.execSQL(QueryBuilder.createIndex(n, isbn));
 	}
 
 	public static void drop(SQLiteDatabase db) {
 		db.execSQL(QueryBuilder.drop(n));
 	}
 
+	private static void updateIsbns(SQLiteDatabase db) {
+		final Cursor c = db.query(n, new String[] { _id, isbn10, isbn13 }, null, null, null,
+				null, null);
+		final ContentValues values = new ContentValues(1);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			final Long canonical = IsbnUtils.toCanonical(c.getString(2), c.getString(1));
+			if (canonical != null) {
+				values.put(isbn, canonical);
+				db.update(n, values, _id + " = " + c.getLong(0), null);
+			}
+		}
+		c.close();
+	}
+
 	public static void upgrade(SQLiteDatabase db, int oldVersion) {
 		switch (oldVersion) {
 		case 1:
@@ -79,6 +101,13 @@ public final class BooksTable {
 			QueryBuilder.alterAddColumn(n, volume).integer(null).execute(db);
 			//$FALL-THROUGH$
 		case 2:
+			//$FALL-THROUGH$
+		case 3:
+			QueryBuilder.alterAddColumn(n, isbn).integer(null).execute(db);
+			db.execSQL(QueryBuilder.createIndex(n, isbn));
+			updateIsbns(db);
+			//$FALL-THROUGH$
+		case 4:
 		}
 	}
 }
\ No newline at end of file
@@ -67,7 +67,7 @@ public class CollectionActions {
 	}
 
 	public static void removeAllCollections(DatabaseAdapter db, int t, long bookId) {
-		ACTIONS.updateItems(db, t, bookId, null, true, false, CursorType.COLLECTION_LIST);
+		ACTIONS.updateItems(db, t, bookId, null, true, false, CursorType.COLLECTION_LIST, null);
 	}
 
 	public static void removeCollection(DatabaseAdapter db, long bookId, long collectionId) {
@@ -93,8 +93,8 @@ public class CollectionActions {
 	}
 
 	public static void updateCollections(DatabaseAdapter db, int t, long bookId,
-			List<String> collections, boolean checkExistingCollections) {
+			List<String> collections, boolean checkExistingCollections, GroupNameCache cache) {
 		ACTIONS.updateItems(db, t, bookId, collections, checkExistingCollections, true,
-				CursorType.COLLECTION_LIST);
+				CursorType.COLLECTION_LIST, cache);
 	}
 }
@@ -122,6 +122,8 @@ public class DatabaseAdapter {
 				// version 2
 				SeriesTable.create(db);
 				BookSeriesTable.create(db);
+				// version 3
+				ThumbnailQueueTable.create(db);
 
 				db.setTransactionSuccessful();
 			} finally {
@@ -134,13 +136,20 @@ public class DatabaseAdapter {
 			try {
 				db.beginTransaction();
 
+				// goes through all versions of its own
+				BooksTable.upgrade(db, oldVersion);
 				switch (oldVersion) {
 				case 1:
-					BooksTable.upgrade(db, oldVersion);
 					SeriesTable.create(db);
 					BookSeriesTable.create(db);
 					//$FALL-THROUGH$
 				case 2:
+					ThumbnailQueueTable.create(db);
+					//$FALL-THROUGH$
+				case 3:
+					// only the books table was changed
+					//$FALL-THROUGH$
+				case 4:
 				}
 
 				db.setTransactionSuccessful();
@@ -153,7 +162,7 @@ public class DatabaseAdapter {
 	public static final String[] BOOK_LIST_COLUMNS = { BooksTable.creators, BooksTable.title,
 			BooksTable.page_count, BooksTable.release_date, BooksTable.loan_return_by };
 	private static final String DATABASE_NAME = "data";
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 4;
 	private static final int MESSAGE_BOOK_ADDED = 0;
 	private static final int MESSAGE_BOOK_REMOVED = 1;
 	protected static final int MESSAGE_REQUERY_CURSOR = 2;
@@ -31,6 +31,25 @@ public final class GoogleIdSearchCursor {
 	private static final String[] columns = new String[] { BooksTable._id, BooksTable.google_id };
 	private static final int google_id_index = 1;
 
+	/**
+	 * Returns the Google ids of the books in the collection, skipping books
+	 * that don't have one.
+	 */
+	public static String[] fetchGoogleIdsByCollection(DatabaseAdapter db, long collectionId) {
+		final String tables = BooksTable.n + ", " + BookCollectionsTable.n;
+		final String where = BooksTable.n + "." + BooksTable._id + " = "
+				+ BookCollectionsTable.book_id + " AND " + BookCollectionsTable.collection_id
+				+ " = " + collectionId + " AND " + BooksTable.google_id + " IS NOT NULL";
+		final Cursor c = db.query(tables, new String[] { BooksTable.google_id }, where, null,
+				null, null, null, null);
+		final String[] googleIds = new String[c.getCount()];
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			googleIds[c.getPosition()] = c.getString(0);
+		}
+		c.close();
+		return googleIds;
+	}
+
 	private static Cursor searchByGoogleId(DatabaseAdapter db, String[] googleIds) {
 		final String selection = StringUtils.copyJoin(BooksTable.google_id + "=?", " OR ",
 				googleIds.length);
@@ -44,6 +63,8 @@ public final class GoogleIdSearchCursor {
 				selectionArgsList.add(book.googleId);
 			}
 		}
+		if (selectionArgsList.isEmpty())
+			return;
 
 		final Cursor c = searchByGoogleId(db, listToArray(selectionArgsList));
 		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.booksapp.db;
+
+import java.util.HashMap;
+
+/**
+ * Remembers the ids of authors, publishers, etc. by name while many books are
+ * inserted in one transaction, so that each name is only looked up once. It's
+ * only valid in that transaction, and only while no groups are removed.
+ */
+public final class GroupNameCache {
+	private final HashMap<String, HashMap<String, Long>> mTables = new HashMap<String, HashMap<String, Long>>();
+
+	/* package */Long get(String table, String name) {
+		final HashMap<String, Long> ids = mTables.get(table);
+		return (ids == null ? null : ids.get(name));
+	}
+
+	/* package */void put(String table, String name, long id) {
+		HashMap<String, Long> ids = mTables.get(table);
+		if (ids == null) {
+			ids = new HashMap<String, Long>();
+			mTables.put(table, ids);
+		}
+		ids.put(name, Long.valueOf(id));
+	}
+}
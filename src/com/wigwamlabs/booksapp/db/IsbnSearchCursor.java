@@ -27,16 +27,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteQuery;
 
-import com.wigwamlabs.util.StringUtils;
-
 public final class IsbnSearchCursor extends ExtendedSQLiteCursor {
 	private static final int _id_index = 0;
 
-	private static final String[] columns = new String[] { BooksTable._id, BooksTable.isbn13,
+	private static final String[] columns = new String[] { BooksTable._id, BooksTable.isbn,
 			BooksTable.title, BooksTable.creators, BooksTable.release_date, BooksTable.page_count };
 	private static final int creators_index = 3;
 	private static final CursorFactory FACTORY;
-	private static final int isbn13_index = 1;
+	private static final int isbn_index = 1;
 	private static final int page_count_index = 5;
 	private static final int release_date_index = 4;
 	private static final int title_index = 2;
@@ -51,11 +49,21 @@ public final class IsbnSearchCursor extends ExtendedSQLiteCursor {
 		};
 	}
 
-	public static IsbnSearchCursor searchByIsbns(DatabaseAdapter db, String[] isbns) {
-		final String selection = StringUtils.copyJoin(BooksTable.isbn13 + "=?", " OR ",
-				isbns.length);
-		return (IsbnSearchCursor) db.query(FACTORY, BooksTable.n, columns, selection, isbns, null,
-				null, null, null, null);
+	/**
+	 * Searches for canonical ISBNs, see {@link com.wigwamlabs.util.IsbnUtils}. They are numbers,
+	 * so they're part of the query rather than arguments.
+	 */
+	public static IsbnSearchCursor searchByIsbns(DatabaseAdapter db, long[] isbns) {
+		final StringBuilder selection = new StringBuilder();
+		selection.append(BooksTable.isbn).append(" IN (");
+		for (int i = 0; i < isbns.length; i++) {
+			if (i > 0)
+				selection.append(", ");
+			selection.append(isbns[i]);
+		}
+		selection.append(')');
+		return (IsbnSearchCursor) db.query(FACTORY, BooksTable.n, columns, selection.toString(),
+				null, null, null, null, null, null);
 	}
 
 	/* package */IsbnSearchCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
@@ -71,8 +79,8 @@ public final class IsbnSearchCursor extends ExtendedSQLiteCursor {
 		return getString(creators_index);
 	}
 
-	public String isbn13() {
-		return getString(isbn13_index);
+	public long isbn() {
+		return getLong(isbn_index);
 	}
 
 	public Integer pageCount() {
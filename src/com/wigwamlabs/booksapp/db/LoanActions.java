@@ -34,7 +34,7 @@ public class LoanActions {
 	}
 
 	public static void removeLoansForBook(DatabaseAdapter db, int t, long bookId) {
-		ACTIONS.updateItems(db, t, bookId, null, true, true, CursorType.CONTACT_LIST);
+		ACTIONS.updateItems(db, t, bookId, null, true, true, CursorType.CONTACT_LIST, null);
 	}
 
 	public static void returnBook(DatabaseAdapter db, long bookId, Date now, long loanId) {
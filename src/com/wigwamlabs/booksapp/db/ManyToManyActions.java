@@ -98,11 +98,17 @@ public final class ManyToManyActions {
 	}
 
 	private long createItem(DatabaseAdapter db, int t, final String item) {
+		return createItem(db, t, item, null);
+	}
+
+	private long createItem(DatabaseAdapter db, int t, final String item, GroupNameCache cache) {
 		NEW_ITEM_VALUES.put(mItemNameField, item);
 		NEW_ITEM_VALUES.put(mItemNameNormalizedField, normalizeItemName(item));
 		NEW_ITEM_VALUES.put(mItemCountField, ONE);
 		final long itemId = db.insertOrThrow(t, mItemTable, NEW_ITEM_VALUES);
 		NEW_ITEM_VALUES.clear();
+		if (cache != null)
+			cache.put(mItemTable, item, itemId);
 		return itemId;
 	}
 
@@ -182,6 +188,16 @@ public final class ManyToManyActions {
 	}
 
 	private Long getItem(DatabaseAdapter db, final String item) {
+		return getItem(db, item, null);
+	}
+
+	private Long getItem(DatabaseAdapter db, final String item, GroupNameCache cache) {
+		if (cache != null) {
+			final Long itemId = cache.get(mItemTable, item);
+			if (itemId != null)
+				return itemId;
+		}
+
 		final String[] columns = { mItemIdField };
 		final Cursor c = db.query(mItemTable, columns, mItemNameField + " = ?",
 				new String[] { item }, null, null, null, "1");
@@ -189,6 +205,8 @@ public final class ManyToManyActions {
 		Long itemId = null;
 		if (c.moveToFirst()) {
 			itemId = Long.valueOf(c.getLong(0));
+			if (cache != null)
+				cache.put(mItemTable, item, itemId.longValue());
 		}
 		c.close();
 		return itemId;
@@ -200,10 +218,11 @@ public final class ManyToManyActions {
 		db.execSQL(t, sql);
 	}
 
-	private long incrementOrCreateItem(DatabaseAdapter db, int t, final String item) {
-		final Long itemId = getItem(db, item);
+	private long incrementOrCreateItem(DatabaseAdapter db, int t, final String item,
+			GroupNameCache cache) {
+		final Long itemId = getItem(db, item, cache);
 		if (itemId == null) {
-			return createItem(db, t, item);
+			return createItem(db, t, item, cache);
 		}
 
 		incrementItem(db, t, itemId.longValue());
@@ -236,8 +255,14 @@ public final class ManyToManyActions {
 		db.requeryCursors(cursorType);
 	}
 
+	/**
+	 * The cache is optional, and can't be used when existing items are
+	 * checked, since they may be removed.
+	 */
 	public void updateItems(DatabaseAdapter db, int t, long mainEntityId, List<String> items,
-			boolean checkExistingItems, boolean deleteItemWhenZero, CursorType cursorType) {
+			boolean checkExistingItems, boolean deleteItemWhenZero, CursorType cursorType,
+			GroupNameCache cache) {
+		assert (cache == null || !checkExistingItems);
 		// TODO check for duplicates
 		final List<Pair<Long, String>> existingItems = checkExistingItems ? getExistingItems(db,
 				mainEntityId) : null;
@@ -248,7 +273,7 @@ public final class ManyToManyActions {
 			for (final String item : items) {
 				if (removeFromExistingItems(item, existingItems))
 					continue;
-				final long itemId = incrementOrCreateItem(db, t, item);
+				final long itemId = incrementOrCreateItem(db, t, item, cache);
 				ba.put(mJoinItemIdField, Long.valueOf(itemId));
 				db.insertOrThrow(t, mJoinTable, ba);
 			}
@@ -28,7 +28,7 @@ public class PublisherActions {
 			BookPublishersTable.publisher_id);
 
 	public static void updatePublisher(DatabaseAdapter db, int t, long bookId, String publisher,
-			boolean checkExistingPublisher) {
+			boolean checkExistingPublisher, GroupNameCache cache) {
 		List<String> cl = null;
 		if (publisher != null) {
 			cl = new ArrayList<String>(1);
@@ -36,6 +36,6 @@ public class PublisherActions {
 		}
 
 		ACTIONS.updateItems(db, t, bookId, cl, checkExistingPublisher, true,
-				CursorType.PUBLISHER_LIST);
+				CursorType.PUBLISHER_LIST, cache);
 	}
 }
@@ -159,6 +159,11 @@ public final class QueryBuilder {
 		return new CreateQueryBuilder(tableName, true);
 	}
 
+	public static String createIndex(String tableName, String columnName) {
+		return "CREATE INDEX " + tableName + "_" + columnName + " ON " + tableName + " ("
+				+ columnName + ")";
+	}
+
 	public static String drop(String tableName) {
 		return "DROP TABLE IF EXISTS " + tableName;
 	}
@@ -26,7 +26,7 @@ public class SeriesActions {
 			BookSeriesTable.series_id);
 
 	public static void updateSeries(DatabaseAdapter db, int t, long bookId, String series,
-			Integer volume, boolean checkExistingSeries) {
+			Integer volume, boolean checkExistingSeries, GroupNameCache cache) {
 		List<String> sl = null;
 		if (series != null) {
 			sl = new ArrayList<String>(1);
@@ -34,7 +34,7 @@ public class SeriesActions {
 		}
 
 		ACTIONS.updateItems(db, t, bookId, sl, checkExistingSeries, true,
-				DatabaseAdapter.CursorType.SERIES_LIST);
+				DatabaseAdapter.CursorType.SERIES_LIST, cache);
 	}
 
 	private SeriesActions() {
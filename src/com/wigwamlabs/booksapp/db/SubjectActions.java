@@ -27,8 +27,8 @@ public class SubjectActions {
 			BookSubjectsTable.subject_id);
 
 	public static void updateSubjects(DatabaseAdapter db, int t, long bookId,
-			List<String> subjects, boolean checkExistingSubjects) {
+			List<String> subjects, boolean checkExistingSubjects, GroupNameCache cache) {
 		ACTIONS.updateItems(db, t, bookId, subjects, checkExistingSubjects, true,
-				CursorType.SUBJECT_LIST);
+				CursorType.SUBJECT_LIST, cache);
 	}
 }
@@ -24,15 +24,72 @@ import android.text.Html;
 import com.google.api.client.util.Key;
 import com.wigwamlabs.booksapp.db.BookEntry;
 import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.booksapp.db.GroupNameCache;
 import com.wigwamlabs.util.CollectionUtils;
 import com.wigwamlabs.util.CommaStringList;
-import com.wigwamlabs.util.DateUtils;
 import com.wigwamlabs.util.StringUtils;
 
 public final class GoogleBook {
 	private static final String FORMAT_DIMENSIONS_PREFIX = "Dimensions ";
 	private static final String FORMAT_PAGES_SUFFIX = " pages";
 	private static final String ISBN_PREFIX = "ISBN:";
+	private static final String THUMBNAIL_REL = "http://schemas.google.com/books/2008/thumbnail";
+
+	/**
+	 * Returns the index of the first non digit at or after start. Stops after
+	 * nine digits so that the number always fits in an int.
+	 */
+	private static int digitsEnd(String string, int start) {
+		final int end = Math.min(string.length(), start + 9);
+		int i = start;
+		while (i < end) {
+			final char c = string.charAt(i);
+			if (c < '0' || c > '9')
+				break;
+			i++;
+		}
+		return i;
+	}
+
+	private static int parseDigits(String string, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			value = value * 10 + (string.charAt(i) - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the date as "y-M-d", or just "y" if there's no full date,
+	 * ignoring anything that follows. Replaces SimpleDateFormat, which
+	 * allocates on every parse and isn't thread safe.
+	 */
+	private static Date parseReleaseDate(String date) {
+		final int length = date.length();
+		int start = 0;
+		while (start < length && Character.isWhitespace(date.charAt(start))) {
+			start++;
+		}
+		int end = digitsEnd(date, start);
+		if (end == start)
+			return null;
+		final int year = parseDigits(date, start, end);
+
+		// month and day, out of range values roll over like the lenient formatter
+		if (end < length && date.charAt(end) == '-') {
+			start = end + 1;
+			end = digitsEnd(date, start);
+			if (end > start && end < length && date.charAt(end) == '-') {
+				final int month = parseDigits(date, start, end);
+				start = end + 1;
+				end = digitsEnd(date, start);
+				if (end > start)
+					return new Date(year - 1900, month - 1, parseDigits(date, start, end));
+			}
+		}
+		return new Date(year - 1900, 0, 1);
+	}
+
 	public Float averageRating;
 	@Key("dc:creator")
 	public List<String> creators;
@@ -123,14 +180,17 @@ public final class GoogleBook {
 	}
 
 	public long save(DatabaseAdapter db, int t) {
+		return save(db, t, null);
+	}
+
+	public long save(DatabaseAdapter db, int t, GroupNameCache cache) {
 		final BookEntry u = new BookEntry();
 		u.setCoverUrl(thumbnailLargeUrl);
 		u.setCreators(creators);
 		u.setDescription(description);
 		u.setDimensions(dimensions);
 		u.setGoogleId(googleId);
-		u.setIsbn10(isbn10);
-		u.setIsbn13(isbn13);
+		u.setIsbns(isbn10, isbn13);
 		u.setPageCount(pageCount);
 		u.setPublisher(publisher);
 		u.setReleaseDate(releaseDate);
@@ -138,7 +198,7 @@ public final class GoogleBook {
 		u.setTitle(title, subtitle);
 		// don't copy rating, has to be user's rating
 
-		final long id = u.executeInsert(db, t);
+		final long id = u.executeInsert(db, t, cache);
 		databaseId = Long.valueOf(id);
 		return id;
 	}
@@ -147,71 +207,35 @@ public final class GoogleBook {
 		// scrub creators
 		creatorsText = CommaStringList.listToString(creators);
 		// scrub dates
-		if (dates != null && dates.size() > 0) {
-			final String date = dates.get(0);
-			releaseDate = DateUtils.parseDate("y-M-d", date);
-			if (releaseDate == null)
-				releaseDate = DateUtils.parseDate("y", date);
-		}
+		if (dates != null && dates.size() > 0)
+			scrubDate(dates.get(0));
 		// scrub descriptions
-		description = chooseFirst(descriptions);
-		if (description != null) {
-			// for some reason the description isn't always decoded properly
-			description = Html.fromHtml(description).toString();
-		}
+		description = null;
+		if (descriptions != null && descriptions.size() > 0)
+			scrubDescription(descriptions.get(0));
 		// scrub formats
 		if (formats != null) {
 			for (final String format : formats) {
-				if (format.endsWith(FORMAT_PAGES_SUFFIX)) {
-					final String n = format.substring(0,
-							format.length() - FORMAT_PAGES_SUFFIX.length());
-					try {
-						pageCount = Integer.valueOf(n);
-					} catch (final NumberFormatException e) {
-					}
-				} else if (format.startsWith(FORMAT_DIMENSIONS_PREFIX)) {
-					dimensions = format.substring(FORMAT_DIMENSIONS_PREFIX.length());
-				}
+				scrubFormat(format);
 			}
 		}
 		// scrub identifiers
 		if (identifiers != null) {
 			for (final String identifier : identifiers) {
-				if (identifier.startsWith(ISBN_PREFIX)) {
-					final String isbn = identifier.substring(ISBN_PREFIX.length()).trim();
-					if (isbn.length() == 10)
-						isbn10 = isbn;
-					else if (isbn.length() == 13)
-						isbn13 = isbn;
-				} else if (!identifier.contains(":")) {
-					googleId = identifier;
-				}
+				scrubIdentifier(identifier);
 			}
 		}
 		// scrub links
 		if (links != null) {
 			for (final GoogleLink link : links) {
-				if (link.rel.equals("http://schemas.google.com/books/2008/thumbnail")) {
-					thumbnailSmallUrl = link.href;
-					// remove curl effect
-					thumbnailSmallUrl = thumbnailSmallUrl.replace("&edge=curl", "");
-					// get large thumbnail
-					thumbnailLargeUrl = thumbnailSmallUrl.replace("zoom=5", "zoom=1");
-				}
+				scrubLink(link.rel, link.href);
 			}
 		}
 		// scrub publishers
 		publisher = chooseFirst(publishers);
 		// scrub rating
-		if (rating != null && rating.average != null && rating.max != null) {
-			try {
-				final float average = Float.parseFloat(rating.average);
-				final int max = Integer.parseInt(rating.max);
-				averageRating = Float.valueOf(5.f * average / max);
-			} catch (final NumberFormatException e) {
-				// do nothing
-			}
-		}
+		if (rating != null)
+			scrubRating(rating.average, rating.max);
 		// scrub subjects
 		if (subjects != null) {
 			CollectionUtils.removeDuplicates(subjects);
@@ -224,4 +248,65 @@ public final class GoogleBook {
 			subtitle = (titleCount < 2 ? null : titles.get(titleCount - 1));
 		}
 	}
+
+	/* package */void scrubDate(String date) {
+		releaseDate = parseReleaseDate(date);
+	}
+
+	/* package */void scrubDescription(String html) {
+		// for some reason the description isn't always decoded properly
+		description = Html.fromHtml(html).toString();
+	}
+
+	/* package */void scrubFormat(String format) {
+		if (format.endsWith(FORMAT_PAGES_SUFFIX)) {
+			final int end = format.length() - FORMAT_PAGES_SUFFIX.length();
+			if (end > 0 && digitsEnd(format, 0) == end)
+				pageCount = Integer.valueOf(parseDigits(format, 0, end));
+		} else if (format.startsWith(FORMAT_DIMENSIONS_PREFIX)) {
+			dimensions = format.substring(FORMAT_DIMENSIONS_PREFIX.length());
+		}
+	}
+
+	/* package */void scrubIdentifier(String identifier) {
+		final int colon = identifier.indexOf(':');
+		if (colon < 0) {
+			googleId = identifier;
+		} else if (colon == ISBN_PREFIX.length() - 1 && identifier.startsWith(ISBN_PREFIX)) {
+			// trim without creating intermediate strings
+			int start = colon + 1;
+			int end = identifier.length();
+			while (start < end && identifier.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && identifier.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if (end - start == 10)
+				isbn10 = identifier.substring(start, end);
+			else if (end - start == 13)
+				isbn13 = identifier.substring(start, end);
+		}
+	}
+
+	/* package */void scrubLink(String rel, String href) {
+		if (THUMBNAIL_REL.equals(rel)) {
+			// remove curl effect
+			thumbnailSmallUrl = StringUtils.replace(href, "&edge=curl", "");
+			// get large thumbnail
+			thumbnailLargeUrl = StringUtils.replace(thumbnailSmallUrl, "zoom=5", "zoom=1");
+		}
+	}
+
+	/* package */void scrubRating(String average, String max) {
+		if (average == null || max == null)
+			return;
+		try {
+			final float a = Float.parseFloat(average);
+			final int m = Integer.parseInt(max);
+			averageRating = Float.valueOf(5.f * a / m);
+		} catch (final NumberFormatException e) {
+			// do nothing
+		}
+	}
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.googlebooks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.google.api.client.xml.Xml;
+import com.wigwamlabs.util.CommaStringList;
+
+/**
+ * Decodes a Google Books Atom feed straight into scrubbed {@link GoogleBook}s
+ * while it's being downloaded, instead of first mapping every element into
+ * lists of strings through reflection. Only the elements that end up in the
+ * scrubbed fields are read, everything else is skipped.
+ */
+public final class GoogleBookFeedParser {
+	public interface Callback {
+		/**
+		 * Called on the parsing thread as soon as each book in the feed has
+		 * been parsed.
+		 */
+		void onBookParsed(GoogleBook book);
+	}
+
+	private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+	private static final String DC_NS = "http://purl.org/dc/terms";
+	private static final String GD_NS = "http://schemas.google.com/g/2005";
+	private static final String OPENSEARCH_NS = "http://a9.com/-/spec/opensearchrss/1.0/";
+
+	private static void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int depth = 1;
+		while (depth > 0) {
+			switch (parser.next()) {
+			case XmlPullParser.START_TAG:
+				depth++;
+				break;
+			case XmlPullParser.END_TAG:
+				depth--;
+				break;
+			case XmlPullParser.END_DOCUMENT:
+				return;
+			}
+		}
+	}
+
+	private final Callback mCallback;
+
+	public GoogleBookFeedParser(Callback callback) {
+		mCallback = callback;
+	}
+
+	/**
+	 * Parses the feed, closing the stream is up to the caller.
+	 */
+	public GoogleBookFeed parse(InputStream in) throws IOException {
+		try {
+			final XmlPullParser parser = Xml.createParser();
+			parser.setInput(in, null);
+			return parseFeed(parser);
+		} catch (final XmlPullParserException e) {
+			final IOException exception = new IOException();
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	private GoogleBook parseEntry(XmlPullParser parser) throws XmlPullParserException,
+			IOException {
+		final GoogleBook book = new GoogleBook();
+		boolean hasDate = false;
+		while (parser.nextTag() == XmlPullParser.START_TAG) {
+			final String ns = parser.getNamespace();
+			final String name = parser.getName();
+			if (DC_NS.equals(ns)) {
+				final String text = parser.nextText();
+				if (name.equals("creator")) {
+					if (book.creators == null)
+						book.creators = new ArrayList<String>(1);
+					book.creators.add(text);
+				} else if (name.equals("date")) {
+					if (!hasDate)
+						book.scrubDate(text);
+					hasDate = true;
+				} else if (name.equals("description")) {
+					if (book.description == null)
+						book.scrubDescription(text);
+				} else if (name.equals("format")) {
+					book.scrubFormat(text);
+				} else if (name.equals("identifier")) {
+					book.scrubIdentifier(text);
+				} else if (name.equals("publisher")) {
+					if (book.publisher == null)
+						book.publisher = text;
+				} else if (name.equals("subject")) {
+					if (book.subjects == null)
+						book.subjects = new ArrayList<String>(1);
+					if (!book.subjects.contains(text))
+						book.subjects.add(text);
+				} else if (name.equals("title")) {
+					// the first title is the title, the last one the subtitle
+					if (book.title == null)
+						book.title = text;
+					else
+						book.subtitle = text;
+				}
+			} else if (ATOM_NS.equals(ns) && name.equals("link")) {
+				book.scrubLink(parser.getAttributeValue(null, "rel"),
+						parser.getAttributeValue(null, "href"));
+				skip(parser);
+			} else if (GD_NS.equals(ns) && name.equals("rating")) {
+				book.scrubRating(parser.getAttributeValue(null, "average"),
+						parser.getAttributeValue(null, "max"));
+				skip(parser);
+			} else {
+				skip(parser);
+			}
+		}
+		book.creatorsText = CommaStringList.listToString(book.creators);
+		return book;
+	}
+
+	private GoogleBookFeed parseFeed(XmlPullParser parser) throws XmlPullParserException,
+			IOException {
+		final GoogleBookFeed feed = new GoogleBookFeed();
+		parser.nextTag(); // <feed>
+		while (parser.nextTag() == XmlPullParser.START_TAG) {
+			final String ns = parser.getNamespace();
+			final String name = parser.getName();
+			if (ATOM_NS.equals(ns) && name.equals("entry")) {
+				final GoogleBook book = parseEntry(parser);
+				if (feed.books == null)
+					feed.books = new ArrayList<GoogleBook>();
+				feed.books.add(book);
+				if (mCallback != null)
+					mCallback.onBookParsed(book);
+			} else if (ATOM_NS.equals(ns) && name.equals("link")) {
+				if ("next".equals(parser.getAttributeValue(null, "rel")))
+					feed.nextUrl = parser.getAttributeValue(null, "href");
+				skip(parser);
+			} else if (OPENSEARCH_NS.equals(ns) && name.equals("totalResults")) {
+				try {
+					feed.totalResults = Integer.parseInt(parser.nextText().trim());
+				} catch (final NumberFormatException e) {
+					// do nothing
+				}
+			} else {
+				skip(parser);
+			}
+		}
+		return feed;
+	}
+}
@@ -17,7 +17,10 @@
 package com.wigwamlabs.googlebooks;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
@@ -32,31 +35,90 @@ import com.google.api.client.http.HttpTransport;
 import com.google.api.client.util.Key;
 import com.google.api.client.xml.XmlNamespaceDictionary;
 import com.google.api.client.xml.atom.AtomParser;
+import com.wigwamlabs.booksapp.CacheConfig;
+import com.wigwamlabs.booksapp.GoogleBookCache;
+import com.wigwamlabs.booksapp.HttpTransportCache;
 import com.wigwamlabs.booksapp.db.DatabaseAdapter;
 import com.wigwamlabs.booksapp.db.GoogleIdSearchCursor;
 import com.wigwamlabs.googleclient.ClientUtils;
 
 public class GoogleBookSearch {
+	/**
+	 * Hands the books over as soon as they're parsed, the first one on its own
+	 * and the rest a few at a time, so that their database ids can be looked up
+	 * in one query per batch.
+	 */
+	private static class BookBatcher implements GoogleBookFeedParser.Callback {
+		private static final int BATCH_SIZE = 5;
+		private final List<GoogleBook> mBatch = new ArrayList<GoogleBook>(BATCH_SIZE);
+		private final DatabaseAdapter mDb;
+		private boolean mFirstBatch = true;
+		private final FeedSearch.BatchListener mListener;
+
+		public BookBatcher(DatabaseAdapter db, FeedSearch.BatchListener listener) {
+			mDb = db;
+			mListener = listener;
+		}
+
+		public void flush() {
+			if (mBatch.isEmpty())
+				return;
+			if (mDb != null)
+				GoogleIdSearchCursor.updateDatabaseIds(mDb, mBatch);
+			if (mListener != null)
+				mListener.onBooksParsed(new ArrayList<GoogleBook>(mBatch));
+			mBatch.clear();
+			mFirstBatch = false;
+		}
+
+		@Override
+		public void onBookParsed(GoogleBook book) {
+			mBatch.add(book);
+			if (mFirstBatch || mBatch.size() >= BATCH_SIZE)
+				flush();
+		}
+	}
+
 	public static class BookSearch {
 		public interface Callback {
 			void onDownloadFinished(GoogleBook book);
 		}
 
+		private final GoogleBookCache mCache;
+		private final String mGoogleId;
 		private final HttpRequest mRequest;
 
-		public BookSearch(HttpRequest request) {
+		public BookSearch(HttpRequest request, String googleId, GoogleBookCache cache) {
 			mRequest = request;
+			mGoogleId = googleId;
+			mCache = cache;
 		}
 
 		public GoogleBook execute() throws IOException {
+			if (mCache != null) {
+				final GoogleBook cached = mCache.load(mGoogleId);
+				if (cached != null)
+					return cached;
+			}
+
 			final GoogleBook book = mRequest.execute().parseAs(GoogleBook.class);
 			if (book != null) {
 				book.isFullBook = true;
 				book.scrub();
+				if (mCache != null)
+					mCache.put(book);
 			}
 			return book;
 		}
 
+		/**
+		 * Same as {@link #execute()} but only returns the book if it doesn't
+		 * have to be loaded, i.e. it doesn't block.
+		 */
+		public GoogleBook executeFromMemory() {
+			return (mCache != null ? mCache.get(mGoogleId) : null);
+		}
+
 		public void executeInBackground(BookSearch.Callback callback) {
 			new BookSearchTask(callback).execute(this);
 		}
@@ -90,6 +152,9 @@ public class GoogleBookSearch {
 	}
 
 	private static class BooksUrl extends GoogleUrl {
+		@SuppressWarnings("unused")
+		@Key("max-results")
+		public Integer maxResults;
 		@SuppressWarnings("unused")
 		@Key("q")
 		public String q;
@@ -99,8 +164,40 @@ public class GoogleBookSearch {
 		}
 	}
 
+	private class FeedPrefetchTask extends AsyncTask<FeedSearch, Void, Void> {
+		@Override
+		protected Void doInBackground(FeedSearch... params) {
+			for (final FeedSearch search : params) {
+				// stop as soon as we're not on wifi anymore
+				if (isCancelled() || !isUnmeteredNetworkAvailable())
+					break;
+				try {
+					search.prefetch();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+			return null;
+		}
+	}
+
 	public static class FeedSearch {
+		public interface BatchListener {
+			/**
+			 * Called on the downloading thread with the books parsed so far,
+			 * with their database ids looked up.
+			 */
+			void onBooksParsed(List<GoogleBook> books);
+		}
+
 		public interface Callback {
+			/**
+			 * Called with the books as they're parsed, before
+			 * {@link #onDownloadFinished(GoogleBookFeed)} is called with the
+			 * whole feed.
+			 */
+			void onBooksParsed(List<GoogleBook> books);
+
 			void onDownloadFinished(GoogleBookFeed feed);
 		}
 
@@ -112,12 +209,19 @@ public class GoogleBookSearch {
 		}
 
 		public GoogleBookFeed execute() throws IOException {
-			final GoogleBookFeed feed = mRequest.execute().parseAs(GoogleBookFeed.class);
-			feed.scrub();
+			return execute(null);
+		}
 
-			if (feed.books != null && mDb != null) {
-				GoogleIdSearchCursor.updateDatabaseIds(mDb, feed.books);
+		public GoogleBookFeed execute(BatchListener listener) throws IOException {
+			final BookBatcher batcher = new BookBatcher(mDb, listener);
+			final InputStream content = mRequest.execute().getContent();
+			final GoogleBookFeed feed;
+			try {
+				feed = new GoogleBookFeedParser(batcher).parse(content);
+			} finally {
+				content.close();
 			}
+			batcher.flush();
 			return feed;
 		}
 
@@ -125,12 +229,22 @@ public class GoogleBookSearch {
 			new FeedSearchTask(callback).execute(this);
 		}
 
+		/**
+		 * Downloads the feed without parsing it, so that it ends up in the
+		 * {@link HttpTransportCache}.
+		 */
+		public void prefetch() throws IOException {
+			mRequest.execute().ignore();
+		}
+
 		public void setDatabase(DatabaseAdapter db) {
 			mDb = db;
 		}
 	}
 
-	private static class FeedSearchTask extends AsyncTask<FeedSearch, Void, GoogleBookFeed> {
+	private static class FeedSearchTask extends
+			AsyncTask<FeedSearch, List<GoogleBook>, GoogleBookFeed> implements
+			FeedSearch.BatchListener {
 		private final WeakReference<FeedSearch.Callback> mCallback;
 
 		public FeedSearchTask(FeedSearch.Callback callback) {
@@ -141,13 +255,19 @@ public class GoogleBookSearch {
 		protected GoogleBookFeed doInBackground(FeedSearch... params) {
 			final FeedSearch search = params[0];
 			try {
-				return search.execute();
+				return search.execute(this);
 			} catch (final IOException e) {
 				e.printStackTrace();
 				return null;
 			}
 		}
 
+		@SuppressWarnings("unchecked")
+		@Override
+		public void onBooksParsed(List<GoogleBook> books) {
+			publishProgress(books);
+		}
+
 		@Override
 		protected void onPostExecute(GoogleBookFeed result) {
 			final FeedSearch.Callback callback = mCallback.get();
@@ -155,6 +275,16 @@ public class GoogleBookSearch {
 				callback.onDownloadFinished(result);
 			}
 		}
+
+		@Override
+		protected void onProgressUpdate(List<GoogleBook>... values) {
+			final FeedSearch.Callback callback = mCallback.get();
+			if (callback != null) {
+				for (final List<GoogleBook> books : values) {
+					callback.onBooksParsed(books);
+				}
+			}
+		}
 	}
 
 	public static class Namespace {
@@ -168,13 +298,18 @@ public class GoogleBookSearch {
 		}
 	}
 
+	public static final int DEFAULT_MAX_RESULTS = 10;
 	private static final String VOLUMES_URL = "http://books.google.com/books/feeds/volumes";
+	private final GoogleBookCache mBookCache;
 	private final HttpTransport mTransport;
 
 	public GoogleBookSearch(Context context) {
+		mBookCache = CacheConfig.getGoogleBookCache(context);
 		mTransport = GoogleTransport.create();
 		final GoogleHeaders headers = (GoogleHeaders) mTransport.defaultHeaders;
-		headers.setApplicationName(ClientUtils.getApplicationName(context));
+		// Google only compresses responses if the user agent contains "gzip"
+		headers.setApplicationName(ClientUtils.getApplicationName(context) + " (gzip)");
+		headers.acceptEncoding = "gzip";
 		headers.gdataVersion = "2";
 
 		final AtomParser parser = new AtomParser();
@@ -182,6 +317,33 @@ public class GoogleBookSearch {
 		mTransport.addParser(parser);
 	}
 
+	/**
+	 * Returns true if feeds may be prefetched, see
+	 * {@link HttpTransportCache#isUnmeteredNetworkAvailable()}.
+	 */
+	protected boolean isUnmeteredNetworkAvailable() {
+		return HttpTransportCache.isUnmeteredNetworkAvailable();
+	}
+
+	/**
+	 * Downloads the feeds into the cache in the background, but only if
+	 * connected to an unmetered network. Cached feeds are served even when
+	 * offline.
+	 */
+	public void prefetchInBackground(FeedSearch... searches) {
+		if (searches.length == 0 || !isUnmeteredNetworkAvailable())
+			return;
+		new FeedPrefetchTask().execute(searches);
+	}
+
+	public void prefetchRelatedByGoogleIdsInBackground(String... googleIds) {
+		final FeedSearch[] searches = new FeedSearch[googleIds.length];
+		for (int i = 0; i < googleIds.length; i++) {
+			searches[i] = searchRelatedByGoogleId(googleIds[i]);
+		}
+		prefetchInBackground(searches);
+	}
+
 	private String prefixAndJoin(final String[] items, final String prefix, final String join) {
 		final StringBuilder buffer = new StringBuilder();
 		for (int i = 0; i < items.length; i++) {
@@ -206,11 +368,13 @@ public class GoogleBookSearch {
 		final HttpRequest request = mTransport.buildGetRequest();
 		request.url = url;
 
-		return new BookSearch(request);
+		return new BookSearch(request, googleId, mBookCache);
 	}
 
 	public FeedSearch searchByIsbns(String... isbns) {
-		return searchFeed(prefixAndJoin(isbns, "isbn:", " OR "));
+		// make room for a book per ISBN
+		return searchFeed(prefixAndJoin(isbns, "isbn:", " OR "),
+				isbns.length > DEFAULT_MAX_RESULTS ? Integer.valueOf(isbns.length) : null);
 	}
 
 	public FeedSearch searchByPublisher(String name) {
@@ -229,7 +393,12 @@ public class GoogleBookSearch {
 	}
 
 	private FeedSearch searchFeed(String query) {
+		return searchFeed(query, null);
+	}
+
+	private FeedSearch searchFeed(String query, Integer maxResults) {
 		final BooksUrl url = new BooksUrl(VOLUMES_URL);
+		url.maxResults = maxResults;
 		url.q = query;
 		final HttpRequest request = mTransport.buildGetRequest();
 		request.url = url;
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Keeps mutable bitmaps that are no longer used, bucketed by size and config,
+ * so that they can be drawn or decoded into instead of allocating new ones.
+ * Only bitmaps up to a maximum size are kept. Thread safe.
+ */
+public class BitmapPool {
+	private static Long bucketKey(int width, int height, Config config) {
+		return Long.valueOf(((long) width << 32) | ((long) height << 8) | config.ordinal());
+	}
+
+	private final HashMap<Long, ArrayList<Bitmap>> mBuckets = new HashMap<Long, ArrayList<Bitmap>>();
+	private int mHitCount;
+	private final int mLimitBytes;
+	private final int mMaxHeight;
+	private final int mMaxWidth;
+	private int mMissCount;
+	private int mSizeBytes;
+
+	public BitmapPool(int maxWidth, int maxHeight, int limitBytes) {
+		mMaxWidth = maxWidth;
+		mMaxHeight = maxHeight;
+		mLimitBytes = limitBytes;
+	}
+
+	public synchronized void clear() {
+		mBuckets.clear();
+		mSizeBytes = 0;
+	}
+
+	/**
+	 * Returns a bitmap of exactly the given size and config, or null if there
+	 * is none in the pool. Its content is undefined unless it has alpha, then
+	 * it's cleared.
+	 */
+	public synchronized Bitmap get(int width, int height, Config config) {
+		final ArrayList<Bitmap> bucket = mBuckets.get(bucketKey(width, height, config));
+		if (bucket == null || bucket.isEmpty()) {
+			mMissCount++;
+			return null;
+		}
+
+		final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+		mSizeBytes -= bitmap.getRowBytes() * bitmap.getHeight();
+		mHitCount++;
+		if (config != Config.RGB_565)
+			bitmap.eraseColor(0);
+		return bitmap;
+	}
+
+	public synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return mMissCount;
+	}
+
+	public Bitmap getOrCreate(int width, int height, Config config) {
+		final Bitmap bitmap = get(width, height, config);
+		if (bitmap != null)
+			return bitmap;
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Returns true if the bitmap was added, the caller must then no longer use
+	 * it.
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+			return false;
+		final Config config = bitmap.getConfig();
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		if (config == null || width > mMaxWidth || height > mMaxHeight)
+			return false;
+		final int size = bitmap.getRowBytes() * height;
+		if (mSizeBytes + size > mLimitBytes)
+			return false;
+
+		final Long key = bucketKey(width, height, config);
+		ArrayList<Bitmap> bucket = mBuckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<Bitmap>();
+			mBuckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		mSizeBytes += size;
+		return true;
+	}
+}
@@ -16,13 +16,99 @@
 
 package com.wigwamlabs.util;
 
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 
 import com.wigwamlabs.booksapp.LayoutUtilities;
 
 public final class BitmapUtils {
+	/* package */static final class LazyLoadHoneycombAndBeyond {
+		// the fields are not in the SDK we compile against
+		private static final Field IN_BITMAP;
+		private static final Field IN_MUTABLE;
+
+		static {
+			Field inBitmap = null;
+			Field inMutable = null;
+			try {
+				inBitmap = BitmapFactory.Options.class.getField("inBitmap");
+				inMutable = BitmapFactory.Options.class.getField("inMutable");
+			} catch (final NoSuchFieldException e) {
+				inBitmap = null;
+				inMutable = null;
+			}
+			IN_BITMAP = inBitmap;
+			IN_MUTABLE = inMutable;
+		}
+
+		/**
+		 * Returns false if the options don't support decoding into a bitmap.
+		 */
+		public static boolean setInBitmap(BitmapFactory.Options options, Bitmap inBitmap) {
+			if (IN_BITMAP == null)
+				return false;
+			try {
+				IN_MUTABLE.setBoolean(options, true);
+				IN_BITMAP.set(options, inBitmap);
+				return true;
+			} catch (final IllegalAccessException e) {
+				return false;
+			}
+		}
+	}
+
+	private static final int HONEYCOMB = 11;
+	private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * Returns the largest power of two to subsample with, so that the decoded
+	 * image is still at least as large as when scaled to fit the target size.
+	 */
+	public static int calculateInSampleSize(int width, int height, int targetWidth,
+			int targetHeight) {
+		if (width <= 0 || height <= 0 || (width <= targetWidth && height <= targetHeight))
+			return 1;
+
+		final float scale = LayoutUtilities.getScaleToFit(width, height, targetWidth,
+				targetHeight);
+		int sampleSize = 1;
+		while (sampleSize * 2 * scale <= 1.f) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private static BitmapFactory.Options createDecodeOptions(BitmapFactory.Options bounds,
+			int targetWidth, int targetHeight) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight,
+				targetWidth, targetHeight);
+		// covers are photos, so only keep alpha for formats that might have it
+		final String mimeType = bounds.outMimeType;
+		if (mimeType == null || !(mimeType.endsWith("png") || mimeType.endsWith("gif")))
+			options.inPreferredConfig = Bitmap.Config.RGB_565;
+		return options;
+	}
+
 	public static Bitmap createScaledBitmap(Bitmap image, int targetWidth, int targetHeight,
 			boolean recycleOldIfScaled) {
+		return createScaledBitmap(image, targetWidth, targetHeight, recycleOldIfScaled, null);
+	}
+
+	/**
+	 * Same as {@link #createScaledBitmap(Bitmap, int, int, boolean)} but draws
+	 * the scaled image into a bitmap from the pool, if there is one.
+	 */
+	public static Bitmap createScaledBitmap(Bitmap image, int targetWidth, int targetHeight,
+			boolean recycleOldIfScaled, BitmapPool pool) {
 		final int bitmapWidth = image.getWidth();
 		final int bitmapHeight = image.getHeight();
 		if (bitmapWidth <= targetWidth && bitmapHeight <= targetHeight) {
@@ -31,8 +117,19 @@ public final class BitmapUtils {
 
 		final float scale = LayoutUtilities.getScaleToFit(bitmapWidth, bitmapHeight, targetWidth,
 				targetHeight);
-		final Bitmap scaledImage = Bitmap.createScaledBitmap(image, (int) (bitmapWidth * scale),
-				(int) (bitmapHeight * scale), true);
+		final int scaledWidth = Math.max(1, (int) (bitmapWidth * scale));
+		final int scaledHeight = Math.max(1, (int) (bitmapHeight * scale));
+		final Bitmap scaledImage;
+		if (pool == null) {
+			scaledImage = Bitmap.createScaledBitmap(image, scaledWidth, scaledHeight, true);
+		} else {
+			final Config config = (image.getConfig() != null ? image.getConfig()
+					: Config.ARGB_8888);
+			scaledImage = pool.getOrCreate(scaledWidth, scaledHeight, config);
+			final Canvas canvas = new Canvas(scaledImage);
+			canvas.drawBitmap(image, null, new Rect(0, 0, scaledWidth, scaledHeight),
+					SCALE_PAINT);
+		}
 
 		if (recycleOldIfScaled)
 			image.recycle();
@@ -40,6 +137,134 @@ public final class BitmapUtils {
 		return scaledImage;
 	}
 
+	/**
+	 * Same as {@link #decodeFile(String, BitmapPool)} but decodes directly
+	 * from the buffer, e.g. a memory mapped file.
+	 */
+	public static Bitmap decodeByteBuffer(ByteBuffer buffer, BitmapPool pool) {
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, bounds);
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+			return null;
+
+		final BitmapFactory.Options options = createDecodeOptions(bounds, bounds.outWidth,
+				bounds.outHeight);
+		if (pool != null && Compatibility.SDK_INT >= HONEYCOMB) {
+			final Config config = (options.inPreferredConfig != null ? options.inPreferredConfig
+					: Config.ARGB_8888);
+			final Bitmap inBitmap = pool.get(bounds.outWidth, bounds.outHeight, config);
+			if (LazyLoadHoneycombAndBeyond.setInBitmap(options, inBitmap)) {
+				try {
+					return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null,
+							options);
+				} catch (final IllegalArgumentException e) {
+					// the bitmap couldn't be reused
+					LazyLoadHoneycombAndBeyond.setInBitmap(options, null);
+				}
+			}
+		}
+		return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, options);
+	}
+
+	/**
+	 * Decodes the image subsampled close to the target size, and then scales
+	 * it down to fit exactly. This avoids allocating the full size image.
+	 */
+	public static Bitmap decodeByteArray(byte[] data, int targetWidth, int targetHeight) {
+		return decodeByteArray(data, targetWidth, targetHeight, null);
+	}
+
+	/**
+	 * Same as {@link #decodeByteArray(byte[], int, int)} but scales into a
+	 * bitmap from the pool, if there is one.
+	 */
+	public static Bitmap decodeByteArray(byte[] data, int targetWidth, int targetHeight,
+			BitmapPool pool) {
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+			return null;
+
+		final BitmapFactory.Options options = createDecodeOptions(bounds, targetWidth,
+				targetHeight);
+		final Bitmap image = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (image == null)
+			return null;
+		return createScaledBitmap(image, targetWidth, targetHeight, true, pool);
+	}
+
+	/**
+	 * Decodes an image that is already the size it will be shown at. On
+	 * Honeycomb and later the pixels are decoded into a bitmap of the same
+	 * size from the pool (if not null), and the result is mutable so that it
+	 * can be put back into the pool when no longer used.
+	 */
+	public static Bitmap decodeFile(String path, BitmapPool pool) {
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, bounds);
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+			return null;
+
+		final BitmapFactory.Options options = createDecodeOptions(bounds, bounds.outWidth,
+				bounds.outHeight);
+		if (pool != null && Compatibility.SDK_INT >= HONEYCOMB) {
+			final Config config = (options.inPreferredConfig != null ? options.inPreferredConfig
+					: Config.ARGB_8888);
+			final Bitmap inBitmap = pool.get(bounds.outWidth, bounds.outHeight, config);
+			if (LazyLoadHoneycombAndBeyond.setInBitmap(options, inBitmap)) {
+				try {
+					return BitmapFactory.decodeFile(path, options);
+				} catch (final IllegalArgumentException e) {
+					// the bitmap couldn't be reused
+					LazyLoadHoneycombAndBeyond.setInBitmap(options, null);
+				}
+			}
+		}
+		return BitmapFactory.decodeFile(path, options);
+	}
+
+	/**
+	 * Same as {@link #decodeByteArray(byte[], int, int)} but for files.
+	 */
+	public static Bitmap decodeFile(String path, int targetWidth, int targetHeight) {
+		return decodeFile(path, targetWidth, targetHeight, null);
+	}
+
+	/**
+	 * Same as {@link #decodeByteArray(byte[], int, int, BitmapPool)} but for
+	 * files.
+	 */
+	public static Bitmap decodeFile(String path, int targetWidth, int targetHeight,
+			BitmapPool pool) {
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, bounds);
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+			return null;
+
+		final BitmapFactory.Options options = createDecodeOptions(bounds, targetWidth,
+				targetHeight);
+		final Bitmap image = BitmapFactory.decodeFile(path, options);
+		if (image == null)
+			return null;
+		return createScaledBitmap(image, targetWidth, targetHeight, true, pool);
+	}
+
+	/**
+	 * Returns the WebP compress format, or null if it's not supported (it was
+	 * added in Ice Cream Sandwich).
+	 */
+	public static CompressFormat getWebpFormat() {
+		try {
+			return CompressFormat.valueOf("WEBP");
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	private BitmapUtils() {
 	}
 }
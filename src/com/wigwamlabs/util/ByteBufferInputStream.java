@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a buffer, e.g. a memory mapped file, without copying it to the
+ * heap first. Supports mark() so that BitmapFactory doesn't need to wrap it
+ * in a BufferedInputStream.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer mBuffer;
+
+	/**
+	 * Reads from the buffer's position to its limit, without modifying it.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		mBuffer = buffer.slice();
+	}
+
+	@Override
+	public int available() {
+		return mBuffer.remaining();
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mBuffer.mark();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public int read() {
+		if (!mBuffer.hasRemaining())
+			return -1;
+		return mBuffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		final int remaining = mBuffer.remaining();
+		if (remaining == 0)
+			return -1;
+		final int count = Math.min(len, remaining);
+		mBuffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public synchronized void reset() {
+		mBuffer.reset();
+	}
+
+	@Override
+	public long skip(long n) {
+		final int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+		mBuffer.position(mBuffer.position() + count);
+		return count;
+	}
+}
@@ -18,19 +18,83 @@ package com.wigwamlabs.util;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 
 import com.wigwamlabs.booksapp.Debug;
 
 public final class DateUtils {
-	private static SimpleDateFormat formatter;
+	// SimpleDateFormat isn't thread safe, so every thread gets its own
+	// formatter for each pattern
+	private static final ThreadLocal<HashMap<String, SimpleDateFormat>> FORMATTERS = new ThreadLocal<HashMap<String, SimpleDateFormat>>() {
+		@Override
+		protected HashMap<String, SimpleDateFormat> initialValue() {
+			return new HashMap<String, SimpleDateFormat>();
+		}
+	};
+
+	private static void appendNumber(StringBuilder builder, int number, int digits) {
+		// zero pad to at least digits
+		int limit = 1;
+		for (int i = 1; i < digits; i++) {
+			limit *= 10;
+		}
+		while (limit > 1 && number < limit) {
+			builder.append('0');
+			limit /= 10;
+		}
+		builder.append(number);
+	}
 
 	public static String format(String pattern, Date date) {
 		if (date == null)
 			return null;
-		if (formatter == null)
-			formatter = new SimpleDateFormat();
-		formatter.applyPattern(pattern);
-		return formatter.format(date);
+		final String formatted = formatFast(pattern, date);
+		if (formatted != null)
+			return formatted;
+		return formatter(pattern).format(date);
+	}
+
+	/**
+	 * Formats the numeric patterns the app uses the most with plain integer
+	 * arithmetic. Returns null for any other pattern, or for years that
+	 * SimpleDateFormat would print with an era or more than four digits.
+	 */
+	private static String formatFast(String pattern, Date date) {
+		final boolean hasMonth;
+		final boolean hasDay;
+		if (pattern.equals("yyyy-MM-dd")) {
+			hasMonth = true;
+			hasDay = true;
+		} else if (pattern.equals("yyyy-MM")) {
+			hasMonth = true;
+			hasDay = false;
+		} else if (pattern.equals("yyyy")) {
+			hasMonth = false;
+			hasDay = false;
+		} else if (pattern.equals("MM-dd")) {
+			final StringBuilder builder = new StringBuilder(5);
+			appendNumber(builder, date.getMonth() + 1, 2);
+			builder.append('-');
+			appendNumber(builder, date.getDate(), 2);
+			return builder.toString();
+		} else {
+			return null;
+		}
+
+		final int year = 1900 + date.getYear();
+		if (year < 1 || year > 9999)
+			return null;
+		final StringBuilder builder = new StringBuilder(10);
+		appendNumber(builder, year, 4);
+		if (hasMonth) {
+			builder.append('-');
+			appendNumber(builder, date.getMonth() + 1, 2);
+		}
+		if (hasDay) {
+			builder.append('-');
+			appendNumber(builder, date.getDate(), 2);
+		}
+		return builder.toString();
 	}
 
 	public static CharSequence formatShort(Date now, Date date) {
@@ -54,12 +118,19 @@ public final class DateUtils {
 		return format("yyyy", date);
 	}
 
+	private static SimpleDateFormat formatter(String pattern) {
+		final HashMap<String, SimpleDateFormat> formatters = FORMATTERS.get();
+		SimpleDateFormat formatter = formatters.get(pattern);
+		if (formatter == null) {
+			formatter = new SimpleDateFormat(pattern);
+			formatters.put(pattern, formatter);
+		}
+		return formatter;
+	}
+
 	public static Date parseDate(String pattern, String string) {
-		if (formatter == null)
-			formatter = new SimpleDateFormat();
-		formatter.applyPattern(pattern);
 		try {
-			return formatter.parse(string);
+			return formatter(pattern).parse(string);
 		} catch (final StringIndexOutOfBoundsException e) {
 			Debug.reportException("Date: " + string, e);
 			return null;
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwamlabs.util;
+
+/**
+ * ISBNs are compared as their ISBN-13 in a long, so that the same book is
+ * found whether it was stored with hyphens, as an ISBN-10 or as an ISBN-13.
+ */
+public final class IsbnUtils {
+	private static final long BOOKLAND = 978L;
+
+	/**
+	 * Returns the ISBN-13 of the ISBN-10 or ISBN-13 as a long, or null if it
+	 * isn't a valid ISBN. Spaces and hyphens are ignored.
+	 */
+	public static Long toCanonical(String isbn) {
+		if (isbn == null)
+			return null;
+
+		long digits = 0;
+		int count = 0;
+		int sum10 = 0;
+		int sum13 = 0;
+		boolean checkDigitX = false;
+		final int length = isbn.length();
+		for (int i = 0; i < length; i++) {
+			final char c = isbn.charAt(i);
+			final int digit;
+			if (c >= '0' && c <= '9') {
+				if (checkDigitX || count >= 13)
+					return null;
+				digit = c - '0';
+				digits = digits * 10 + digit;
+			} else if ((c == 'X' || c == 'x') && count == 9) {
+				// only allowed as the check digit of an ISBN-10
+				checkDigitX = true;
+				digit = 10;
+			} else if (c == '-' || c == ' ') {
+				continue;
+			} else {
+				return null;
+			}
+			sum10 += (10 - count) * digit;
+			sum13 += (count % 2 == 0 ? 1 : 3) * digit;
+			count++;
+		}
+
+		if (count == 13) {
+			return sum13 % 10 == 0 ? Long.valueOf(digits) : null;
+		} else if (count == 10) {
+			if (sum10 % 11 != 0)
+				return null;
+			return Long.valueOf(toIsbn13(checkDigitX ? digits : digits / 10));
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first valid ISBN of the two, see {@link #toCanonical(String)}.
+	 */
+	public static Long toCanonical(String isbn13, String isbn10) {
+		final Long isbn = toCanonical(isbn13);
+		return isbn != null ? isbn : toCanonical(isbn10);
+	}
+
+	/**
+	 * Adds the Bookland prefix and a new check digit to the first nine digits
+	 * of an ISBN-10.
+	 */
+	private static long toIsbn13(long isbn10WithoutCheckDigit) {
+		final long isbn12 = BOOKLAND * 1000000000L + isbn10WithoutCheckDigit;
+		int sum = 0;
+		long rest = isbn12;
+		// the rightmost of the twelve digits is weighted 3
+		for (int i = 0; i < 12; i++) {
+			sum += (i % 2 == 0 ? 3 : 1) * (int) (rest % 10);
+			rest /= 10;
+		}
+		return isbn12 * 10 + (10 - sum % 10) % 10;
+	}
+}
@@ -80,6 +80,29 @@ public final class StringUtils {
 		return builder.toString();
 	}
 
+	/**
+	 * Same as String.replace(CharSequence, CharSequence), but without going
+	 * through a regular expression, and returns the string itself if there's
+	 * nothing to replace.
+	 */
+	public static String replace(String string, String target, String replacement) {
+		if (target.length() == 0)
+			return string.replace(target, replacement);
+		int index = string.indexOf(target);
+		if (index < 0)
+			return string;
+		final StringBuilder builder = new StringBuilder(string.length() + replacement.length()
+				- target.length());
+		int start = 0;
+		do {
+			builder.append(string, start, index).append(replacement);
+			start = index + target.length();
+			index = string.indexOf(target, start);
+		} while (index >= 0);
+		builder.append(string, start, string.length());
+		return builder.toString();
+	}
+
 	public static String trimmedStringOrNull(String s) {
 		if (s == null)
 			return null;
@@ -24,6 +24,8 @@ import com.wigwamlabs.booksapp.db.AuthorsTable;
 import com.wigwamlabs.booksapp.db.BookAuthorsTable;
 import com.wigwamlabs.booksapp.db.BookEntry;
 import com.wigwamlabs.booksapp.db.BookGroupCursor;
+import com.wigwamlabs.booksapp.db.GroupNameCache;
+import com.wigwamlabs.googlebooks.GoogleBook;
 import com.wigwamlabs.util.CommaStringList;
 
 public class AuthorUpdateTest extends DatabaseTestCase {
@@ -70,6 +72,30 @@ public class AuthorUpdateTest extends DatabaseTestCase {
 		assertEquals("1|1\n2|2\n2|1", dumpBookAuthors());
 	}
 
+	public void testAddTwoBooksWithSameAuthorInOneTransaction() {
+		final GoogleBook b1 = new GoogleBook();
+		b1.title = "Foo";
+		b1.creators = CommaStringList.stringToList("Author One");
+		b1.scrub();
+		final GoogleBook b2 = new GoogleBook();
+		b2.title = "Bar";
+		b2.creators = CommaStringList.stringToList("Author Two, Author One");
+		b2.scrub();
+
+		try {
+			final int t = mDb.beginTransaction();
+			final GroupNameCache cache = new GroupNameCache();
+			b1.save(mDb, t, cache);
+			b2.save(mDb, t, cache);
+			mDb.setTransactionSuccessful(t);
+		} finally {
+			mDb.endTransaction();
+		}
+
+		assertEquals("1|Author One|2\n2|Author Two|1", dumpAuthors());
+		assertEquals("1|1\n2|2\n2|1", dumpBookAuthors());
+	}
+
 	public void testChangingAuthorsRequeriesCursor() {
 		final BookGroupCursor c = BookGroupCursor.fetchAllAuthors(mDb,
 				BookGroupCursor.name_normalized_index, null);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Point;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import com.wigwamlabs.booksapp.BookListAdapter;
+import com.wigwamlabs.booksapp.ImageDownloadCollection;
+import com.wigwamlabs.booksapp.ThumbnailCache;
+import com.wigwamlabs.booksapp.ThumbnailManager;
+import com.wigwamlabs.booksapp.ThumbnailScheduler;
+import com.wigwamlabs.booksapp.db.BookListCursor;
+import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwamlabs.util.BitmapPool;
+import com.wigwamlabs.util.BitmapUtils;
+import com.wigwamlabs.util.ImageViewUtils.WhenNoImage;
+
+public class BitmapPoolTest extends InstrumentationTestCase {
+	private class StubLoader implements ThumbnailScheduler.Loader {
+		private final Bitmap mCover = Bitmap.createBitmap(THUMBNAIL_WIDTH * 4,
+				THUMBNAIL_HEIGHT * 4, Config.RGB_565);
+
+		@Override
+		public Bitmap load(String url, Point targetSize) {
+			// same as a downloaded cover being scaled down
+			return BitmapUtils.createScaledBitmap(mCover, targetSize.x, targetSize.y, false, mPool);
+		}
+	}
+
+	private static final int BOOK_COUNT = 200;
+	private static final int CACHED_IMAGES = 24;
+	private static final String TAG = "BitmapPoolTest";
+	private static final int THUMBNAIL_HEIGHT = 60;
+	private static final int THUMBNAIL_WIDTH = 40;
+	private static final int VISIBLE_ROWS = 8;
+
+	private static String url(int book) {
+		return "http://bks.example.com/books?id=" + book + "&zoom=5";
+	}
+
+	private BookListAdapter mAdapter;
+	private ThumbnailCache mCache;
+	private BitmapPool mPool;
+	private ImageDownloadCollection mThumbnails;
+	private ImageView[] mViews;
+
+	private boolean adapterRowsLoaded(int firstRow) {
+		for (int i = 0; i < VISIBLE_ROWS; i++) {
+			final long bookId = mAdapter.getItemId(firstRow + i);
+			if (mCache.get(ThumbnailManager.getSmallThumbnailUrl(bookId)) == null)
+				return false;
+		}
+		return true;
+	}
+
+	private void bindAdapterRows(final int firstRow, final View[] rows, final FrameLayout parent)
+			throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// same as ListView recycling its views while scrolling
+				for (int i = 0; i < rows.length; i++) {
+					rows[i] = mAdapter.getView(firstRow + i, rows[i], parent);
+				}
+			}
+		});
+	}
+
+	private void bindRows(final int firstRow) throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// same as BookListAdapter.bindView() for recycled views
+				for (int i = 0; i < VISIBLE_ROWS; i++) {
+					mThumbnails.attachUrl(url(firstRow + i), mViews[i], WhenNoImage.DO_NOTHING,
+							false);
+				}
+			}
+		});
+	}
+
+	private boolean rowsLoaded(int firstRow) {
+		for (int i = 0; i < VISIBLE_ROWS; i++) {
+			// getImage() would keep the bitmaps from being reused
+			if (mCache.get(url(firstRow + i)) == null)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final Context context = getInstrumentation().getTargetContext();
+
+		mPool = new BitmapPool(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, 512 * 1024);
+		mCache = new ThumbnailCache(CACHED_IMAGES, 2 * 1024 * 1024, mPool, null);
+		ThumbnailScheduler.getInstance().setLoader(new StubLoader());
+
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mThumbnails = new ImageDownloadCollection(new Point(THUMBNAIL_WIDTH,
+						THUMBNAIL_HEIGHT), mCache);
+				mViews = new ImageView[VISIBLE_ROWS];
+				for (int i = 0; i < VISIBLE_ROWS; i++) {
+					mViews[i] = new ImageView(context);
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ThumbnailScheduler.getInstance().setLoader(null);
+		super.tearDown();
+	}
+
+	public void testGetReturnsSameSizeOnly() {
+		final BitmapPool pool = new BitmapPool(100, 100, 1024 * 1024);
+		final Bitmap bitmap = Bitmap.createBitmap(40, 60, Config.RGB_565);
+		assertTrue(pool.put(bitmap));
+		assertNull(pool.get(60, 40, Config.RGB_565));
+		assertNull(pool.get(40, 60, Config.ARGB_8888));
+		assertSame(bitmap, pool.get(40, 60, Config.RGB_565));
+		assertNull(pool.get(40, 60, Config.RGB_565));
+	}
+
+	public void testPutRejectsUnusableBitmaps() {
+		final BitmapPool pool = new BitmapPool(100, 100, 40 * 60 * 2);
+		// too large
+		assertFalse(pool.put(Bitmap.createBitmap(200, 60, Config.RGB_565)));
+		// immutable
+		final Bitmap immutable = Bitmap.createBitmap(Bitmap.createBitmap(40, 60, Config.RGB_565),
+				0, 0, 40, 60);
+		if (!immutable.isMutable())
+			assertFalse(pool.put(immutable));
+		// recycled
+		final Bitmap recycled = Bitmap.createBitmap(40, 60, Config.RGB_565);
+		recycled.recycle();
+		assertFalse(pool.put(recycled));
+		// over the limit
+		assertTrue(pool.put(Bitmap.createBitmap(40, 60, Config.RGB_565)));
+		assertFalse(pool.put(Bitmap.createBitmap(40, 60, Config.RGB_565)));
+	}
+
+	public void testScrollingBookListAdapter() throws Throwable {
+		final Context context = getInstrumentation().getTargetContext();
+		final DatabaseAdapter db = new DatabaseAdapter();
+		db.openInMemory(context, true);
+		try {
+			for (int i = 0; i < BOOK_COUNT; i++) {
+				final GoogleBook book = new GoogleBook();
+				book.title = "Book " + i;
+				book.save(db);
+			}
+			final BookListCursor list = BookListCursor.fetchAll(db,
+					BookListCursor.title_normalized_index, null);
+			final View[] rows = new View[VISIBLE_ROWS];
+			final FrameLayout[] parent = new FrameLayout[1];
+			runTestOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					mAdapter = new BookListAdapter(context, list, mThumbnails);
+					parent[0] = new FrameLayout(context);
+				}
+			});
+
+			// the first screen inflates the rows
+			bindAdapterRows(0, rows, parent[0]);
+
+			Debug.resetAllCounts();
+			Debug.startAllocCounting();
+			final long start = SystemClock.uptimeMillis();
+			int rowCount = 0;
+			for (int firstRow = 1; firstRow + VISIBLE_ROWS < BOOK_COUNT; firstRow++) {
+				bindAdapterRows(firstRow, rows, parent[0]);
+				while (!adapterRowsLoaded(firstRow)) {
+					SystemClock.sleep(5);
+				}
+				rowCount++;
+			}
+			final long end = SystemClock.uptimeMillis();
+			Debug.stopAllocCounting();
+			list.close();
+
+			final int objects = Debug.getGlobalAllocCount();
+			final int bytes = Debug.getGlobalAllocSize();
+			Log.i(TAG, "Scrolled BookListAdapter " + rowCount + " rows in " + (end - start)
+					+ " ms, allocated " + objects + " objects (" + objects / rowCount
+					+ " per row), " + bytes + " bytes (" + bytes / rowCount + " per row), "
+					+ mPool.getMissCount() + " thumbnails allocated, " + mPool.getHitCount()
+					+ " reused");
+
+			assertTrue(mPool.getMissCount() <= CACHED_IMAGES + 2 * VISIBLE_ROWS);
+			assertTrue(mPool.getHitCount() > 0);
+		} finally {
+			db.close();
+		}
+	}
+
+	public void testScrollingReusesEvictedBitmaps() throws Throwable {
+		final long start = SystemClock.uptimeMillis();
+		for (int firstRow = 0; firstRow + VISIBLE_ROWS < BOOK_COUNT; firstRow++) {
+			bindRows(firstRow);
+			while (!rowsLoaded(firstRow)) {
+				SystemClock.sleep(5);
+			}
+		}
+		final long end = SystemClock.uptimeMillis();
+
+		final int allocated = mPool.getMissCount();
+		final int reused = mPool.getHitCount();
+		Log.i(TAG, "Scrolled " + BOOK_COUNT + " rows in " + (end - start) + " ms, " + allocated
+				+ " thumbnails allocated, " + reused + " reused");
+
+		// only the cache and the visible rows should need their own bitmaps
+		assertTrue(allocated <= CACHED_IMAGES + 2 * VISIBLE_ROWS);
+		assertTrue(reused > 0);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+import com.wigwamlabs.util.BitmapUtils;
+
+public class BitmapUtilsTest extends TestCase {
+	private static byte[] createJpeg(int width, int height) {
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+		bitmap.eraseColor(0xff336699);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.compress(CompressFormat.JPEG, 90, out);
+		bitmap.recycle();
+		return out.toByteArray();
+	}
+
+	public void testCalculateInSampleSize() {
+		// already small enough
+		assertEquals(1, BitmapUtils.calculateInSampleSize(100, 150, 200, 300));
+		assertEquals(1, BitmapUtils.calculateInSampleSize(200, 300, 200, 300));
+		// less than half, don't subsample below target
+		assertEquals(1, BitmapUtils.calculateInSampleSize(300, 450, 200, 300));
+		assertEquals(2, BitmapUtils.calculateInSampleSize(400, 600, 200, 300));
+		assertEquals(2, BitmapUtils.calculateInSampleSize(700, 1050, 200, 300));
+		assertEquals(4, BitmapUtils.calculateInSampleSize(800, 1200, 200, 300));
+		// limited by the dimension that fits
+		assertEquals(8, BitmapUtils.calculateInSampleSize(1600, 1200, 200, 300));
+		// broken bounds
+		assertEquals(1, BitmapUtils.calculateInSampleSize(-1, -1, 200, 300));
+	}
+
+	public void testDecodeByteArray() {
+		final byte[] jpeg = createJpeg(1200, 1800);
+		final Bitmap thumbnail = BitmapUtils.decodeByteArray(jpeg, 80, 120);
+		assertEquals(80, thumbnail.getWidth());
+		assertEquals(120, thumbnail.getHeight());
+		assertEquals(Config.RGB_565, thumbnail.getConfig());
+
+		// full size ARGB_8888 decode vs 1/8 subsampled RGB_565 decode
+		final int fullBytes = 1200 * 1800 * 4;
+		final int sampledBytes = (1200 / 8) * (1800 / 8) * 2;
+		Log.i("BitmapUtilsTest", "Peak decode allocation " + fullBytes + " -> " + sampledBytes
+				+ " bytes");
+	}
+
+	public void testDecodeInvalidData() {
+		assertNull(BitmapUtils.decodeByteArray(new byte[] { 1, 2, 3 }, 80, 120));
+	}
+}
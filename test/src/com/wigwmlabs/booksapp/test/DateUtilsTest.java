@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wigwamlabs.util.DateUtils;
+
+public class DateUtilsTest extends TestCase {
+	private static final int BENCHMARK_ITERATIONS = 10000;
+	private static final String[] PATTERNS = { "yyyy-MM-dd", "yyyy-MM", "yyyy", "MM-dd",
+			"d/M/yyyy" };
+	private static final String TAG = "DateUtilsTest";
+
+	private static Date date(int year, int dayOfYear) {
+		final Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(Calendar.YEAR, year);
+		calendar.set(Calendar.DAY_OF_YEAR, dayOfYear);
+		return calendar.getTime();
+	}
+
+	private void assertFormatsLikeSimpleDateFormat(Date date) {
+		for (final String pattern : PATTERNS) {
+			assertEquals(new SimpleDateFormat(pattern).format(date),
+					DateUtils.format(pattern, date));
+		}
+	}
+
+	public void testConcurrentFormattingAndParsing() throws InterruptedException {
+		final AtomicInteger failures = new AtomicInteger();
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int year = 2000 + i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					final Date date = date(year, 32);
+					final String expected = "1/2/" + year;
+					for (int j = 0; j < 1000; j++) {
+						if (!expected.equals(DateUtils.format("d/M/yyyy", date)))
+							failures.incrementAndGet();
+						if (!date.equals(DateUtils.parseDate("yyyy-MM-dd", year + "-02-01")))
+							failures.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+	}
+
+	public void testFormat() {
+		assertNull(DateUtils.format("yyyy-MM-dd", null));
+
+		final Date date = date(2011, 64);
+		assertEquals("2011-03-05", DateUtils.format("yyyy-MM-dd", date));
+		assertEquals("2011-03", DateUtils.format("yyyy-MM", date));
+		assertEquals("2011", DateUtils.format("yyyy", date));
+		assertEquals("03-05", DateUtils.format("MM-dd", date));
+		assertEquals("[2011-3-5]", DateUtils.format("[y-M-d]", date));
+
+		// every day of a leap year
+		for (int day = 1; day <= 366; day++) {
+			assertFormatsLikeSimpleDateFormat(date(2012, day));
+		}
+		// zero padding and years the fast path leaves alone
+		final int[] years = { 1, 9, 99, 999, 1900, 9999, 10000 };
+		for (final int year : years) {
+			assertFormatsLikeSimpleDateFormat(date(year, 1));
+			assertFormatsLikeSimpleDateFormat(date(year, 365));
+		}
+	}
+
+	public void testFormatSparse() {
+		assertNull(DateUtils.formatSparse(null));
+		assertEquals("2011", DateUtils.formatSparse(date(2011, 1)));
+		assertEquals("2011-03", DateUtils.formatSparse(date(2011, 60)));
+		assertEquals("2011-03-05", DateUtils.formatSparse(date(2011, 64)));
+	}
+
+	public void testFormattingSpeed() {
+		final Date date = date(2011, 64);
+		final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
+		// warm up
+		formatter.format(date);
+		DateUtils.format("yyyy-MM-dd", date);
+		DateUtils.format("d/M/yyyy", date);
+
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			formatter.format(date);
+		}
+		final long formatterMs = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			DateUtils.format("yyyy-MM-dd", date);
+		}
+		final long fastMs = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			DateUtils.format("d/M/yyyy", date);
+		}
+		final long cachedMs = SystemClock.elapsedRealtime() - start;
+
+		Log.i(TAG, BENCHMARK_ITERATIONS + " dates: " + formatterMs + " ms SimpleDateFormat, "
+				+ fastMs + " ms fast path, " + cachedMs + " ms cached formatter");
+	}
+
+	public void testParseDate() {
+		assertEquals(date(1980, 1), DateUtils.parseDate("yyyy", "1980"));
+		assertEquals(date(2011, 64), DateUtils.parseDate("yyyy-MM-dd", "2011-03-05"));
+		assertNull(DateUtils.parseDate("yyyy-MM-dd", "(invalid)"));
+
+		// switching patterns doesn't affect other patterns
+		assertEquals(date(2011, 64), DateUtils.parseDate("d/M/yyyy", "5/3/2011"));
+		assertEquals(date(1980, 1), DateUtils.parseDate("yyyy", "1980"));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.google.zxing.client.android.DecodePipeline;
+
+public class DecodePipelineTest extends TestCase {
+	private static final String ISBN = "9780201633610";
+	private static final String TAG = "DecodePipelineTest";
+	private static final long TIMEOUT_MS = 5000;
+	private YuvFrameReplay.PipelineCallback mCallback;
+	private DecodePipeline mPipeline;
+
+	private static byte[] createFrame(String ean, long seed) {
+		return YuvFrameReplay.createFrame(ean, YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT, seed);
+	}
+
+	private boolean offer(byte[] frame) {
+		return mPipeline.offer(frame, YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCallback = new YuvFrameReplay.PipelineCallback();
+		mPipeline = new DecodePipeline(YuvFrameReplay.createHints(), false, 3, mCallback);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mPipeline.quit();
+		super.tearDown();
+	}
+
+	public void testAllFramesReleased() {
+		mPipeline.start();
+		final int count = 20;
+		for (int i = 0; i < count; i++) {
+			offer(createFrame(null, i));
+		}
+		mPipeline.quit();
+		assertEquals(count, mCallback.getReleaseCount());
+	}
+
+	public void testDecode() {
+		mPipeline.start();
+		assertTrue(offer(createFrame(ISBN, 0)));
+		assertTrue(mCallback.waitForDecode(TIMEOUT_MS));
+		assertEquals(ISBN, mCallback.getResult().getText());
+	}
+
+	public void testPausedUntilStarted() {
+		assertFalse(offer(createFrame(ISBN, 0)));
+		assertEquals(1, mCallback.getReleaseCount());
+		assertFalse(mCallback.waitForDecode(100));
+	}
+
+	public void testSucceedsOncePerStart() throws Exception {
+		mPipeline.start();
+		for (int i = 0; i < 10; i++) {
+			offer(createFrame(ISBN, i));
+		}
+		assertTrue(mCallback.waitForDecode(TIMEOUT_MS));
+		// paused once a barcode is found
+		assertFalse(offer(createFrame(ISBN, 10)));
+		Thread.sleep(200);
+		assertEquals(1, mCallback.getDecodeCount());
+
+		mPipeline.start();
+		final long timeout = System.currentTimeMillis() + TIMEOUT_MS;
+		while (mCallback.getDecodeCount() < 2) {
+			assertTrue(System.currentTimeMillis() < timeout);
+			offer(createFrame(ISBN, 11));
+			Thread.sleep(20);
+		}
+		assertEquals(2, mCallback.getDecodeCount());
+	}
+
+	public void testTimeToFirstDecode() {
+		final List<byte[]> frames = YuvFrameReplay.createFrames(ISBN, 10);
+		final int maxWorkers = DecodePipeline.getDefaultWorkerCount();
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			final long ms = YuvFrameReplay.timeToFirstDecode(frames, YuvFrameReplay.WIDTH,
+					YuvFrameReplay.HEIGHT, false, workers, YuvFrameReplay.CAMERA_FRAME_MS);
+			assertTrue(ms >= 0);
+			Log.i(TAG, workers + " worker(s): " + ms + " ms to first decode");
+		}
+	}
+}
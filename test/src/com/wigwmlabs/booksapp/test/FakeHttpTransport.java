@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
+
+/**
+ * Answers GET requests with {@link #answer(String)} instead of going to the
+ * network, both when installed as the low-level transport and when wrapped
+ * in a {@link com.wigwamlabs.booksapp.HttpTransportCache}.
+ */
+public abstract class FakeHttpTransport extends LowLevelHttpTransport {
+	public static class FakeResponse extends LowLevelHttpResponse {
+		private final byte[] mContent;
+
+		public FakeResponse(byte[] content) {
+			mContent = content;
+		}
+
+		public FakeResponse(String content) {
+			this(content.getBytes());
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new ByteArrayInputStream(mContent);
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return mContent.length;
+		}
+
+		@Override
+		public String getContentType() {
+			return "text/plain";
+		}
+
+		@Override
+		public int getHeaderCount() {
+			return 0;
+		}
+
+		@Override
+		public String getHeaderName(int index) {
+			return null;
+		}
+
+		@Override
+		public String getHeaderValue(int index) {
+			return null;
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return "OK";
+		}
+
+		@Override
+		public int getStatusCode() {
+			return 200;
+		}
+
+		@Override
+		public String getStatusLine() {
+			return "HTTP/1.1 200 OK";
+		}
+	}
+
+	public static byte[] readRawResource(Context context, int id) throws IOException {
+		final InputStream in = context.getResources().openRawResource(id);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	public final List<String> headers = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Called on the thread executing the request, throw to fail it.
+	 */
+	protected abstract LowLevelHttpResponse answer(String url) throws IOException;
+
+	@Override
+	public LowLevelHttpRequest buildDeleteRequest(String url) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public LowLevelHttpRequest buildGetRequest(final String url) {
+		return new LowLevelHttpRequest() {
+			@Override
+			public void addHeader(String name, String value) {
+				headers.add(name + ": " + value);
+			}
+
+			@Override
+			public LowLevelHttpResponse execute() throws IOException {
+				return answer(url);
+			}
+
+			@Override
+			public void setContent(HttpContent content) {
+			}
+		};
+	}
+
+	@Override
+	public LowLevelHttpRequest buildPostRequest(String url) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public LowLevelHttpRequest buildPutRequest(String url) {
+		throw new UnsupportedOperationException();
+	}
+}
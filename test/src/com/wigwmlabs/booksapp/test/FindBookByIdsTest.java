@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import com.wigwamlabs.booksapp.db.BookDetailCursor;
+import com.wigwamlabs.booksapp.db.BookEntry;
+import com.wigwamlabs.booksapp.db.IsbnSearchCursor;
+
+public class FindBookByIdsTest extends DatabaseTestCase {
+	private long addBook(String isbn10, String isbn13, String googleId) {
+		final BookEntry be = new BookEntry();
+		be.setTitle("title", null);
+		be.setIsbns(isbn10, isbn13);
+		be.setGoogleId(googleId);
+		return be.executeInsertInTransaction(mDb);
+	}
+
+	private Long find(String isbn10, String isbn13, String googleId) {
+		return BookDetailCursor.findBookByIds(mDb, isbn10, isbn13, googleId);
+	}
+
+	public void testFindsByGoogleId() {
+		final long id = addBook(null, null, "googleId");
+		assertEquals(Long.valueOf(id), find(null, null, "googleId"));
+		assertNull(find(null, null, "otherId"));
+	}
+
+	public void testFindsByInvalidIsbn() {
+		final long id = addBook("123", "456", null);
+		assertEquals(Long.valueOf(id), find("123", null, null));
+		assertEquals(Long.valueOf(id), find(null, "456", null));
+		assertNull(find("0307269752", null, null));
+	}
+
+	public void testFindsIsbn10AsIsbn13() {
+		final long id = addBook("0-307-26975-2", null, null);
+		assertEquals(Long.valueOf(id), find(null, "9780307269751", null));
+		assertEquals(Long.valueOf(id), find("0307269752", null, null));
+		assertNull(find(null, "9780307269752", null));
+		assertNull(find(null, null, null));
+	}
+
+	public void testFindsIsbn13AsIsbn10() {
+		final long id = addBook(null, "978-0-307-26975-1", null);
+		assertEquals(Long.valueOf(id), find("0307269752", null, null));
+		assertEquals(Long.valueOf(id), find(null, "9780307269751", null));
+	}
+
+	public void testSearchByIsbns() {
+		final long id1 = addBook("0307269752", null, null);
+		final long id2 = addBook(null, "9780804429573", null);
+		addBook("123", null, null);
+
+		final IsbnSearchCursor c = IsbnSearchCursor.searchByIsbns(mDb, new long[] {
+				9780307269751L, 9780804429573L, 9780306406157L });
+		assertEquals(2, c.getCount());
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			if (c.isbn() == 9780307269751L)
+				assertEquals(id1, c._id());
+			else
+				assertEquals(id2, c._id());
+		}
+		c.close();
+	}
+
+	public void testUpdatingOneIsbnKeepsTheOther() {
+		final long id = addBook(null, "9780307269751", null);
+		final BookEntry isbn10 = new BookEntry();
+		isbn10.setIsbn10("123");
+		isbn10.executeUpdateInTransaction(mDb, id);
+		assertEquals(Long.valueOf(id), find(null, "9780307269751", null));
+		assertEquals(Long.valueOf(id), find("123", null, null));
+
+		// the valid ISBN-10 is used once the ISBN-13 is cleared
+		final BookEntry isbn13 = new BookEntry();
+		isbn13.setIsbn13(null);
+		isbn13.executeUpdateInTransaction(mDb, id);
+		assertNull(find(null, "9780307269751", null));
+		isbn10.setIsbn10("0307269752");
+		isbn10.executeUpdateInTransaction(mDb, id);
+		assertEquals(Long.valueOf(id), find(null, "9780307269751", null));
+	}
+}
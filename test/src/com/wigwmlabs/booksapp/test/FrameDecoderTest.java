@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.client.android.FrameDecoder;
+import com.google.zxing.client.android.PlanarYUVLuminanceSource;
+
+public class FrameDecoderTest extends TestCase {
+	private static final String ISBN_1 = "9780201633610";
+	private static final String ISBN_2 = "9780596007126";
+	// not a book
+	private static final String OTHER_EAN = "5901234123457";
+	private static final String TAG = "FrameDecoderTest";
+
+	private static PlanarYUVLuminanceSource createSource() {
+		return new PlanarYUVLuminanceSource(new byte[YuvFrameReplay.WIDTH * YuvFrameReplay.HEIGHT
+				* 3 / 2], YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT, YuvFrameReplay.CROP_LEFT,
+				YuvFrameReplay.CROP_TOP, YuvFrameReplay.CROP_WIDTH, YuvFrameReplay.CROP_HEIGHT);
+	}
+
+	private static byte[] createFrame(String ean, long seed) {
+		return YuvFrameReplay.createFrame(ean, YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT, seed);
+	}
+
+	private static byte[] rotate(byte[] frame) {
+		final int size = YuvFrameReplay.WIDTH * YuvFrameReplay.HEIGHT;
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			final byte b = frame[i];
+			frame[i] = frame[j];
+			frame[j] = b;
+		}
+		return frame;
+	}
+
+	public void testBookScanning() {
+		final FrameDecoder decoder = new FrameDecoder(YuvFrameReplay.createHints(), true);
+		final PlanarYUVLuminanceSource source = createSource();
+		assertEquals(ISBN_1, decoder.decode(source, createFrame(ISBN_1, 0)).getText());
+		assertNull(decoder.decode(source, createFrame(null, 1)));
+		assertEquals(ISBN_2, decoder.decode(source, rotate(createFrame(ISBN_2, 2))).getText());
+	}
+
+	public void testBookScanningFallsBackToAllRows() {
+		final FrameDecoder decoder = new FrameDecoder(YuvFrameReplay.createHints(), true);
+		final PlanarYUVLuminanceSource source = createSource();
+		// the barcode is above the rows that are scanned first
+		int misses = 0;
+		for (int i = 0; i < 10; i++) {
+			final Result result = decoder.decode(source, YuvFrameReplay.createFrame(ISBN_1,
+					YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT, i, 40, 40));
+			if (result != null) {
+				assertEquals(ISBN_1, result.getText());
+				break;
+			}
+			misses++;
+		}
+		assertTrue(misses > 0);
+		assertTrue(misses < 10);
+	}
+
+	public void testBookScanningIgnoresOtherBarcodes() {
+		final FrameDecoder decoder = new FrameDecoder(YuvFrameReplay.createHints(), true);
+		final PlanarYUVLuminanceSource source = createSource();
+		for (int i = 0; i < 10; i++) {
+			assertNull(decoder.decode(source, createFrame(OTHER_EAN, i)));
+		}
+		assertNotNull(new FrameDecoder(YuvFrameReplay.createHints()).decode(source,
+				createFrame(OTHER_EAN, 0)));
+	}
+
+	public void testDecode() {
+		final FrameDecoder decoder = new FrameDecoder(YuvFrameReplay.createHints());
+		final Result result = decoder.decode(createSource(), createFrame(ISBN_1, 0));
+		assertNotNull(result);
+		assertEquals(ISBN_1, result.getText());
+		assertEquals(BarcodeFormat.EAN_13, result.getBarcodeFormat());
+	}
+
+	public void testDecodeSequence() {
+		final List<byte[]> frames = YuvFrameReplay.createFrames(ISBN_1, 10);
+		final Result result = YuvFrameReplay.decodeFirst(
+				new FrameDecoder(YuvFrameReplay.createHints()), frames);
+		assertNotNull(result);
+		assertEquals(ISBN_1, result.getText());
+	}
+
+	public void testFrameRate() {
+		final List<byte[]> frames = YuvFrameReplay.createFrames(ISBN_1, 10);
+		final int width = YuvFrameReplay.WIDTH;
+		final int height = YuvFrameReplay.HEIGHT;
+		final String[] modes = { "allocating", "book scanning", "reusing" };
+		for (int mode = 0; mode < modes.length; mode++) {
+			YuvFrameReplay.replay(frames, width, height, mode, 1); // warm up
+			final double fps = YuvFrameReplay.replay(frames, width, height, mode, 5);
+			Log.i(TAG, modes[mode] + ": " + fps + " frames/s");
+		}
+	}
+
+	public void testIsBookland() {
+		assertTrue(FrameDecoder.isBookland(ISBN_1));
+		assertTrue(FrameDecoder.isBookland("9791234567896"));
+		assertFalse(FrameDecoder.isBookland(OTHER_EAN));
+		assertFalse(FrameDecoder.isBookland("978123"));
+	}
+
+	public void testReusedBetweenFrames() {
+		final FrameDecoder decoder = new FrameDecoder(YuvFrameReplay.createHints());
+		final PlanarYUVLuminanceSource source = createSource();
+
+		assertEquals(ISBN_1, decoder.decode(source, createFrame(ISBN_1, 1)).getText());
+		// nothing left from the previous frame
+		assertNull(decoder.decode(source, createFrame(null, 2)));
+		assertEquals(ISBN_2, decoder.decode(source, createFrame(ISBN_2, 3)).getText());
+		assertSame(source, decoder.getLuminanceSource());
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.File;
+
+import android.test.InstrumentationTestCase;
+
+import com.wigwamlabs.booksapp.GoogleBookCache;
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwmlabs.booksapp.test.ExpectedResult.Books;
+
+public class GoogleBookCacheTest extends InstrumentationTestCase {
+	private static GoogleBook fullBook(GoogleBook expected) {
+		final GoogleBook book = new GoogleBook();
+		book.averageRating = Float.valueOf(3.5f);
+		book.creators = expected.creators;
+		book.creatorsText = expected.creatorsText;
+		book.description = expected.description;
+		book.dimensions = expected.dimensions;
+		book.googleId = expected.googleId;
+		book.isbn10 = expected.isbn10;
+		book.isbn13 = expected.isbn13;
+		book.isFullBook = true;
+		book.pageCount = expected.pageCount;
+		book.publisher = expected.publisher;
+		book.releaseDate = expected.releaseDate;
+		book.subjects = expected.subjects;
+		book.subtitle = expected.subtitle;
+		book.thumbnailLargeUrl = expected.thumbnailLargeUrl;
+		book.thumbnailSmallUrl = expected.thumbnailSmallUrl;
+		book.title = expected.title;
+		return book;
+	}
+
+	private File mDiskDir;
+
+	private void assertBookEquals(GoogleBook expected, GoogleBook actual) {
+		assertNotSame(expected, actual);
+		assertTrue(actual.isFullBook);
+		assertEquals(expected.averageRating, actual.averageRating);
+		assertEquals(expected.creators, actual.creators);
+		assertEquals(expected.creatorsText, actual.creatorsText);
+		assertEquals(expected.description, actual.description);
+		assertEquals(expected.dimensions, actual.dimensions);
+		assertEquals(expected.googleId, actual.googleId);
+		assertEquals(expected.isbn10, actual.isbn10);
+		assertEquals(expected.isbn13, actual.isbn13);
+		assertEquals(expected.pageCount, actual.pageCount);
+		assertEquals(expected.publisher, actual.publisher);
+		assertEquals(expected.releaseDate, actual.releaseDate);
+		assertEquals(expected.subjects, actual.subjects);
+		assertEquals(expected.subtitle, actual.subtitle);
+		assertEquals(expected.thumbnailLargeUrl, actual.thumbnailLargeUrl);
+		assertEquals(expected.thumbnailSmallUrl, actual.thumbnailSmallUrl);
+		assertEquals(expected.title, actual.title);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDiskDir = new File(getInstrumentation().getTargetContext().getCacheDir(), "books-test");
+		new GoogleBookCache(1, mDiskDir).clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new GoogleBookCache(1, mDiskDir).clear();
+		mDiskDir.delete();
+		super.tearDown();
+	}
+
+	public void testBooksAreCopied() {
+		final GoogleBookCache cache = new GoogleBookCache(10, null);
+		final GoogleBook book = fullBook(Books.DragonTattoo_Full);
+		cache.put(book);
+		book.title = "Changed";
+
+		final GoogleBook cached = cache.get(book.googleId);
+		assertEquals(Books.DragonTattoo_Full.title, cached.title);
+		cached.title = "Changed";
+		assertEquals(Books.DragonTattoo_Full.title, cache.get(book.googleId).title);
+	}
+
+	public void testDiskLevel() {
+		final GoogleBook book = fullBook(Books.UML);
+		new GoogleBookCache(10, mDiskDir).put(book);
+
+		// a new cache only has the book on disk
+		final GoogleBookCache cache = new GoogleBookCache(10, mDiskDir);
+		assertNull(cache.get(book.googleId));
+		assertBookEquals(book, cache.load(book.googleId));
+		// and in memory once loaded
+		assertBookEquals(book, cache.get(book.googleId));
+	}
+
+	public void testLeastRecentlyUsedIsEvicted() {
+		final GoogleBookCache cache = new GoogleBookCache(2, null);
+		final GoogleBook b1 = fullBook(Books.DragonTattoo_Full);
+		final GoogleBook b2 = fullBook(Books.Stardust);
+		final GoogleBook b3 = fullBook(Books.UML);
+		cache.put(b1);
+		cache.put(b2);
+		cache.get(b1.googleId);
+		cache.put(b3);
+
+		assertNotNull(cache.get(b1.googleId));
+		assertNull(cache.get(b2.googleId));
+		assertNotNull(cache.get(b3.googleId));
+		// without a second level the book is gone
+		assertNull(cache.load(b2.googleId));
+	}
+
+	public void testMemoryLevel() {
+		final GoogleBookCache cache = new GoogleBookCache(10, null);
+		assertNull(cache.get(Books.Stardust.googleId));
+
+		final GoogleBook book = fullBook(Books.Stardust);
+		cache.put(book);
+		assertBookEquals(book, cache.get(book.googleId));
+		assertBookEquals(book, cache.load(book.googleId));
+	}
+}
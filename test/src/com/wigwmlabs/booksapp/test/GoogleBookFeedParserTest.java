@@ -0,0 +1,251 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.google.api.client.xml.Xml;
+import com.wigwamlabs.booksapp.test.R;
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwamlabs.googlebooks.GoogleBookFeed;
+import com.wigwamlabs.googlebooks.GoogleBookFeedParser;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+import com.wigwmlabs.booksapp.test.ExpectedResult.Books;
+
+public class GoogleBookFeedParserTest extends InstrumentationTestCase {
+	private static final int BENCHMARK_ITERATIONS = 50;
+	private static final int CONCURRENT_PARSING_THREADS = 4;
+	private static final int SCRUB_BENCHMARK_BOOKS = 10000;
+	private static final String TAG = "GoogleBookFeedParserTest";
+
+	private static GoogleBookFeed parseReflectively(InputStream in) throws IOException,
+			XmlPullParserException {
+		final XmlPullParser parser = Xml.createParser();
+		parser.setInput(in, null);
+		final GoogleBookFeed feed = new GoogleBookFeed();
+		Xml.parseElement(parser, feed, GoogleBookSearch.Namespace.DICTIONARY, null);
+		feed.scrub();
+		return feed;
+	}
+
+	private static GoogleBookFeed parseStreaming(InputStream in) throws IOException {
+		return new GoogleBookFeedParser(null).parse(in);
+	}
+
+	private static <T> List<T> rawCopy(List<T> list) {
+		return (list != null ? new ArrayList<T>(list) : null);
+	}
+
+	/**
+	 * Returns a book with only the fields that scrub() reads.
+	 */
+	private static GoogleBook rawCopy(GoogleBook book) {
+		final GoogleBook copy = new GoogleBook();
+		copy.creators = rawCopy(book.creators);
+		copy.dates = rawCopy(book.dates);
+		copy.descriptions = rawCopy(book.descriptions);
+		copy.formats = rawCopy(book.formats);
+		copy.identifiers = rawCopy(book.identifiers);
+		copy.links = rawCopy(book.links);
+		copy.publishers = rawCopy(book.publishers);
+		copy.rating = book.rating;
+		copy.subjects = rawCopy(book.subjects);
+		copy.titles = rawCopy(book.titles);
+		return copy;
+	}
+
+	private byte[] mFeed;
+
+	private void assertBookEquals(GoogleBook expected, GoogleBook actual) {
+		assertEquals(expected.averageRating, actual.averageRating);
+		assertEquals(expected.creators, actual.creators);
+		assertEquals(expected.creatorsText, actual.creatorsText);
+		assertEquals(expected.description, actual.description);
+		assertEquals(expected.dimensions, actual.dimensions);
+		assertEquals(expected.googleId, actual.googleId);
+		assertEquals(expected.isbn10, actual.isbn10);
+		assertEquals(expected.isbn13, actual.isbn13);
+		assertEquals(expected.pageCount, actual.pageCount);
+		assertEquals(expected.publisher, actual.publisher);
+		assertEquals(expected.releaseDate, actual.releaseDate);
+		assertEquals(expected.subjects, actual.subjects);
+		assertEquals(expected.subtitle, actual.subtitle);
+		assertEquals(expected.thumbnailLargeUrl, actual.thumbnailLargeUrl);
+		assertEquals(expected.thumbnailSmallUrl, actual.thumbnailSmallUrl);
+		assertEquals(expected.title, actual.title);
+	}
+
+	private InputStream openFeed() {
+		return new ByteArrayInputStream(mFeed);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final InputStream in = getInstrumentation().getContext().getResources()
+				.openRawResource(R.raw.volumes_feed);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		mFeed = out.toByteArray();
+	}
+
+	public void testBooksAreDeliveredWhileParsing() throws IOException {
+		final List<GoogleBook> delivered = new ArrayList<GoogleBook>();
+		final GoogleBookFeed feed = new GoogleBookFeedParser(new GoogleBookFeedParser.Callback() {
+			@Override
+			public void onBookParsed(GoogleBook book) {
+				assertNotNull(book.title);
+				delivered.add(book);
+			}
+		}).parse(openFeed());
+
+		assertEquals(feed.books, delivered);
+	}
+
+	public void testConcurrentParsing() throws Exception {
+		// isbn searches parse feeds on several threads at once
+		final GoogleBookFeed expected = parseStreaming(openFeed());
+		final List<GoogleBookFeed> feeds = Collections
+				.synchronizedList(new ArrayList<GoogleBookFeed>());
+		final List<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
+		final Thread[] threads = new Thread[CONCURRENT_PARSING_THREADS];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < BENCHMARK_ITERATIONS; j++) {
+							feeds.add(parseStreaming(openFeed()));
+						}
+					} catch (final Exception e) {
+						exceptions.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(Collections.emptyList(), exceptions);
+		assertEquals(CONCURRENT_PARSING_THREADS * BENCHMARK_ITERATIONS, feeds.size());
+		for (final GoogleBookFeed actual : feeds) {
+			assertEquals(expected.books.size(), actual.books.size());
+			for (int i = 0; i < expected.books.size(); i++) {
+				assertBookEquals(expected.books.get(i), actual.books.get(i));
+			}
+		}
+	}
+
+	public void testFeed() throws IOException {
+		final GoogleBookFeed feed = parseStreaming(openFeed());
+		assertEquals(12, feed.totalResults);
+		assertEquals("http://www.google.com/books/feeds/volumes"
+				+ "?q=SEARCH_QUERY&start-index=5&max-results=4", feed.nextUrl);
+		assertEquals(4, feed.books.size());
+
+		final GoogleBook[] expectedBooks = { Books.DragonTattoo, Books.PippiLongstocking,
+				Books.Stardust, Books.UML };
+		for (int i = 0; i < expectedBooks.length; i++) {
+			final GoogleBook expected = expectedBooks[i];
+			final GoogleBook actual = feed.books.get(i);
+			assertEquals(expected.googleId, actual.googleId);
+			assertEquals(expected.isbn13, actual.isbn13);
+			assertEquals(expected.releaseDate, actual.releaseDate);
+			assertEquals(expected.subtitle, actual.subtitle);
+			assertEquals(expected.title, actual.title);
+			assertFalse(actual.isFullBook);
+		}
+	}
+
+	public void testParsingSpeed() throws IOException, XmlPullParserException {
+		// warm up
+		parseReflectively(openFeed());
+		parseStreaming(openFeed());
+
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			parseReflectively(openFeed());
+		}
+		final long reflectiveMs = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			parseStreaming(openFeed());
+		}
+		final long streamingMs = SystemClock.elapsedRealtime() - start;
+
+		Log.i(TAG, BENCHMARK_ITERATIONS + " feeds: " + reflectiveMs + " ms reflective, "
+				+ streamingMs + " ms streaming");
+	}
+
+	public void testSameAsReflectiveParser() throws IOException, XmlPullParserException {
+		final GoogleBookFeed expected = parseReflectively(openFeed());
+		final GoogleBookFeed actual = parseStreaming(openFeed());
+
+		assertEquals(expected.totalResults, actual.totalResults);
+		assertEquals(expected.nextUrl, actual.nextUrl);
+		assertEquals(expected.books.size(), actual.books.size());
+		for (int i = 0; i < expected.books.size(); i++) {
+			assertBookEquals(expected.books.get(i), actual.books.get(i));
+		}
+	}
+
+	public void testScrubbingSpeed() throws IOException, XmlPullParserException {
+		// the raw fields of the recorded entries, repeated
+		final List<GoogleBook> recorded = parseReflectively(openFeed()).books;
+		final List<GoogleBook> books = new ArrayList<GoogleBook>(SCRUB_BENCHMARK_BOOKS);
+		for (int i = 0; i < SCRUB_BENCHMARK_BOOKS; i++) {
+			books.add(rawCopy(recorded.get(i % recorded.size())));
+		}
+
+		// warm up
+		for (final GoogleBook book : recorded) {
+			book.scrub();
+		}
+
+		final long start = SystemClock.elapsedRealtime();
+		for (final GoogleBook book : books) {
+			book.scrub();
+		}
+		final long scrubMs = SystemClock.elapsedRealtime() - start;
+
+		for (int i = 0; i < SCRUB_BENCHMARK_BOOKS; i++) {
+			assertBookEquals(recorded.get(i % recorded.size()), books.get(i));
+		}
+		Log.i(TAG, SCRUB_BENCHMARK_BOOKS + " books scrubbed: " + scrubMs + " ms");
+	}
+}
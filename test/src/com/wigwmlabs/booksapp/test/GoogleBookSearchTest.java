@@ -17,12 +17,14 @@
 package com.wigwmlabs.booksapp.test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.test.InstrumentationTestCase;
-import android.util.Log;
 
 import com.google.api.client.apache.ApacheHttpTransport;
+import com.wigwamlabs.booksapp.CacheConfig;
 import com.wigwamlabs.booksapp.HttpTransportCache;
 import com.wigwamlabs.googlebooks.GoogleBook;
 import com.wigwamlabs.googlebooks.GoogleBookFeed;
@@ -61,33 +63,15 @@ public class GoogleBookSearchTest extends InstrumentationTestCase {
 		assertGeneratedDataEquals(expectedBook, actualBook);
 	}
 
-	private void assertResultEquals(GoogleBookFeed result, GoogleBook... expectedBooks)
-			throws IOException {
-		String expected = "";
-		for (final GoogleBook book : expectedBooks) {
-			expected += "<entry>"
-					+ GoogleApiTestUtilities.objectToXml(book,
-							GoogleBookSearch.Namespace.DICTIONARY) + "</entry>";
-		}
-		String actual = GoogleApiTestUtilities.objectToXml(result,
-				GoogleBookSearch.Namespace.DICTIONARY);
-		// remove dynamic content from links
-		actual = actual.replaceAll("&amp;dq=[^&]+", "&amp;dq=SEARCH_QUERY");
-		actual = actual.replaceAll("&amp;cd=\\d+", "&amp;cd=X");
-		// remove feed links
-		final int finalEntry = actual.lastIndexOf("</entry>");
-		actual = actual.substring(0, finalEntry + 8);
-		// remove actual rating
-		actual = actual.replaceAll("average=\"[0-9.]+\"", "average=\"3.5\"");
-
-		if (!expected.equals(actual))
-			Log.d("XXX", "Expected: " + expected + "\n but got: " + actual);
-		assertEquals(expected, actual);
-
-		// check isbns as they are not in the generated xml
-		for (int i = 0; i < Math.min(result.books.size(), expectedBooks.length); i++) {
+	private void assertResultEquals(GoogleBookFeed result, GoogleBook... expectedBooks) {
+		// feeds are parsed straight into the generated data
+		assertEquals(expectedBooks.length, result.books.size());
+		for (int i = 0; i < expectedBooks.length; i++) {
 			final GoogleBook expectedBook = expectedBooks[i];
 			final GoogleBook actualBook = result.books.get(i);
+			assertEquals(expectedBook.creators, actualBook.creators);
+			assertEquals(expectedBook.creatorsText, actualBook.creatorsText);
+			assertEquals(expectedBook.subjects, actualBook.subjects);
 			assertGeneratedDataEquals(expectedBook, actualBook);
 		}
 	}
@@ -98,6 +82,8 @@ public class GoogleBookSearchTest extends InstrumentationTestCase {
 		// TODO should be getContext() but it returns a broken context
 		final Context context = getInstrumentation().getTargetContext();
 		HttpTransportCache.install(ApacheHttpTransport.INSTANCE, context);
+		// always parse full books from the responses
+		CacheConfig.getGoogleBookCache(context).clear();
 		mSearch = new GoogleBookSearch(context);
 	}
 
@@ -108,9 +94,6 @@ public class GoogleBookSearchTest extends InstrumentationTestCase {
 
 		final GoogleBook b = result.books.get(0);
 		assertFalse(b.description.contains("&"));
-
-		// make sure the original description did indeed contain &
-		assertTrue(b.descriptions.get(0).contains("&"));
 	}
 
 	public void testMergeWithFullBook() throws IOException {
@@ -199,6 +182,26 @@ public class GoogleBookSearchTest extends InstrumentationTestCase {
 		assertTrue(foundBookWithoutIsbn);
 	}
 
+	public void testSearchInBatches() throws IOException {
+		final List<List<GoogleBook>> batches = new ArrayList<List<GoogleBook>>();
+		final GoogleBookFeed result = mSearch.searchByTitle("wellpapp").execute(
+				new FeedSearch.BatchListener() {
+					@Override
+					public void onBooksParsed(List<GoogleBook> books) {
+						batches.add(books);
+					}
+				});
+
+		// the first book is delivered on its own, the rest together
+		assertTrue(batches.size() > 1);
+		assertEquals(1, batches.get(0).size());
+		final List<GoogleBook> books = new ArrayList<GoogleBook>();
+		for (final List<GoogleBook> batch : batches) {
+			books.addAll(batch);
+		}
+		assertEquals(result.books, books);
+	}
+
 	public void testSearchNext() throws IOException {
 		GoogleBookFeed result = mSearch.searchByTitle("wellpapp").execute();
 		int numResults = result.books.size();
@@ -17,6 +17,9 @@
 package com.wigwmlabs.booksapp.test;
 
 import static com.wigwmlabs.booksapp.test.GoogleApiTestUtilities.toList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestCase;
 
 import com.wigwamlabs.googlebooks.GoogleBook;
@@ -45,10 +48,54 @@ public class GoogleBookTest extends TestCase {
 		b.scrub();
 		assertEquals("[1980-1-1]", DateUtils.format("[y-M-d]", b.releaseDate));
 
+		// month without day is treated as year only
+		b.dates = toList("2005-08");
+		b.scrub();
+		assertEquals("[2005-1-1]", DateUtils.format("[y-M-d]", b.releaseDate));
+
+		// anything after the date is ignored
+		b.dates = toList("2001-02-03T04:05:06");
+		b.scrub();
+		assertEquals("[2001-2-3]", DateUtils.format("[y-M-d]", b.releaseDate));
+
+		// out of range values roll over
+		b.dates = toList("2010-02-30");
+		b.scrub();
+		assertEquals("[2010-3-2]", DateUtils.format("[y-M-d]", b.releaseDate));
+
 		// don't choke on invalid date
 		b.dates = toList("(invalid)");
 		b.scrub();
 		assertNull(b.releaseDate);
+
+		b.dates = toList("");
+		b.scrub();
+		assertNull(b.releaseDate);
+	}
+
+	public void testScrubbingDatesConcurrently() throws InterruptedException {
+		final AtomicInteger failures = new AtomicInteger();
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int day = i + 1;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					final GoogleBook b = new GoogleBook();
+					b.dates = toList("2010-05-" + day);
+					for (int j = 0; j < 1000; j++) {
+						b.scrub();
+						if (b.releaseDate.getDate() != day)
+							failures.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
 	}
 
 	public void testScrubbingDescriptions() {
@@ -73,8 +120,10 @@ public class GoogleBookTest extends TestCase {
 		assertEquals("10.8x17.4x3.6 cm", b.dimensions);
 
 		// don't crash on invalid format
-		b.formats = toList("1_2_3 pages");
+		b.formats = toList("1_2_3 pages", " pages", "-5 pages", "12345678901 pages");
+		b.pageCount = null;
 		b.scrub();
+		assertNull(b.pageCount);
 	}
 
 	public void testScrubbingIdentifiers() {
@@ -98,6 +147,16 @@ public class GoogleBookTest extends TestCase {
 		assertEquals("CDjYAAAAMAAJ", b.googleId);
 	}
 
+	public void testScrubbingIdentifiersWithWhitespace() {
+		final GoogleBook b = new GoogleBook();
+		b.identifiers = toList("ISBN: 0123456789 ", "ISBN:012345678", "ISBN:\t0123456789012");
+		b.scrub();
+
+		assertNull(b.googleId);
+		assertEquals("0123456789", b.isbn10);
+		assertEquals("0123456789012", b.isbn13);
+	}
+
 	public void testScrubbingLinks() {
 		final GoogleBook b = new GoogleBook();
 		final GoogleLink l = new GoogleLink();
@@ -108,6 +167,15 @@ public class GoogleBookTest extends TestCase {
 
 		assertEquals("http://thumbnail?id=1&zoom=5", b.thumbnailSmallUrl);
 		assertEquals("http://thumbnail?id=1&zoom=1", b.thumbnailLargeUrl);
+
+		// other links are ignored
+		l.rel = "http://schemas.google.com/books/2008/info";
+		l.href = "http://info?id=1";
+		b.thumbnailSmallUrl = null;
+		b.thumbnailLargeUrl = null;
+		b.scrub();
+		assertNull(b.thumbnailSmallUrl);
+		assertNull(b.thumbnailLargeUrl);
 	}
 
 	public void testScrubbingPublishers() {
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.widget.FrameLayout;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
+import com.wigwamlabs.booksapp.GoogleSearchAdapter;
+import com.wigwamlabs.booksapp.ImageDownloadCollection;
+import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.booksapp.test.R;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+import com.wigwamlabs.googlebooks.GoogleBookSearch.FeedSearch;
+import com.wigwamlabs.util.ListViewUtils.State;
+import com.wigwamlabs.util.ListViewUtils.StateListener;
+
+public class GoogleSearchAdapterTest extends DatabaseTestCase {
+	/**
+	 * Answers every search with the recorded feed, whose next page is the
+	 * same feed again.
+	 */
+	static class FeedTransport extends FakeHttpTransport {
+		public volatile boolean failNextPages;
+		private final byte[] mFeed;
+		public volatile CountDownLatch nextPageGate;
+		public final List<String> nextPageUrls = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		public FeedTransport(byte[] feed) {
+			mFeed = feed;
+		}
+
+		@Override
+		protected LowLevelHttpResponse answer(String url) throws IOException {
+			// thumbnails aren't downloaded
+			if (!url.contains("feeds/volumes"))
+				throw new IOException("Not found: " + url);
+			if (url.contains(NEXT_PAGE)) {
+				nextPageUrls.add(url);
+				final CountDownLatch gate = nextPageGate;
+				try {
+					if (gate != null && !gate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS))
+						throw new IOException("Timed out: " + url);
+				} catch (final InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+				if (failNextPages)
+					throw new IOException("Failed: " + url);
+			}
+			return new FakeResponse(mFeed);
+		}
+
+		public void awaitNextPages(int count) {
+			final long timeout = SystemClock.uptimeMillis() + TIMEOUT_MS;
+			while (nextPageUrls.size() < count && SystemClock.uptimeMillis() < timeout) {
+				SystemClock.sleep(10);
+			}
+			assertEquals(count, nextPageUrls.size());
+		}
+	}
+
+	static class StateRecorder implements StateListener {
+		private final BlockingQueue<State> mStates = new LinkedBlockingQueue<State>();
+
+		public void awaitState(State expected) throws InterruptedException {
+			State state;
+			do {
+				state = mStates.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				assertNotNull("Timed out waiting for " + expected, state);
+			} while (state != expected);
+		}
+
+		@Override
+		public void onStateChanged(State state) {
+			mStates.add(state);
+		}
+	}
+
+	static class TestAdapter extends GoogleSearchAdapter {
+		public volatile boolean unmetered;
+
+		public TestAdapter(Context context, GoogleBookSearch bookSearch, DatabaseAdapter db,
+				FeedSearch search, ImageDownloadCollection localThumbnails,
+				ImageDownloadCollection webThumbnails) {
+			super(context, bookSearch, db, search, localThumbnails, webThumbnails);
+		}
+
+		@Override
+		protected boolean isUnmeteredNetworkAvailable() {
+			return unmetered;
+		}
+	}
+
+	// same as in GoogleSearchAdapter
+	private static final int MAX_METERED_PREFETCHES = 2;
+	// in the recorded feed
+	private static final String NEXT_PAGE = "start-index=5";
+	private static final int PAGE_SIZE = 4;
+	private static final long TIMEOUT_MS = 10 * 1000;
+
+	private TestAdapter mAdapter;
+	private FrameLayout mParent;
+	private LowLevelHttpTransport mPreviousTransport;
+	private StateRecorder mStates;
+	private FeedTransport mTransport;
+
+	private void bindRow(final int position) throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mAdapter.getView(position, null, mParent);
+			}
+		});
+	}
+
+	private void createAdapter(final float prefetchFraction, boolean unmetered) throws Throwable {
+		final Context context = getInstrumentation().getTargetContext();
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				final GoogleBookSearch bookSearch = new GoogleBookSearch(context);
+				final FeedSearch search = bookSearch.searchByAny("test");
+				final ImageDownloadCollection thumbnails = new ImageDownloadCollection(null, 10,
+						1024 * 1024);
+				mAdapter = new TestAdapter(context, bookSearch, mDb, search, thumbnails,
+						thumbnails);
+				mAdapter.setPrefetchFraction(prefetchFraction);
+				mAdapter.setStateListener(new WeakReference<StateListener>(mStates), false);
+				mParent = new FrameLayout(context);
+			}
+		});
+		mAdapter.unmetered = unmetered;
+		mStates.awaitState(State.CanLoadMore);
+		assertEquals(PAGE_SIZE, mAdapter.getCount());
+	}
+
+	private void loadMore() throws Throwable {
+		final boolean[] loading = new boolean[1];
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				loading[0] = mAdapter.loadMore();
+			}
+		});
+		assertTrue(loading[0]);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mStates = new StateRecorder();
+		mTransport = new FeedTransport(FakeHttpTransport.readRawResource(getInstrumentation()
+				.getContext(), R.raw.volumes_feed));
+		mPreviousTransport = HttpTransport.useLowLevelHttpTransport();
+		HttpTransport.setLowLevelHttpTransport(mTransport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		HttpTransport.setLowLevelHttpTransport(mPreviousTransport);
+		super.tearDown();
+	}
+
+	public void testHandoverAfterPrefetchFailed() throws Throwable {
+		mTransport.failNextPages = true;
+		createAdapter(0.5f, true);
+		bindRow(PAGE_SIZE - 1);
+		mTransport.awaitNextPages(1);
+		// until the failure has been delivered
+		SystemClock.sleep(500);
+		getInstrumentation().waitForIdleSync();
+
+		// searched for again instead of taking over the failed page
+		mTransport.failNextPages = false;
+		loadMore();
+		mStates.awaitState(State.CanLoadMore);
+		assertEquals(2 * PAGE_SIZE, mAdapter.getCount());
+		assertEquals(2, mTransport.nextPageUrls.size());
+	}
+
+	public void testHandoverWhilePrefetchIsInFlight() throws Throwable {
+		final CountDownLatch gate = new CountDownLatch(1);
+		mTransport.nextPageGate = gate;
+		createAdapter(0.5f, true);
+		bindRow(PAGE_SIZE - 1);
+		mTransport.awaitNextPages(1);
+
+		loadMore();
+		// the prefetch is only referenced by the adapter once taken over
+		System.gc();
+		System.runFinalization();
+		System.gc();
+		gate.countDown();
+
+		mStates.awaitState(State.CanLoadMore);
+		assertEquals(2 * PAGE_SIZE, mAdapter.getCount());
+		assertEquals(1, mTransport.nextPageUrls.size());
+	}
+
+	public void testMeteredPrefetchesAreLimited() throws Throwable {
+		createAdapter(0.5f, false);
+		for (int i = 1; i <= MAX_METERED_PREFETCHES; i++) {
+			bindRow(mAdapter.getCount() - 1);
+			mTransport.awaitNextPages(i);
+			loadMore();
+			mStates.awaitState(State.CanLoadMore);
+		}
+
+		// no more prefetching, pages are only loaded when asked for
+		bindRow(mAdapter.getCount() - 1);
+		SystemClock.sleep(500);
+		assertEquals(MAX_METERED_PREFETCHES, mTransport.nextPageUrls.size());
+		loadMore();
+		mStates.awaitState(State.CanLoadMore);
+		assertEquals(MAX_METERED_PREFETCHES + 1, mTransport.nextPageUrls.size());
+
+		// unless the network isn't metered
+		mAdapter.unmetered = true;
+		bindRow(mAdapter.getCount() - 1);
+		mTransport.awaitNextPages(MAX_METERED_PREFETCHES + 2);
+	}
+
+	public void testPrefetchStartsAtFraction() throws Throwable {
+		createAdapter(0.5f, true);
+		bindRow(PAGE_SIZE / 2 - 1);
+		SystemClock.sleep(500);
+		assertEquals(0, mTransport.nextPageUrls.size());
+
+		bindRow(PAGE_SIZE / 2);
+		mTransport.awaitNextPages(1);
+		loadMore();
+		mStates.awaitState(State.CanLoadMore);
+		assertEquals(2 * PAGE_SIZE, mAdapter.getCount());
+		assertEquals(1, mTransport.nextPageUrls.size());
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
+import com.wigwamlabs.booksapp.HttpTransportCache;
+import com.wigwamlabs.booksapp.OfflineException;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+
+public class HttpTransportCacheTest extends InstrumentationTestCase {
+	private static class FakeTransport extends FakeHttpTransport {
+		public TestCache cache;
+		public final List<String> executedUrls = Collections
+				.synchronizedList(new ArrayList<String>());
+		public volatile boolean fail;
+		public volatile boolean loseConnection;
+
+		@Override
+		protected LowLevelHttpResponse answer(String url) throws IOException {
+			executedUrls.add(url);
+			if (loseConnection) {
+				cache.online = false;
+				throw new IOException("Connection lost");
+			}
+			if (fail)
+				throw new IOException("Failed");
+			return new FakeResponse(CONTENT + url);
+		}
+	}
+
+	private static class RestoredObserver implements HttpTransportCache.ConnectivityObserver {
+		public final CountDownLatch restored = new CountDownLatch(1);
+
+		@Override
+		public void onConnectivityRestored() {
+			restored.countDown();
+		}
+	}
+
+	private static class TestCache extends HttpTransportCache {
+		public volatile boolean online;
+
+		public TestCache(LowLevelHttpTransport properTransport, Context context) {
+			super(properTransport, context);
+		}
+
+		@Override
+		protected boolean isOnline() {
+			return online;
+		}
+
+		public void restoreConnectivity() {
+			online = true;
+			onConnectivityRestored();
+		}
+	}
+
+	/**
+	 * Is on an unmetered network for the first few checks only.
+	 */
+	private static class TestSearch extends GoogleBookSearch {
+		public final CountDownLatch metered = new CountDownLatch(1);
+		private final AtomicInteger mUnmeteredChecks;
+
+		public TestSearch(Context context, int unmeteredChecks) {
+			super(context);
+			mUnmeteredChecks = new AtomicInteger(unmeteredChecks);
+		}
+
+		@Override
+		protected boolean isUnmeteredNetworkAvailable() {
+			if (mUnmeteredChecks.getAndDecrement() > 0)
+				return true;
+			metered.countDown();
+			return false;
+		}
+	}
+
+	private static final String CONTENT = "Content of ";
+	// same as in HttpTransportCache
+	private static final int PENDING_REQUESTS_LIMIT = 50;
+
+	private static String read(LowLevelHttpResponse response) throws IOException {
+		final InputStream in = response.getContent();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) {
+			out.write(b);
+		}
+		in.close();
+		return out.toString();
+	}
+
+	private TestCache mCache;
+	private FakeTransport mTransport;
+	private String mUrlPrefix;
+
+	private void assertOffline(String url) throws IOException {
+		try {
+			mCache.buildGetRequest(url).execute();
+			fail();
+		} catch (final OfflineException e) {
+			// expected
+		}
+	}
+
+	private void prefetchRelated(final TestSearch search, final String... googleIds)
+			throws Throwable {
+		final LowLevelHttpTransport previousTransport = HttpTransport.useLowLevelHttpTransport();
+		HttpTransport.setLowLevelHttpTransport(mCache);
+		try {
+			// created where AsyncTask expects it
+			runTestOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					search.prefetchRelatedByGoogleIdsInBackground(googleIds);
+				}
+			});
+			assertTrue(search.metered.await(10, TimeUnit.SECONDS));
+		} finally {
+			HttpTransport.setLowLevelHttpTransport(previousTransport);
+		}
+	}
+
+	private void restoreConnectivity() throws InterruptedException {
+		final RestoredObserver observer = new RestoredObserver();
+		mCache.addObserver(new WeakReference<HttpTransportCache.ConnectivityObserver>(observer));
+		mCache.restoreConnectivity();
+		assertTrue(observer.restored.await(10, TimeUnit.SECONDS));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mTransport = new FakeTransport();
+		mCache = new TestCache(mTransport, getInstrumentation().getTargetContext());
+		mTransport.cache = mCache;
+		// responses are cached on disk as well, so never reuse a url
+		mUrlPrefix = "http://localhost/HttpTransportCacheTest/" + System.currentTimeMillis()
+				+ "/";
+	}
+
+	public void testFailureWhileOnlineIsNotRetried() throws Exception {
+		final String url = mUrlPrefix + "failure";
+		mCache.online = true;
+		mTransport.fail = true;
+		try {
+			mCache.buildGetRequest(url).execute();
+			fail();
+		} catch (final OfflineException e) {
+			fail();
+		} catch (final IOException e) {
+			// expected
+		}
+
+		mTransport.fail = false;
+		restoreConnectivity();
+		assertEquals(1, mTransport.executedUrls.size());
+	}
+
+	public void testOldestPendingRequestsAreDropped() throws Exception {
+		for (int i = 0; i <= PENDING_REQUESTS_LIMIT; i++) {
+			assertOffline(mUrlPrefix + i);
+		}
+		assertTrue(mTransport.executedUrls.isEmpty());
+
+		restoreConnectivity();
+		assertEquals(PENDING_REQUESTS_LIMIT, mTransport.executedUrls.size());
+		assertFalse(mTransport.executedUrls.contains(mUrlPrefix + 0));
+		assertEquals(mUrlPrefix + 1, mTransport.executedUrls.get(0));
+	}
+
+	public void testPrefetchedFeedsAreServedOffline() throws Throwable {
+		// responses are cached on disk as well, so never reuse an id
+		final String idPrefix = "HttpTransportCacheTest" + System.currentTimeMillis() + "-";
+		// metered again once two feeds have been prefetched
+		final TestSearch search = new TestSearch(getInstrumentation().getTargetContext(), 3);
+		mCache.online = true;
+		prefetchRelated(search, idPrefix + 0, idPrefix + 1, idPrefix + 2);
+
+		assertEquals(2, mTransport.executedUrls.size());
+		mCache.online = false;
+		for (int i = 0; i < 2; i++) {
+			final String url = mTransport.executedUrls.get(i);
+			assertTrue(url.contains(idPrefix + i));
+			assertEquals(CONTENT + url, read(mCache.buildGetRequest(url).execute()));
+		}
+		assertEquals(2, mTransport.executedUrls.size());
+	}
+
+	public void testPrefetchIsSkippedOnMeteredNetwork() throws Throwable {
+		final TestSearch search = new TestSearch(getInstrumentation().getTargetContext(), 0);
+		mCache.online = true;
+		prefetchRelated(search, "HttpTransportCacheTest-metered");
+
+		assertTrue(mTransport.executedUrls.isEmpty());
+	}
+
+	public void testRequestIsQueuedWhenConnectionIsLost() throws Exception {
+		final String url = mUrlPrefix + "lost";
+		mCache.online = true;
+		mTransport.loseConnection = true;
+		try {
+			mCache.buildGetRequest(url).execute();
+			fail();
+		} catch (final OfflineException e) {
+			assertEquals("Connection lost", e.getCause().getMessage());
+		}
+
+		mTransport.loseConnection = false;
+		restoreConnectivity();
+		assertEquals(2, mTransport.executedUrls.size());
+		assertEquals(CONTENT + url, read(mCache.buildGetRequest(url).execute()));
+	}
+
+	public void testUncachedRequestIsRetriedWhenOnline() throws Exception {
+		final String url = mUrlPrefix + "retry";
+		final LowLevelHttpRequest request = mCache.buildGetRequest(url);
+		request.addHeader("X-Test", "1");
+		try {
+			request.execute();
+			fail();
+		} catch (final OfflineException e) {
+			// expected
+		}
+		assertTrue(mTransport.executedUrls.isEmpty());
+
+		restoreConnectivity();
+		assertEquals(1, mTransport.executedUrls.size());
+		assertTrue(mTransport.headers.contains("X-Test: 1"));
+
+		// now served from the cache, even when offline
+		mCache.online = false;
+		assertEquals(CONTENT + url, read(mCache.buildGetRequest(url).execute()));
+		assertEquals(1, mTransport.executedUrls.size());
+	}
+
+	public void testUncachedRequestsFailFastWhenOffline() throws Exception {
+		assertOffline(mUrlPrefix + "offline");
+		assertOffline(mUrlPrefix + "offline");
+		assertTrue(mTransport.executedUrls.isEmpty());
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.wigwamlabs.booksapp.IsbnSearchBatcher;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+
+public class IsbnSearchBatcherTest extends TestCase {
+	private IsbnSearchBatcher mBatcher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mBatcher = new IsbnSearchBatcher(new Random(0));
+	}
+
+	public void testBackoffGrowsWithJitter() {
+		assertEquals(0, mBatcher.getBackoff(0));
+		long previousMax = 0;
+		for (int attempts = 1; attempts <= IsbnSearchBatcher.MAX_RETRIES; attempts++) {
+			long min = Long.MAX_VALUE;
+			long max = 0;
+			for (int i = 0; i < 100; i++) {
+				final long backoff = mBatcher.getBackoff(attempts);
+				min = Math.min(min, backoff);
+				max = Math.max(max, backoff);
+			}
+			assertTrue(min < max);
+			assertTrue(min * 2 >= max);
+			assertTrue(max > previousMax);
+			previousMax = max;
+		}
+		assertTrue(mBatcher.getBackoff(100) <= 8000);
+	}
+
+	public void testDoesntGrowWhenResponseIsFull() {
+		// some results might not have fit in the response
+		final int initial = mBatcher.getBatchSize();
+		final int requested = Math.max(initial, GoogleBookSearch.DEFAULT_MAX_RESULTS);
+		mBatcher.onSearchSucceeded(initial, 100, requested);
+		assertEquals(initial, mBatcher.getBatchSize());
+
+		// more results than ISBNs are requested for small batches
+		mBatcher.onSearchSucceeded(initial, 100, GoogleBookSearch.DEFAULT_MAX_RESULTS - 1);
+		final int grown = mBatcher.getBatchSize();
+		assertTrue(grown > initial);
+		mBatcher.onSearchSucceeded(grown, 100, grown);
+		assertEquals(grown, mBatcher.getBatchSize());
+		mBatcher.onSearchSucceeded(grown, 100, grown - 1);
+		assertTrue(mBatcher.getBatchSize() > grown);
+	}
+
+	public void testGrowsWhenFast() {
+		final int initial = mBatcher.getBatchSize();
+		mBatcher.onSearchSucceeded(initial, 100, initial);
+		assertTrue(mBatcher.getBatchSize() > initial);
+
+		for (int i = 0; i < 100; i++) {
+			final int batchSize = mBatcher.getBatchSize();
+			mBatcher.onSearchSucceeded(batchSize, 100, batchSize - 1);
+		}
+		assertEquals(IsbnSearchBatcher.MAX_BATCH_SIZE, mBatcher.getBatchSize());
+	}
+
+	public void testKeepsSizeAfterSmallBatch() {
+		final int initial = mBatcher.getBatchSize();
+		mBatcher.onSearchSucceeded(initial / 2, 100, 1);
+		assertEquals(initial, mBatcher.getBatchSize());
+	}
+
+	public void testShrinksWhenFailing() {
+		final int initial = mBatcher.getBatchSize();
+		mBatcher.onSearchFailed();
+		assertTrue(mBatcher.getBatchSize() < initial);
+
+		for (int i = 0; i < 100; i++) {
+			mBatcher.onSearchFailed();
+		}
+		assertEquals(IsbnSearchBatcher.MIN_BATCH_SIZE, mBatcher.getBatchSize());
+	}
+
+	public void testShrinksWhenSlow() {
+		final int initial = mBatcher.getBatchSize();
+		mBatcher.onSearchSucceeded(initial, 10000, initial);
+		assertTrue(mBatcher.getBatchSize() < initial);
+	}
+}
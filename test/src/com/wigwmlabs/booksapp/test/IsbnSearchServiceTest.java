@@ -16,19 +16,28 @@
 
 package com.wigwmlabs.booksapp.test;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 
 import com.google.api.client.apache.ApacheHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
 import com.wigwamlabs.booksapp.HttpTransportCache;
+import com.wigwamlabs.booksapp.IsbnSearchBatcher;
 import com.wigwamlabs.booksapp.IsbnSearchService;
 import com.wigwamlabs.booksapp.IsbnSearchService.BookSearchItem;
 import com.wigwamlabs.booksapp.IsbnSearchService.LocalBinder;
 import com.wigwamlabs.booksapp.IsbnSearchService.Observer;
+import com.wigwamlabs.booksapp.test.R;
 import com.wigwamlabs.googlebooks.GoogleBook;
 import com.wigwmlabs.booksapp.test.ExpectedResult.Books;
 
@@ -70,6 +79,43 @@ public class IsbnSearchServiceTest extends DatabaseTestCase {
 		}
 	}
 
+	/**
+	 * Answers every search with the recorded feed, except the ones for the
+	 * failing ISBN. Fetching full books fails.
+	 */
+	static class MockTransport extends FakeHttpTransport {
+		private final String mFailingIsbn;
+		private final byte[] mFeed;
+		public final List<String> searchUrls = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		public MockTransport(byte[] feed, String failingIsbn) {
+			mFeed = feed;
+			mFailingIsbn = failingIsbn;
+		}
+
+		@Override
+		protected LowLevelHttpResponse answer(String url) throws IOException {
+			if (!url.contains("q="))
+				throw new IOException("Not found: " + url);
+			searchUrls.add(url);
+			if (url.contains(mFailingIsbn))
+				throw new IOException("Failed: " + url);
+			return new FakeHttpTransport.FakeResponse(mFeed);
+		}
+
+		public int searchCount(String isbn) {
+			int count = 0;
+			synchronized (searchUrls) {
+				for (final String url : searchUrls) {
+					if (url.contains(isbn))
+						count++;
+				}
+			}
+			return count;
+		}
+	}
+
 	LocalBinder mBinder;
 	private MockObserver mObserver;
 	private IsbnSearchService mService;
@@ -141,6 +187,83 @@ public class IsbnSearchServiceTest extends DatabaseTestCase {
 		assertEquals(10, bookCount());
 	}
 
+	public void testDuplicatesAreIgnored() throws Throwable {
+		Books.DragonTattoo_Full.save(mDb);
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mBinder.addIsbn(Books.DragonTattoo_Full.isbn13);
+				mBinder.addIsbn(Books.DragonTattoo_Full.isbn13);
+			}
+		});
+
+		mObserver.waitUntilStoppedRunning();
+		final List<BookSearchItem> items = mBinder.getItems();
+		assertEquals(1, items.size());
+		assertEquals(BookSearchItem.FULL_EXISTING, items.get(0).state);
+	}
+
+	public void testFailingBatchIsRetriedInHalves() throws Throwable {
+		final GoogleBook[] books = { Books.DragonTattoo, Books.PippiLongstocking,
+				Books.Stardust, Books.UML };
+		final String failingIsbn = "9780000000002";
+		final MockTransport transport = new MockTransport(FakeHttpTransport.readRawResource(
+				getInstrumentation().getContext(), R.raw.volumes_feed), failingIsbn);
+		final LowLevelHttpTransport previousTransport = HttpTransport.useLowLevelHttpTransport();
+		HttpTransport.setLowLevelHttpTransport(transport);
+		try {
+			final long start = SystemClock.uptimeMillis();
+			runTestOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					for (final GoogleBook book : books) {
+						mBinder.addIsbn(book.isbn13);
+					}
+					mBinder.addIsbn(failingIsbn);
+				}
+			});
+
+			mObserver.waitUntilStoppedRunning();
+			final long elapsed = SystemClock.uptimeMillis() - start;
+			assertEquals(IsbnSearchService.STATE_FAILED, mBinder.getState());
+
+			// the books in the halves without the failing ISBN are found
+			final List<BookSearchItem> items = mBinder.getItems();
+			assertEquals(books.length + 1, items.size());
+			for (int i = 0; i < books.length; i++) {
+				assertEquals("Item: " + i, BookSearchItem.FULL_SAVED, items.get(i).state);
+				assertEquals(books[i].title, items.get(i).book.title);
+			}
+			assertEquals(BookSearchItem.UNKNOWN, items.get(books.length).state);
+			assertNull(items.get(books.length).book);
+			assertEquals(books.length, bookCount());
+
+			// one batch, split in halves until the failing ISBN is on its own:
+			// [0-4], [0-1] [2-4], [2] [3-4], [3] [4]
+			final String firstSearch = transport.searchUrls.get(0);
+			for (final GoogleBook book : books) {
+				assertTrue(firstSearch.contains(book.isbn13));
+			}
+			assertEquals(7, transport.searchUrls.size());
+			assertEquals(IsbnSearchBatcher.MAX_RETRIES + 1, transport.searchCount(failingIsbn));
+			final String lastSearch = transport.searchUrls.get(transport.searchUrls.size() - 1);
+			assertTrue(lastSearch.contains(failingIsbn));
+			for (final GoogleBook book : books) {
+				assertFalse(lastSearch.contains(book.isbn13));
+			}
+
+			// waited at least half of each backoff before retrying
+			final IsbnSearchBatcher batcher = new IsbnSearchBatcher();
+			long minBackoff = 0;
+			for (int attempts = 1; attempts <= IsbnSearchBatcher.MAX_RETRIES; attempts++) {
+				minBackoff += batcher.getBackoff(attempts) / 2;
+			}
+			assertTrue(elapsed >= minBackoff);
+		} finally {
+			HttpTransport.setLowLevelHttpTransport(previousTransport);
+		}
+	}
+
 	public void testFoundOne() throws Throwable {
 		runTestOnUiThread(new Runnable() {
 			@Override
@@ -234,4 +357,46 @@ public class IsbnSearchServiceTest extends DatabaseTestCase {
 
 		assertEquals(2, bookCount());
 	}
+
+	public void testSearchingForBooksInDatabaseWhileShelfScanning() throws Throwable {
+		Books.DragonTattoo_Full.save(mDb);
+		Books.Stardust.save(mDb);
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mBinder.setShelfScanning(true);
+				mBinder.addIsbn(Books.DragonTattoo_Full.isbn13);
+				mBinder.addIsbn(Books.Stardust.isbn13);
+			}
+		});
+
+		// nothing to search for on the web, so no need to wait for more
+		mObserver.waitUntilStoppedRunning();
+		assertEquals(IsbnSearchService.STATE_FINISHED, mBinder.getState());
+		final List<BookSearchItem> items = mBinder.getItems();
+		assertEquals(2, items.size());
+		assertEquals(BookSearchItem.FULL_EXISTING, items.get(0).state);
+		assertEquals(BookSearchItem.FULL_EXISTING, items.get(1).state);
+	}
+
+	public void testShelfScanningDelaysWebSearch() throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mBinder.setShelfScanning(true);
+				mBinder.addIsbn("111");
+			}
+		});
+
+		// waiting for more ISBNs to search for at the same time
+		SystemClock.sleep(500);
+		assertEquals(IsbnSearchService.STATE_RUNNING, mBinder.getState());
+		assertEquals(BookSearchItem.UNKNOWN, mBinder.getItems().get(0).state);
+
+		// searched right away once done scanning
+		mBinder.setShelfScanning(false);
+		mObserver.waitUntilStoppedRunning();
+		assertEquals(IsbnSearchService.STATE_FINISHED, mBinder.getState());
+		assertEquals(BookSearchItem.NOT_FOUND, mBinder.getItems().get(0).state);
+	}
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import junit.framework.TestCase;
+
+import com.wigwamlabs.util.IsbnUtils;
+
+public class IsbnUtilsTest extends TestCase {
+	private static void assertCanonical(long expected, String isbn) {
+		assertEquals(Long.valueOf(expected), IsbnUtils.toCanonical(isbn));
+	}
+
+	public void testInvalid() {
+		assertNull(IsbnUtils.toCanonical(null));
+		assertNull(IsbnUtils.toCanonical(""));
+		assertNull(IsbnUtils.toCanonical("111"));
+		assertNull(IsbnUtils.toCanonical("invalid"));
+		// wrong check digits
+		assertNull(IsbnUtils.toCanonical("9780307269752"));
+		assertNull(IsbnUtils.toCanonical("0307269753"));
+		// too long
+		assertNull(IsbnUtils.toCanonical("97803072697511"));
+		// X is only a check digit
+		assertNull(IsbnUtils.toCanonical("X307269752"));
+		assertNull(IsbnUtils.toCanonical("030726975X1"));
+	}
+
+	public void testIsbn10() {
+		assertCanonical(9780307269751L, "0307269752");
+		assertCanonical(9780307269751L, "0-307-26975-2");
+		// X check digit
+		assertCanonical(9780804429573L, "080442957X");
+		assertCanonical(9780804429573L, "0-8044-2957-x");
+		// 0 check digit in the ISBN-13
+		assertCanonical(9780306406157L, "0306406152");
+	}
+
+	public void testIsbn13() {
+		assertCanonical(9780307269751L, "9780307269751");
+		assertCanonical(9780307269751L, "978-0-307-26975-1");
+		assertCanonical(9780307269751L, " 978 0307269751 ");
+		assertCanonical(9791090636071L, "979-10-90636-07-1");
+	}
+
+	public void testPrefersIsbn13() {
+		assertEquals(Long.valueOf(9791090636071L),
+				IsbnUtils.toCanonical("9791090636071", "0307269752"));
+		assertEquals(Long.valueOf(9780307269751L), IsbnUtils.toCanonical("invalid", "0307269752"));
+		assertEquals(Long.valueOf(9780307269751L), IsbnUtils.toCanonical(null, "0307269752"));
+		assertNull(IsbnUtils.toCanonical(null, null));
+	}
+}
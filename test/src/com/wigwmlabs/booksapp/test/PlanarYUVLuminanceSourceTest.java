@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Debug;
+import android.util.Log;
+
+import com.google.zxing.client.android.PlanarYUVLuminanceSource;
+
+public class PlanarYUVLuminanceSourceTest extends TestCase {
+	private static final String TAG = "PlanarYUVLuminanceSourceTest";
+
+	private static PlanarYUVLuminanceSource createSource() {
+		return new PlanarYUVLuminanceSource(YuvFrameReplay.createFrame("9780201633610",
+				YuvFrameReplay.WIDTH, YuvFrameReplay.HEIGHT, 0), YuvFrameReplay.WIDTH,
+				YuvFrameReplay.HEIGHT, YuvFrameReplay.CROP_LEFT, YuvFrameReplay.CROP_TOP,
+				YuvFrameReplay.CROP_WIDTH, YuvFrameReplay.CROP_HEIGHT);
+	}
+
+	public void testRenderAllocations() {
+		final PlanarYUVLuminanceSource source = createSource();
+		source.renderCroppedGreyscaleBitmap().recycle();
+
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocSize();
+		final Bitmap bitmap = source.renderCroppedGreyscaleBitmap();
+		final int allocated = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+		bitmap.recycle();
+
+		// an ARGB_8888 bitmap rendered through an int[] allocates 8 bytes per pixel
+		final int pixels = source.getWidth() * source.getHeight();
+		Log.i(TAG, "Rendering allocated " + allocated + " bytes, " + (8 * pixels)
+				+ " bytes with ARGB_8888");
+		assertTrue(allocated < 2 * pixels);
+	}
+
+	public void testRenderGreyscale() {
+		final PlanarYUVLuminanceSource source = createSource();
+		final Bitmap bitmap = source.renderCroppedGreyscaleBitmap();
+		assertEquals(Bitmap.Config.ALPHA_8, bitmap.getConfig());
+		assertEquals(source.getWidth(), bitmap.getWidth());
+		assertEquals(source.getHeight(), bitmap.getHeight());
+
+		final byte[] matrix = source.getMatrix();
+		final int width = source.getWidth();
+		for (int y = 0; y < source.getHeight(); y += 7) {
+			for (int x = 0; x < width; x += 5) {
+				assertEquals(matrix[y * width + x] & 0xff, Color.alpha(bitmap.getPixel(x, y)));
+			}
+		}
+		bitmap.recycle();
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
+import com.wigwamlabs.booksapp.CacheConfig;
+import com.wigwamlabs.booksapp.ImageDownloadCollection;
+import com.wigwamlabs.booksapp.SaveGoogleBookTask;
+import com.wigwamlabs.booksapp.db.BookDetailCursor;
+import com.wigwamlabs.booksapp.db.DatabaseAdapter;
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwamlabs.googlebooks.GoogleBookSearch;
+
+public class SaveGoogleBookTaskTest extends DatabaseTestCase {
+	/**
+	 * Fails to fetch every full book, once two of them are fetched at the
+	 * same time.
+	 */
+	static class ParallelFetchTransport extends FakeHttpTransport {
+		public final AtomicInteger fetches = new AtomicInteger();
+		public final AtomicInteger maxInFlight = new AtomicInteger();
+		private final AtomicInteger mInFlight = new AtomicInteger();
+		private final CountDownLatch mParallel = new CountDownLatch(2);
+
+		@Override
+		protected LowLevelHttpResponse answer(String url) throws IOException {
+			fetches.incrementAndGet();
+			final int inFlight = mInFlight.incrementAndGet();
+			synchronized (maxInFlight) {
+				maxInFlight.set(Math.max(maxInFlight.get(), inFlight));
+			}
+			try {
+				mParallel.countDown();
+				if (!mParallel.await(10, TimeUnit.SECONDS))
+					throw new IOException("Not fetched in parallel: " + url);
+			} catch (final InterruptedException e) {
+				throw new IOException("Interrupted");
+			} finally {
+				mInFlight.decrementAndGet();
+			}
+			throw new IOException("Not found: " + url);
+		}
+	}
+
+	/**
+	 * Saves many books at once, on the calling thread.
+	 */
+	static class TestTask extends SaveGoogleBookTask {
+		public TestTask(Context context, DatabaseAdapter db, GoogleBookSearch bookSearch,
+				ImageDownloadCollection smallThumbnails) {
+			super(context, db, null, bookSearch, smallThumbnails, null);
+		}
+
+		public int saveBooks(GoogleBook... books) {
+			return doInBackground(books).intValue();
+		}
+	}
+
+	private static final String FAILING_URL = "http://localhost/SaveGoogleBookTaskTest/fail";
+
+	private static GoogleBook listBook(String googleId, String thumbnailSmallUrl) {
+		final GoogleBook book = new GoogleBook();
+		book.googleId = googleId;
+		book.title = "Title of " + googleId;
+		book.thumbnailSmallUrl = thumbnailSmallUrl;
+		return book;
+	}
+
+	private Context mContext;
+	private String mIdPrefix;
+
+	private TestTask createTask(final GoogleBookSearch bookSearch) throws Throwable {
+		final TestTask[] task = new TestTask[1];
+		// created where AsyncTask expects it
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				final ImageDownloadCollection thumbnails = new ImageDownloadCollection(null,
+						10, 1024 * 1024) {
+					@Override
+					public Bitmap getImage(String url) {
+						if (FAILING_URL.equals(url))
+							throw new IllegalStateException("Failing thumbnail");
+						return super.getImage(url);
+					}
+				};
+				task[0] = new TestTask(mContext, mDb, bookSearch, thumbnails);
+			}
+		});
+		return task[0];
+	}
+
+	private Long find(GoogleBook book) {
+		return BookDetailCursor.findBookByIds(mDb, null, null, book.googleId);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		// full books are fetched, not loaded from the cache
+		CacheConfig.getGoogleBookCache(mContext).clear();
+		mIdPrefix = "SaveGoogleBookTaskTest" + System.currentTimeMillis() + "-";
+	}
+
+	public void testFailingBookIsSkipped() throws Throwable {
+		final GoogleBook first = listBook(mIdPrefix + "first", null);
+		final GoogleBook failing = listBook(mIdPrefix + "failing", FAILING_URL);
+		final GoogleBook last = listBook(mIdPrefix + "last", null);
+
+		assertEquals(2, createTask(null).saveBooks(first, failing, last));
+
+		// the others are saved in the transaction that is redone without it
+		assertEquals(2, bookCount());
+		assertEquals(first.databaseId, find(first));
+		assertEquals(last.databaseId, find(last));
+		assertNull(find(failing));
+	}
+
+	public void testFullBooksAreFetchedInParallel() throws Throwable {
+		final GoogleBook[] books = new GoogleBook[4];
+		for (int i = 0; i < books.length; i++) {
+			books[i] = listBook(mIdPrefix + i, null);
+		}
+
+		final ParallelFetchTransport transport = new ParallelFetchTransport();
+		final LowLevelHttpTransport previousTransport = HttpTransport.useLowLevelHttpTransport();
+		HttpTransport.setLowLevelHttpTransport(transport);
+		try {
+			final TestTask task = createTask(new GoogleBookSearch(mContext));
+			// the list books are saved even if they can't be fetched
+			assertEquals(books.length, task.saveBooks(books));
+		} finally {
+			HttpTransport.setLowLevelHttpTransport(previousTransport);
+		}
+
+		assertEquals(books.length, transport.fetches.get());
+		// as many as SaveGoogleBookTask.MAX_PARALLEL_FETCHES
+		assertEquals(2, transport.maxInFlight.get());
+		assertEquals(books.length, bookCount());
+		for (final GoogleBook book : books) {
+			assertEquals(book.databaseId, find(book));
+		}
+	}
+}
@@ -84,6 +84,18 @@ public class StringUtilsTest extends TestCase {
 				StringUtils.normalizePersonNameExtreme("Name  With  Doublespace"));
 	}
 
+	public void testReplace() {
+		final String s = "http://thumbnail?id=1&zoom=5";
+		assertSame(s, StringUtils.replace(s, "&edge=curl", ""));
+		assertEquals("http://thumbnail?id=1&zoom=1", StringUtils.replace(s, "zoom=5", "zoom=1"));
+		assertEquals("http://thumbnail?id=1", StringUtils.replace(s, "&zoom=5", ""));
+
+		// all occurrences are replaced, like String.replace()
+		assertEquals("b-b-b", StringUtils.replace("a-a-a", "a", "b"));
+		assertEquals("xyxy", StringUtils.replace("aa", "a", "xy"));
+		assertEquals("a-a-a".replace("", "+"), StringUtils.replace("a-a-a", "", "+"));
+	}
+
 	public void testStringToList() {
 		assertEquals(null, CommaStringList.stringToList(null));
 		assertEquals(null, CommaStringList.stringToList("  "));
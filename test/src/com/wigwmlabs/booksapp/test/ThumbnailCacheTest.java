@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Point;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.widget.ImageView;
+
+import com.wigwamlabs.booksapp.ImageDownloadCollection;
+import com.wigwamlabs.booksapp.ThumbnailCache;
+import com.wigwamlabs.booksapp.ThumbnailScheduler;
+import com.wigwamlabs.util.ImageViewUtils.WhenNoImage;
+
+public class ThumbnailCacheTest extends InstrumentationTestCase {
+	private static class StubLoader implements ThumbnailScheduler.Loader {
+		public final AtomicInteger loadCount = new AtomicInteger();
+
+		@Override
+		public Bitmap load(String url, Point targetSize) {
+			loadCount.incrementAndGet();
+			final Bitmap image = Bitmap.createBitmap(targetSize.x, targetSize.y, Config.RGB_565);
+			image.eraseColor(0xff336699);
+			return image;
+		}
+	}
+
+	private static final Point TARGET_SIZE = new Point(40, 60);
+	private static final long TIMEOUT_MS = 5000;
+	private static final String URL = "http://bks.example.com/books?id=1&zoom=5";
+	private File mDiskDir;
+	private StubLoader mLoader;
+
+	private void attach(final ImageDownloadCollection thumbnails) throws Throwable {
+		final ImageView imageView = new ImageView(getInstrumentation().getTargetContext());
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				thumbnails.attachUrl(URL, imageView, WhenNoImage.DO_NOTHING, false);
+			}
+		});
+	}
+
+	private ImageDownloadCollection createCollection(final ThumbnailCache cache) throws Throwable {
+		final ImageDownloadCollection[] thumbnails = new ImageDownloadCollection[1];
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				thumbnails[0] = new ImageDownloadCollection(TARGET_SIZE, cache);
+			}
+		});
+		return thumbnails[0];
+	}
+
+	private void deleteDiskDir() {
+		final File[] files = mDiskDir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		mDiskDir.delete();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDiskDir = new File(getInstrumentation().getTargetContext().getCacheDir(),
+				"thumbnails-test");
+		deleteDiskDir();
+		mLoader = new StubLoader();
+		ThumbnailScheduler.getInstance().setLoader(mLoader);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ThumbnailScheduler.getInstance().setLoader(null);
+		deleteDiskDir();
+		super.tearDown();
+	}
+
+	public void testDiskLevelSurvivesMemoryLevel() throws Throwable {
+		final ThumbnailCache cache = new ThumbnailCache(100, 1024 * 1024, null, mDiskDir);
+		attach(createCollection(cache));
+		waitForImage(cache);
+		assertEquals(1, mLoader.loadCount.get());
+
+		// a new process starts with an empty memory level
+		final ThumbnailCache newCache = new ThumbnailCache(100, 1024 * 1024, null, mDiskDir);
+		attach(createCollection(newCache));
+		final Bitmap image = waitForImage(newCache);
+		assertEquals(1, mLoader.loadCount.get());
+		assertEquals(TARGET_SIZE.x, image.getWidth());
+		assertEquals(TARGET_SIZE.y, image.getHeight());
+	}
+
+	public void testScreensShareMemoryLevel() throws Throwable {
+		final ThumbnailCache cache = new ThumbnailCache(100, 1024 * 1024, null, null);
+		final ImageDownloadCollection firstScreen = createCollection(cache);
+		attach(firstScreen);
+		waitForImage(cache);
+
+		// e.g. going from the search results to the book details
+		final ImageDownloadCollection secondScreen = createCollection(cache);
+		attach(secondScreen);
+		assertNotNull(secondScreen.getImage(URL));
+		assertEquals(1, mLoader.loadCount.get());
+	}
+
+	private Bitmap waitForImage(ThumbnailCache cache) {
+		final long timeout = SystemClock.uptimeMillis() + TIMEOUT_MS;
+		Bitmap image;
+		while ((image = cache.get(URL)) == null) {
+			assertTrue(SystemClock.uptimeMillis() < timeout);
+			SystemClock.sleep(10);
+		}
+		return image;
+	}
+}
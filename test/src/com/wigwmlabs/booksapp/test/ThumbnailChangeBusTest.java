@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+import com.wigwamlabs.booksapp.ThumbnailChangeBus;
+import com.wigwamlabs.booksapp.ThumbnailManager;
+
+public class ThumbnailChangeBusTest extends InstrumentationTestCase {
+	private static class RecordingObserver implements ThumbnailManager.Observer {
+		public final List<ThumbnailChangeBus.Changes> changes = new ArrayList<ThumbnailChangeBus.Changes>();
+
+		@Override
+		public void onThumbnailsChanged(ThumbnailChangeBus.Changes c) {
+			assertEquals(Looper.getMainLooper(), Looper.myLooper());
+			changes.add(c);
+		}
+	}
+
+	private static final long TIMEOUT_MS = 5000;
+	private ThumbnailChangeBus mBus;
+	private RecordingObserver mObserver;
+
+	private void addObserver() throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mBus.addObserver(new WeakReference<ThumbnailManager.Observer>(mObserver));
+			}
+		});
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mBus = new ThumbnailChangeBus(new Handler(Looper.getMainLooper()));
+		mObserver = new RecordingObserver();
+	}
+
+	public void testBulkChangesAreBatched() throws Throwable {
+		addObserver();
+		final int count = 5000;
+		// everything is published before the main thread can dispatch
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					mBus.publish(i, true, ThumbnailManager.getSmallThumbnailUrl(i));
+				}
+				mBus.publish(1, false, "file:/1_l.png");
+			}
+		});
+		waitForChanges(1);
+		getInstrumentation().waitForIdleSync();
+
+		assertEquals(1, mObserver.changes.size());
+		final ThumbnailChangeBus.Changes changes = mObserver.changes.get(0);
+		assertEquals(count + 1, changes.getCount());
+		assertEquals(count + 1, changes.getUrls().size());
+		assertTrue(changes.contains(count - 1, true));
+		assertTrue(changes.contains(1, false));
+		assertFalse(changes.contains(2, false));
+	}
+
+	public void testPublishFromBackground() throws Throwable {
+		addObserver();
+		for (int i = 0; i < 100; i++) {
+			mBus.publish(7, true, ThumbnailManager.getSmallThumbnailUrl(7));
+		}
+		waitForChanges(1);
+		SystemClock.sleep(100);
+		getInstrumentation().waitForIdleSync();
+
+		// duplicates are merged, however many notifications there were
+		int total = 0;
+		for (final ThumbnailChangeBus.Changes changes : mObserver.changes) {
+			assertTrue(changes.contains(7, true));
+			assertFalse(changes.hasChanges(false));
+			total += changes.getCount();
+		}
+		assertTrue(total <= mObserver.changes.size());
+		assertTrue(mObserver.changes.size() < 100);
+	}
+
+	public void testRemovedObserverIsNotNotified() throws Throwable {
+		addObserver();
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mBus.removeObserver(mObserver);
+				mBus.publish(1, true, ThumbnailManager.getSmallThumbnailUrl(1));
+			}
+		});
+		SystemClock.sleep(100);
+		getInstrumentation().waitForIdleSync();
+		assertEquals(0, mObserver.changes.size());
+	}
+
+	private void waitForChanges(int count) {
+		final long timeout = SystemClock.uptimeMillis() + TIMEOUT_MS;
+		while (true) {
+			getInstrumentation().waitForIdleSync();
+			if (mObserver.changes.size() >= count)
+				return;
+			assertTrue(SystemClock.uptimeMillis() < timeout);
+			SystemClock.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.util.HashMap;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Point;
+import android.os.SystemClock;
+
+import com.wigwamlabs.booksapp.ThumbnailDownloadQueue;
+import com.wigwamlabs.booksapp.ThumbnailManager;
+import com.wigwamlabs.booksapp.ThumbnailScheduler;
+import com.wigwamlabs.booksapp.db.BookEntry;
+import com.wigwamlabs.booksapp.db.ThumbnailQueueTable;
+
+public class ThumbnailDownloadQueueTest extends DatabaseTestCase {
+	private static class StubLoader implements ThumbnailScheduler.Loader {
+		private final HashMap<String, Integer> mLoadCounts = new HashMap<String, Integer>();
+
+		public synchronized int getLoadCount(String url) {
+			final Integer count = mLoadCounts.get(url);
+			return (count == null ? 0 : count.intValue());
+		}
+
+		@Override
+		public Bitmap load(String url, Point targetSize) {
+			synchronized (this) {
+				mLoadCounts.put(url, Integer.valueOf(getLoadCount(url) + 1));
+			}
+			if (url.contains("offline"))
+				return null;
+			return Bitmap.createBitmap(targetSize.x, targetSize.y, Config.RGB_565);
+		}
+	}
+
+	private static final long BOOK_ID = 999990;
+	private static final String OFFLINE_URL = "http://bks.example.com/offline.jpg";
+	private static final long TIMEOUT_MS = 5000;
+	private static final String URL_1 = "http://bks.example.com/1.jpg";
+	private static final String URL_2 = "http://bks.example.com/2.jpg";
+	private StubLoader mLoader;
+	private ThumbnailDownloadQueue mQueue;
+
+	private void add(ThumbnailDownloadQueue queue, long bookId, String url) {
+		try {
+			final int t = mDb.beginTransaction();
+			queue.add(t, bookId, url, false);
+			mDb.setTransactionSuccessful(t);
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	private ThumbnailDownloadQueue createQueue() {
+		final ThumbnailDownloadQueue queue = new ThumbnailDownloadQueue(getInstrumentation()
+				.getTargetContext(), mDb);
+		queue.setLoader(mLoader);
+		return queue;
+	}
+
+	private int getAttempts() {
+		final Cursor c = mDb.queryRaw("SELECT MAX(" + ThumbnailQueueTable.attempts + ") FROM "
+				+ ThumbnailQueueTable.n, null);
+		try {
+			return (c.moveToFirst() ? c.getInt(0) : 0);
+		} finally {
+			c.close();
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mLoader = new StubLoader();
+		mQueue = createQueue();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		final Context context = getInstrumentation().getTargetContext();
+		for (long id = BOOK_ID; id < BOOK_ID + 4; id++) {
+			ThumbnailManager.deleteThumbnails(context, id);
+		}
+		ThumbnailManager.waitForPendingWrites();
+		super.tearDown();
+	}
+
+	public void testBackoff() {
+		assertEquals(0, ThumbnailDownloadQueue.getBackoff(0));
+		assertEquals(30 * 1000, ThumbnailDownloadQueue.getBackoff(1));
+		assertEquals(60 * 1000, ThumbnailDownloadQueue.getBackoff(2));
+		assertEquals(6 * 60 * 60 * 1000, ThumbnailDownloadQueue.getBackoff(100));
+	}
+
+	public void testIdenticalUrlsAreDownloadedOnce() throws Exception {
+		add(mQueue, BOOK_ID, URL_1);
+		add(mQueue, BOOK_ID + 1, URL_1);
+		add(mQueue, BOOK_ID + 2, URL_1);
+		add(mQueue, BOOK_ID + 3, URL_2);
+		mQueue.start();
+		waitForEmptyQueue();
+		ThumbnailManager.waitForPendingWrites();
+
+		assertEquals(1, mLoader.getLoadCount(URL_1));
+		assertEquals(1, mLoader.getLoadCount(URL_2));
+		final Context context = getInstrumentation().getTargetContext();
+		for (long id = BOOK_ID; id < BOOK_ID + 4; id++) {
+			assertTrue(ThumbnailManager.hasThumbnail(context, id, false));
+		}
+	}
+
+	public void testNewUrlReplacesQueuedOne() {
+		add(mQueue, BOOK_ID, URL_1);
+		add(mQueue, BOOK_ID, URL_2);
+		assertTableEquals(BOOK_ID + "|" + URL_2, ThumbnailQueueTable.n,
+				ThumbnailQueueTable.book_id + ", " + ThumbnailQueueTable.url);
+	}
+
+	public void testQueueSurvivesRestart() throws Exception {
+		// queued by a process that was killed before downloading
+		add(createQueue(), BOOK_ID, URL_1);
+
+		mQueue.start();
+		waitForEmptyQueue();
+		assertEquals(1, mLoader.getLoadCount(URL_1));
+	}
+
+	public void testRemovedWithBook() {
+		final long bookId = addBook("Title").longValue();
+		add(mQueue, bookId, URL_1);
+		assertEquals(1, mQueue.getPendingCount());
+		BookEntry.delete(mDb, bookId);
+		assertEquals(0, mQueue.getPendingCount());
+	}
+
+	public void testRetryIsDelayed() throws Exception {
+		add(mQueue, BOOK_ID, OFFLINE_URL);
+		mQueue.start();
+		final long timeout = SystemClock.uptimeMillis() + TIMEOUT_MS;
+		while (getAttempts() == 0) {
+			assertTrue(SystemClock.uptimeMillis() < timeout);
+			SystemClock.sleep(10);
+		}
+		SystemClock.sleep(200);
+
+		// still queued, but not retried right away
+		assertEquals(1, mQueue.getPendingCount());
+		assertEquals(1, mLoader.getLoadCount(OFFLINE_URL));
+		assertEquals(1, getAttempts());
+	}
+
+	private void waitForEmptyQueue() {
+		final long timeout = SystemClock.uptimeMillis() + TIMEOUT_MS;
+		while (mQueue.getPendingCount() > 0) {
+			assertTrue(SystemClock.uptimeMillis() < timeout);
+			SystemClock.sleep(10);
+		}
+	}
+}
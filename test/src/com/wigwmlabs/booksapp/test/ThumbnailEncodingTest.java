@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wigwamlabs.booksapp.ThumbnailManager;
+import com.wigwamlabs.util.BitmapUtils;
+
+public class ThumbnailEncodingTest extends AndroidTestCase {
+	private static final long BOOK_ID = 999999;
+	private static final int ITERATIONS = 10;
+	private static final String TAG = "ThumbnailEncodingTest";
+
+	/**
+	 * Creates something that compresses like a photographed cover: smooth
+	 * gradients with some noise.
+	 */
+	private static Bitmap createCover(int width, int height) {
+		final Random random = new Random(42);
+		final int[] pixels = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int noise = random.nextInt(16);
+				final int r = (x * 255 / width + noise) & 0xff;
+				final int g = (y * 255 / height + noise) & 0xff;
+				final int b = ((x + y) * 127 / (width + height) + noise) & 0xff;
+				pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+			}
+		}
+		return Bitmap.createBitmap(pixels, width, height, Config.ARGB_8888);
+	}
+
+	private static int encode(Bitmap cover, CompressFormat format, int quality, String name) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cover.compress(format, quality, out); // warm up
+
+		final long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			out.reset();
+			cover.compress(format, quality, out);
+		}
+		final long time = (SystemClock.elapsedRealtime() - start) / ITERATIONS;
+		Log.i(TAG, name + " " + cover.getWidth() + "x" + cover.getHeight() + " q" + quality
+				+ ": " + out.size() + " bytes, " + time + " ms");
+		return out.size();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ThumbnailManager.setThumbnailFormat(CompressFormat.JPEG, ThumbnailManager.DEFAULT_QUALITY);
+		ThumbnailManager.deleteThumbnails(getContext(), BOOK_ID);
+		ThumbnailManager.waitForPendingWrites();
+		super.tearDown();
+	}
+
+	public void testEncodeSizeAndTime() {
+		final CompressFormat webp = BitmapUtils.getWebpFormat();
+		final int[][] sizes = { { 60, 90 }, { 320, 480 } };
+		for (final int[] size : sizes) {
+			final Bitmap cover = createCover(size[0], size[1]);
+			final int png = encode(cover, CompressFormat.PNG, 100, "PNG");
+			final int jpeg = encode(cover, CompressFormat.JPEG, ThumbnailManager.DEFAULT_QUALITY,
+					"JPEG");
+			encode(cover, CompressFormat.JPEG, 70, "JPEG");
+			if (webp != null)
+				encode(cover, webp, ThumbnailManager.DEFAULT_QUALITY, "WebP");
+			cover.recycle();
+
+			assertTrue(jpeg < png);
+		}
+	}
+
+	public void testMigrateThumbnails() throws Exception {
+		final Context context = getContext();
+		final Bitmap cover = createCover(320, 480);
+
+		// as stored by earlier versions
+		final File file = ThumbnailManager.getThumbnail(context, BOOK_ID, false);
+		final FileOutputStream out = new FileOutputStream(file);
+		cover.compress(CompressFormat.PNG, 100, out);
+		out.close();
+		final long pngLength = file.length();
+
+		ThumbnailManager.migrateThumbnails(context);
+		ThumbnailManager.waitForPendingWrites();
+
+		assertTrue(file.length() < pngLength);
+		final Bitmap migrated = BitmapFactory.decodeFile(file.getPath());
+		assertEquals(320, migrated.getWidth());
+		assertEquals(480, migrated.getHeight());
+	}
+
+	public void testStoreLargeThumbnailCreatesSmall() throws Exception {
+		final Context context = getContext();
+		ThumbnailManager.storeLargeThumbnail(context, BOOK_ID, createCover(320, 480), true);
+		ThumbnailManager.waitForPendingWrites();
+
+		assertTrue(ThumbnailManager.hasThumbnail(context, BOOK_ID, false));
+		assertTrue(ThumbnailManager.hasThumbnail(context, BOOK_ID, true));
+	}
+}
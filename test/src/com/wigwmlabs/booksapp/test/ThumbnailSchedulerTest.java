@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Point;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.wigwamlabs.booksapp.ImageDownloadCollection;
+import com.wigwamlabs.booksapp.ThumbnailScheduler;
+import com.wigwamlabs.googlebooks.GoogleBook;
+import com.wigwamlabs.util.ImageViewUtils.WhenNoImage;
+
+public class ThumbnailSchedulerTest extends InstrumentationTestCase {
+	private static class StubLoader implements ThumbnailScheduler.Loader {
+		public final AtomicInteger loadCount = new AtomicInteger();
+
+		@Override
+		public Bitmap load(String url, Point targetSize) {
+			SystemClock.sleep(LATENCY_MS);
+			loadCount.incrementAndGet();
+			return Bitmap.createBitmap(2, 2, Config.RGB_565);
+		}
+	}
+
+	private static final int BOOK_COUNT = 200;
+	private static final int FRAME_MS = 16;
+	private static final int LATENCY_MS = 200;
+	private static final String TAG = "ThumbnailSchedulerTest";
+	private static final int VISIBLE_ROWS = 8;
+	private List<GoogleBook> mBooks;
+	private StubLoader mLoader;
+	private ImageDownloadCollection mThumbnails;
+	private ImageView[] mViews;
+
+	private void bindRows(final int firstRow) throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// same as GoogleSearchAdapter.getView() for recycled views
+				for (int i = 0; i < VISIBLE_ROWS; i++) {
+					mThumbnails.attachUrl(mBooks.get(firstRow + i).thumbnailSmallUrl, mViews[i],
+							WhenNoImage.DO_NOTHING, false);
+				}
+			}
+		});
+	}
+
+	private boolean rowsLoaded(int firstRow) {
+		for (int i = 0; i < VISIBLE_ROWS; i++) {
+			if (mThumbnails.getImage(mBooks.get(firstRow + i).thumbnailSmallUrl) == null)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final Context context = getInstrumentation().getTargetContext();
+
+		mLoader = new StubLoader();
+		ThumbnailScheduler.getInstance().setLoader(mLoader);
+
+		mBooks = new ArrayList<GoogleBook>(BOOK_COUNT);
+		for (int i = 0; i < BOOK_COUNT; i++) {
+			final GoogleBook b = new GoogleBook();
+			b.thumbnailSmallUrl = "http://bks.example.com/books?id=" + i + "&zoom=5";
+			mBooks.add(b);
+		}
+
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mThumbnails = new ImageDownloadCollection(null, 5000, 2 * 1024 * 1024);
+				mViews = new ImageView[VISIBLE_ROWS];
+				for (int i = 0; i < VISIBLE_ROWS; i++) {
+					mViews[i] = new ImageView(context);
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ThumbnailScheduler.getInstance().setLoader(null);
+		super.tearDown();
+	}
+
+	public void testFastScrollLoadsVisibleRowsFirst() throws Throwable {
+		// fling through the whole list, one row per frame
+		final long start = SystemClock.uptimeMillis();
+		int firstRow;
+		for (firstRow = 0; firstRow + VISIBLE_ROWS < BOOK_COUNT; firstRow++) {
+			bindRows(firstRow);
+			SystemClock.sleep(FRAME_MS);
+		}
+		final long scrollEnd = SystemClock.uptimeMillis();
+
+		while (!rowsLoaded(firstRow)) {
+			SystemClock.sleep(10);
+		}
+		final long visibleLoaded = SystemClock.uptimeMillis();
+
+		Log.i(TAG, "Scrolled " + BOOK_COUNT + " rows in " + (scrollEnd - start)
+				+ " ms, visible rows loaded " + (visibleLoaded - scrollEnd) + " ms later, "
+				+ mLoader.loadCount.get() + " thumbnails loaded");
+
+		// recycled views must have cancelled most of the requests
+		assertTrue(mLoader.loadCount.get() < BOOK_COUNT / 2);
+		// and the visible rows must not wait for the skipped ones
+		assertTrue(visibleLoaded - scrollEnd < 4 * VISIBLE_ROWS * LATENCY_MS);
+	}
+
+	public void testPrefetchIsNotCancelled() throws Throwable {
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// as GoogleSearchAdapter.onDownloadFinished()
+				for (int i = 0; i < VISIBLE_ROWS * 2; i++) {
+					mThumbnails.prefetchUrl(mBooks.get(i).thumbnailSmallUrl);
+				}
+			}
+		});
+		bindRows(0);
+		bindRows(VISIBLE_ROWS);
+
+		final long timeout = SystemClock.uptimeMillis() + 10 * VISIBLE_ROWS * LATENCY_MS;
+		while (!(rowsLoaded(0) && rowsLoaded(VISIBLE_ROWS))) {
+			assertTrue(SystemClock.uptimeMillis() < timeout);
+			SystemClock.sleep(10);
+		}
+		assertEquals(VISIBLE_ROWS * 2, mLoader.loadCount.get());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wigwamlabs.booksapp.ThumbnailStore;
+
+public class ThumbnailStoreTest extends AndroidTestCase {
+	private static final String TAG = "ThumbnailStoreTest";
+
+	private static void assertData(byte[] expected, ByteBuffer actual) {
+		assertNotNull(actual);
+		assertEquals(expected.length, actual.remaining());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual.get(i));
+		}
+	}
+
+	private static byte[] data(int seed, int length) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (seed + i);
+		}
+		return data;
+	}
+
+	private File mFile;
+	private ThumbnailStore mStore;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = new File(getContext().getCacheDir(), "test.pack");
+		mFile.delete();
+		mStore = new ThumbnailStore(mFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mStore.close();
+		mFile.delete();
+		super.tearDown();
+	}
+
+	public void testCompaction() throws Exception {
+		final byte[] data = data(1, 4000);
+		for (int i = 0; i < 1000; i++) {
+			mStore.put(i % 10, data, data.length);
+		}
+		// 1000 records of 4 kB have been written, but only 10 are alive
+		assertTrue(mFile.length() < 2 * 1024 * 1024);
+		assertEquals(10, mStore.getCount());
+		assertData(data, mStore.get(5));
+	}
+
+	public void testManySmallThumbnails() throws Exception {
+		final int count = 30000;
+		final byte[] data = data(7, 3000);
+		long start = SystemClock.uptimeMillis();
+		for (int i = 0; i < count; i++) {
+			mStore.put(i, data, data.length);
+		}
+		final long writeTime = SystemClock.uptimeMillis() - start;
+		mStore.close();
+
+		start = SystemClock.uptimeMillis();
+		mStore = new ThumbnailStore(mFile);
+		final long openTime = SystemClock.uptimeMillis() - start;
+
+		start = SystemClock.uptimeMillis();
+		for (int i = 0; i < count; i++) {
+			assertEquals(data.length, mStore.get(i).remaining());
+		}
+		final long readTime = SystemClock.uptimeMillis() - start;
+		Log.i(TAG, count + " thumbnails: write " + writeTime + " ms, open " + openTime
+				+ " ms, lookup " + readTime + " ms");
+	}
+
+	public void testPutGetRemove() throws Exception {
+		final byte[] a = data(1, 100);
+		final byte[] b = data(2, 200);
+		assertNull(mStore.get(1));
+
+		mStore.put(1, a, a.length);
+		mStore.put(2, b, b.length);
+		assertData(a, mStore.get(1));
+		assertData(b, mStore.get(2));
+
+		// replace
+		final ByteBuffer old = mStore.get(1);
+		mStore.put(1, b, b.length);
+		assertData(b, mStore.get(1));
+		assertData(a, old);
+
+		mStore.remove(2);
+		assertFalse(mStore.contains(2));
+		assertNull(mStore.get(2));
+	}
+
+	public void testReopen() throws Exception {
+		final byte[] a = data(1, 100);
+		final byte[] b = data(2, 200);
+		mStore.put(1, a, a.length);
+		mStore.put(2, b, b.length);
+		mStore.put(1, b, b.length);
+		mStore.remove(2);
+		mStore.close();
+
+		mStore = new ThumbnailStore(mFile);
+		assertEquals(1, mStore.getCount());
+		assertData(b, mStore.get(1));
+	}
+
+	public void testTruncatedRecord() throws Exception {
+		final byte[] a = data(1, 100);
+		mStore.put(1, a, a.length);
+		mStore.put(2, a, a.length);
+		mStore.close();
+
+		// as if the process died in the middle of writing
+		final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+		raf.setLength(raf.length() - 10);
+		raf.close();
+
+		mStore = new ThumbnailStore(mFile);
+		assertData(a, mStore.get(1));
+		assertFalse(mStore.contains(2));
+		mStore.put(3, a, a.length);
+		assertData(a, mStore.get(3));
+	}
+}
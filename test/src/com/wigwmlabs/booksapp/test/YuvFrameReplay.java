@@ -0,0 +1,316 @@
+/*
+ * Copyright 2011 Jonas Bengtsson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wigwmlabs.booksapp.test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.android.DecodePipeline;
+import com.google.zxing.client.android.FrameDecoder;
+import com.google.zxing.client.android.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.oned.EAN13Writer;
+
+/**
+ * Replays YUV preview frames through the barcode decoder and measures how many frames per
+ * second it handles, and how long it takes for the decode pipeline to find the barcode when
+ * the frames arrive at the rate of the camera. Has no Android dependencies, so it can be run on a desktop JVM too:
+ *
+ * <pre>
+ * java com.wigwmlabs.booksapp.test.YuvFrameReplay [frames.yuv width height]
+ * </pre>
+ *
+ * where frames.yuv contains raw NV21 frames as passed to onPreviewFrame(). Synthesized frames
+ * are used if no file is given.
+ */
+public class YuvFrameReplay {
+	public static class PipelineCallback implements DecodePipeline.Callback {
+		private final CountDownLatch mDecoded = new CountDownLatch(1);
+		private int mDecodeCount;
+		private int mReleaseCount;
+		private Result mResult;
+
+		@Override
+		public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+			return new PlanarYUVLuminanceSource(data, width, height, CROP_LEFT, CROP_TOP,
+					CROP_WIDTH, CROP_HEIGHT);
+		}
+
+		public synchronized int getDecodeCount() {
+			return mDecodeCount;
+		}
+
+		public synchronized int getReleaseCount() {
+			return mReleaseCount;
+		}
+
+		public synchronized Result getResult() {
+			return mResult;
+		}
+
+		@Override
+		public synchronized void onDecodeSucceeded(Result result, PlanarYUVLuminanceSource source) {
+			mDecodeCount++;
+			mResult = result;
+			mDecoded.countDown();
+		}
+
+		@Override
+		public synchronized void releaseFrame(byte[] data) {
+			mReleaseCount++;
+		}
+
+		public boolean waitForDecode(long timeoutMs) {
+			try {
+				return mDecoded.await(timeoutMs, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				return false;
+			}
+		}
+	}
+
+	public static final int CAMERA_FRAME_MS = 66;
+	public static final int CROP_HEIGHT = 240;
+	public static final int CROP_LEFT = 60;
+	public static final int CROP_TOP = 40;
+	public static final int CROP_WIDTH = 360;
+	public static final int HEIGHT = 320;
+	/** Decode each frame with new objects, like DecodeHandler used to. */
+	public static final int MODE_ALLOCATING = 0;
+	/** Only scan a few rows for Bookland barcodes, with a reused FrameDecoder. */
+	public static final int MODE_BOOK_SCANNING = 1;
+	/** Decode with a reused FrameDecoder. */
+	public static final int MODE_REUSING = 2;
+	public static final int WIDTH = 480;
+
+	/**
+	 * Creates an NV21 frame with the barcode in the middle of the crop rectangle, or only noise
+	 * if ean is null.
+	 */
+	public static byte[] createFrame(String ean, int width, int height, long seed) {
+		return createFrame(ean, width, height, seed, CROP_HEIGHT / 4, CROP_HEIGHT / 2);
+	}
+
+	/**
+	 * Creates an NV21 frame with the barcode at the given offset from the top of the crop
+	 * rectangle, or only noise if ean is null.
+	 */
+	public static byte[] createFrame(String ean, int width, int height, long seed,
+			int barcodeTop, int barcodeHeight) {
+		final Random random = new Random(seed);
+		final byte[] frame = new byte[width * height * 3 / 2];
+		for (int i = 0; i < width * height; i++) {
+			frame[i] = (byte) (180 + random.nextInt(40));
+		}
+		for (int i = width * height; i < frame.length; i++) {
+			frame[i] = (byte) 128;
+		}
+		if (ean == null)
+			return frame;
+
+		final BitMatrix barcode;
+		try {
+			barcode = new EAN13Writer().encode(ean, BarcodeFormat.EAN_13, CROP_WIDTH * 4 / 5,
+					barcodeHeight);
+		} catch (final WriterException e) {
+			throw new IllegalArgumentException(e.toString());
+		}
+		// move the barcode around a bit between frames, like a hand held camera
+		final int left = CROP_LEFT + (CROP_WIDTH - barcode.getWidth()) / 2 + random.nextInt(9) - 4;
+		final int top = CROP_TOP + barcodeTop + random.nextInt(9) - 4;
+		for (int y = 0; y < barcode.getHeight(); y++) {
+			for (int x = 0; x < barcode.getWidth(); x++) {
+				if (barcode.get(x, y))
+					frame[(top + y) * width + left + x] = (byte) (30 + random.nextInt(40));
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Creates a sequence where the barcode is only found in the last few frames, like when
+	 * aiming the camera at a book.
+	 */
+	public static List<byte[]> createFrames(String ean, int count) {
+		final List<byte[]> frames = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			frames.add(createFrame(i < count - 3 ? null : ean, WIDTH, HEIGHT, i));
+		}
+		return frames;
+	}
+
+	public static Hashtable<DecodeHintType, Object> createHints() {
+		final Vector<BarcodeFormat> formats = new Vector<BarcodeFormat>();
+		formats.add(BarcodeFormat.EAN_13);
+		final Hashtable<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>();
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+		return hints;
+	}
+
+	/**
+	 * Decodes the frames in order, like the camera would deliver them, and returns the first
+	 * result.
+	 */
+	public static Result decodeFirst(FrameDecoder decoder, List<byte[]> frames) {
+		final PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frames.get(0), WIDTH,
+				HEIGHT, CROP_LEFT, CROP_TOP, CROP_WIDTH, CROP_HEIGHT);
+		for (final byte[] frame : frames) {
+			final Result result = decoder.decode(source, frame);
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	private static String format(double fps) {
+		return Long.toString(Math.round(fps));
+	}
+
+	public static void main(String[] args) throws IOException {
+		final List<byte[]> frames;
+		int width = WIDTH;
+		int height = HEIGHT;
+		if (args.length >= 3) {
+			width = Integer.parseInt(args[1]);
+			height = Integer.parseInt(args[2]);
+			frames = readFrames(new File(args[0]), width, height);
+		} else {
+			frames = createFrames("9780201633610", 30);
+		}
+
+		final int iterations = 20;
+		final String[] modes = { "allocating", "book scanning", "reusing" };
+		System.out.println(frames.size() + " frames of " + width + "x" + height);
+		for (int mode = 0; mode < modes.length; mode++) {
+			replay(frames, width, height, mode, iterations); // warm up
+			System.out.println(modes[mode] + ": "
+					+ format(replay(frames, width, height, mode, iterations)) + " frames/s");
+		}
+
+		final int maxWorkers = Math.max(3, Runtime.getRuntime().availableProcessors());
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			for (int bookScanning = 0; bookScanning < 2; bookScanning++) {
+				long total = 0;
+				final int runs = 5;
+				for (int i = 0; i < runs; i++) {
+					total += timeToFirstDecode(frames, width, height, bookScanning != 0, workers,
+							CAMERA_FRAME_MS);
+				}
+				System.out.println(workers + " worker(s)" + (bookScanning != 0 ? ", book scanning" : "")
+						+ ": " + (total / runs) + " ms to first decode, at one frame per "
+						+ CAMERA_FRAME_MS + " ms");
+			}
+		}
+	}
+
+	public static List<byte[]> readFrames(File file, int width, int height) throws IOException {
+		final List<byte[]> frames = new ArrayList<byte[]>();
+		final DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			while (true) {
+				final byte[] frame = new byte[width * height * 3 / 2];
+				in.readFully(frame);
+				frames.add(frame);
+			}
+		} catch (final EOFException e) {
+			// done
+		} finally {
+			in.close();
+		}
+		return frames;
+	}
+
+	/**
+	 * Decodes all frames a number of times in one of the MODE_* ways, and returns the number of
+	 * frames decoded per second.
+	 */
+	public static double replay(List<byte[]> frames, int width, int height, int mode,
+			int iterations) {
+		final Hashtable<DecodeHintType, Object> hints = createHints();
+		final FrameDecoder frameDecoder = new FrameDecoder(hints, mode == MODE_BOOK_SCANNING);
+		final MultiFormatReader reader = new MultiFormatReader();
+		reader.setHints(hints);
+		final PlanarYUVLuminanceSource reusedSource = new PlanarYUVLuminanceSource(frames.get(0),
+				width, height, CROP_LEFT, CROP_TOP, CROP_WIDTH, CROP_HEIGHT);
+
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (final byte[] frame : frames) {
+				if (mode != MODE_ALLOCATING) {
+					frameDecoder.decode(reusedSource, frame);
+				} else {
+					final PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frame,
+							width, height, CROP_LEFT, CROP_TOP, CROP_WIDTH, CROP_HEIGHT);
+					try {
+						reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+					} catch (final ReaderException e) {
+						// continue
+					} finally {
+						reader.reset();
+					}
+				}
+			}
+		}
+		final long time = System.nanoTime() - start;
+		return frames.size() * iterations * 1e9 / time;
+	}
+
+	/**
+	 * Offers the frames to a pipeline at the given interval, like the camera would, and returns
+	 * the number of milliseconds from the first frame until the barcode was found, or -1 if it
+	 * wasn't.
+	 */
+	public static long timeToFirstDecode(List<byte[]> frames, int width, int height,
+			boolean bookScanning, int workerCount, long frameIntervalMs) {
+		final PipelineCallback callback = new PipelineCallback();
+		final DecodePipeline pipeline = new DecodePipeline(createHints(), bookScanning,
+				workerCount, callback);
+		try {
+			pipeline.start();
+			final long start = System.nanoTime();
+			for (final byte[] frame : frames) {
+				pipeline.offer(frame, width, height);
+				if (callback.waitForDecode(frameIntervalMs))
+					return (System.nanoTime() - start) / 1000000;
+			}
+			// give the workers time to finish the last frames
+			if (callback.waitForDecode(1000))
+				return (System.nanoTime() - start) / 1000000;
+			return -1;
+		} finally {
+			pipeline.quit();
+		}
+	}
+}